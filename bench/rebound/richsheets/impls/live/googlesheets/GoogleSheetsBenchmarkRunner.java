@@ -0,0 +1,152 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * A tiny JMH-ish harness (JMH isn't in lib/ and there's no build to pull it in with, so this does the basics by hand): warmup iterations, then timed measurement iterations, and one JSON object per line per benchmark so results can be diffed/graphed/compared by scripts.
+ *
+ * Arguments:
+ * 	--warmup N          warmup iterations (default 3)
+ * 	--iterations N      measurement iterations (default 5)
+ * 	--time-ms N         how long each iteration runs (default 1000)
+ * 	--filter REGEX      only run benchmarks whose names match (find(), not matches())
+ * 	--out FILE          write the results there instead of stdout (progress still goes to stderr)
+ *
+ * The error is the 99.9% confidence interval's half-width, with a normal approximation (so take it with a grain of salt at five iterations!)
+ */
+public class GoogleSheetsBenchmarkRunner
+{
+	@FunctionalInterface
+	public static interface Benchmark
+	{
+		/**
+		 * One operation.
+		 * @return anything that depends on the work, so the JIT can't throw the work away
+		 */
+		public long run() throws Exception;
+	}
+	
+	
+	protected int warmupIterations = 3;
+	protected int measurementIterations = 5;
+	protected long iterationMillis = 1000;
+	protected Pattern filter = null;
+	protected PrintStream out = System.out;
+	
+	protected volatile long sink;
+	
+	
+	
+	public static GoogleSheetsBenchmarkRunner fromArgs(String[] args) throws IOException
+	{
+		GoogleSheetsBenchmarkRunner r = new GoogleSheetsBenchmarkRunner();
+		
+		for (int i = 0; i < args.length; i++)
+		{
+			String a = args[i];
+			
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for "+a);
+			
+			String v = args[++i];
+			
+			if (a.equals("--warmup"))
+				r.warmupIterations = Integer.parseInt(v);
+			else if (a.equals("--iterations"))
+				r.measurementIterations = Integer.parseInt(v);
+			else if (a.equals("--time-ms"))
+				r.iterationMillis = Long.parseLong(v);
+			else if (a.equals("--filter"))
+				r.filter = Pattern.compile(v);
+			else if (a.equals("--out"))
+				r.out = new PrintStream(new FileOutputStream(v), true, "UTF-8");
+			else
+				throw new IllegalArgumentException("Unknown argument: "+a);
+		}
+		
+		return r;
+	}
+	
+	
+	public boolean isSelected(String name)
+	{
+		return filter == null || filter.matcher(name).find();
+	}
+	
+	
+	/**
+	 * @param params like "rows=1000,columns=10" (shown as-is)
+	 */
+	public void run(String name, String params, Benchmark b) throws Exception
+	{
+		if (!isSelected(name))
+			return;
+		
+		System.err.println("# "+name+" "+params);
+		
+		for (int i = 0; i < warmupIterations; i++)
+			System.err.println("#   warmup "+(i+1)+": "+format(iteration(b))+" ns/op");
+		
+		double[] nsPerOp = new double[measurementIterations];
+		
+		for (int i = 0; i < measurementIterations; i++)
+		{
+			nsPerOp[i] = iteration(b);
+			System.err.println("#   iteration "+(i+1)+": "+format(nsPerOp[i])+" ns/op");
+		}
+		
+		report(name, params, nsPerOp);
+	}
+	
+	
+	/**
+	 * @return nanoseconds per operation
+	 */
+	protected double iteration(Benchmark b) throws Exception
+	{
+		long deadline = System.nanoTime() + iterationMillis * 1_000_000L;
+		long ops = 0;
+		long s = 0;
+		long start = System.nanoTime();
+		long now;
+		
+		do
+		{
+			s += b.run();
+			ops++;
+			now = System.nanoTime();
+		}
+		while (now < deadline);
+		
+		sink += s;
+		return (double)(now - start) / ops;
+	}
+	
+	
+	protected void report(String name, String params, double[] nsPerOp)
+	{
+		int n = nsPerOp.length;
+		double mean = Arrays.stream(nsPerOp).average().orElse(Double.NaN);
+		double variance = n < 2 ? 0 : Arrays.stream(nsPerOp).map(x -> (x - mean) * (x - mean)).sum() / (n - 1);
+		double error = 3.291 * Math.sqrt(variance / n);
+		double min = Arrays.stream(nsPerOp).min().orElse(Double.NaN);
+		double max = Arrays.stream(nsPerOp).max().orElse(Double.NaN);
+		
+		out.println("{\"benchmark\":"+json(name)+",\"params\":"+json(params)+",\"mode\":\"avgt\",\"unit\":\"ns/op\",\"samples\":"+n+",\"score\":"+format(mean)+",\"error\":"+format(error)+",\"min\":"+format(min)+",\"max\":"+format(max)+",\"opsPerSecond\":"+format(1e9 / mean)+"}");
+	}
+	
+	protected static String format(double d)
+	{
+		return String.format(Locale.ROOT, "%.3f", d);
+	}
+	
+	protected static String json(String s)
+	{
+		return "\""+s.replace("\\", "\\\\").replace("\"", "\\\"")+"\"";
+	}
+}
@@ -0,0 +1,162 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import rebound.richsheets.api.model.RichsheetsRow;
+import rebound.richsheets.api.model.RichsheetsTable;
+import rebound.richsheets.impls.live.googlesheets.GoogleSheetsSyntheticGrids.Shape;
+import rebound.richshets.model.cell.RichshetsCellContents;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
+import com.google.api.services.sheets.v4.model.CellData;
+import com.google.api.services.sheets.v4.model.GridCoordinate;
+import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.UpdateCellsRequest;
+
+/**
+ * Benchmarks of the CPU-heavy parts of reading and writing (the ones that show up in our profiles), on {@link GoogleSheetsSyntheticGrids}:
+ *
+ * 	+ decodeCell: one Google cell to one of ours (plain, formatted, and rich text)
+ * 	+ encodeCell: one of ours to one of Google's
+ * 	+ convertToRichsheets: a whole subsheet (small, big, wide, rich)
+ * 	+ inferColumnTypes: deciding which columns are booleans/numbers/text
+ * 	+ batchUpdate: encoding a whole table into a BatchUpdateSpreadsheetRequest and serializing it with Jackson like the client library does
+ *
+ * Run with the classes from src/ and bench/ and everything in lib/ on the classpath; see {@link GoogleSheetsBenchmarkRunner} for the arguments.
+ * Results are JSON lines on stdout.
+ */
+public class GoogleSheetsCodecBenchmarks
+{
+	public static void main(String[] args) throws Exception
+	{
+		GoogleSheetsBenchmarkRunner runner = GoogleSheetsBenchmarkRunner.fromArgs(args);
+		
+		try (RichsheetsConnectionForGoogleSheets connection = GoogleSheetsOfflineConnections.newOfflineConnection())
+		{
+			//Cells
+			for (Shape shape : new Shape[]{new Shape(200, 10, 0, 1), new Shape(200, 10, 1, 1), new Shape(200, 10, 1, 4)})
+			{
+				shape.booleanColumns = 0;
+				shape.numberColumns = 0;
+				
+				Sheet s = GoogleSheetsSyntheticGrids.newSheet(shape);
+				CellData[] cells = allCells(s, shape.frozenRows);
+				
+				runner.run("decodeCell", shape.toString(), new GoogleSheetsBenchmarkRunner.Benchmark()
+				{
+					int i = 0;
+					
+					@Override
+					public long run()
+					{
+						RichshetsCellContents c = RichsheetsConnectionForGoogleSheets.decodeCell(cells[i++ % cells.length]);
+						return System.identityHashCode(c);
+					}
+				});
+				
+				
+				RichsheetsTable table = connection.convertToRichsheets(s, 0, shape.frozenRows);
+				List<RichshetsCellContents> decoded = new ArrayList<>();
+				for (int r = shape.frozenRows; r < table.getNumberOfRows(); r++)
+					decoded.addAll(table.getRows().get(r).getCells());
+				GoogleSheetsColumnTypes types = GoogleSheetsColumnTypes.infer(table, s, ForkJoinPool.commonPool(), GoogleSheetsColumnTypes.DefaultParallelThresholdCells);
+				int columns = shape.columns;
+				
+				runner.run("encodeCell", shape.toString(), new GoogleSheetsBenchmarkRunner.Benchmark()
+				{
+					int i = 0;
+					GoogleSheetsCellEncoder encoder = new GoogleSheetsCellEncoder();
+					
+					@Override
+					public long run()
+					{
+						if (i % decoded.size() == 0)
+							encoder = new GoogleSheetsCellEncoder();  //one per write, like for real
+						
+						int k = i++ % decoded.size();
+						CellData c = encoder.encodeCell(decoded.get(k), types, k % columns);
+						return c.size();
+					}
+				});
+			}
+			
+			
+			//Whole subsheets
+			Shape rich = new Shape(10_000, 10, 0.5, 3);
+			Shape wide = new Shape(2_000, 60, 0.2, 1);
+			wide.booleanColumns = 10;
+			wide.numberColumns = 20;
+			
+			for (Shape shape : new Shape[]{new Shape(100, 10, 0.2, 1), new Shape(10_000, 10, 0.2, 1), wide, rich})
+			{
+				Sheet s = GoogleSheetsSyntheticGrids.newSheet(shape);
+				
+				runner.run("convertToRichsheets", shape.toString(), () -> connection.convertToRichsheets(s, 0, shape.frozenRows).getNumberOfRows());
+				
+				
+				RichsheetsTable table = connection.convertToRichsheets(s, 0, shape.frozenRows);
+				
+				runner.run("inferColumnTypes", shape.toString(), () -> GoogleSheetsColumnTypes.infer(table, s, ForkJoinPool.commonPool(), GoogleSheetsColumnTypes.DefaultParallelThresholdCells).getNumberOfColumns());
+				
+				runner.run("batchUpdate", shape.toString(), () -> JacksonFactory.getDefaultInstance().toByteArray(newFullRewrite(table, s)).length);
+			}
+		}
+	}
+	
+	
+	
+	
+	protected static CellData[] allCells(Sheet s, int skipRows)
+	{
+		List<CellData> l = new ArrayList<>();
+		List<RowData> rows = s.getData().get(0).getRowData();
+		
+		for (int r = skipRows; r < rows.size(); r++)
+			l.addAll(rows.get(r).getValues());
+		
+		return l.toArray(new CellData[l.size()]);
+	}
+	
+	
+	/**
+	 * What a {@link RichsheetsConnectionForGoogleSheets.WriteMode#RewriteEverything} write of the whole table sends (minus the little dimension requests around it)
+	 */
+	public static BatchUpdateSpreadsheetRequest newFullRewrite(RichsheetsTable table, Sheet original)
+	{
+		GoogleSheetsColumnTypes types = GoogleSheetsColumnTypes.infer(table, original, ForkJoinPool.commonPool(), GoogleSheetsColumnTypes.DefaultParallelThresholdCells);
+		GoogleSheetsCellEncoder encoder = new GoogleSheetsCellEncoder();
+		
+		List<RowData> rows = new ArrayList<>(table.getNumberOfRows());
+		int r = 0;
+		for (RichsheetsRow row : table.getRows())
+		{
+			rows.add(encoder.encodeRow(row.getCells(), 0, table.getNumberOfColumns(), r < table.getFrozenRows() ? null : types));
+			r++;
+		}
+		
+		GridCoordinate start = new GridCoordinate();
+		start.setSheetId(original.getProperties().getSheetId());
+		start.setRowIndex(0);
+		start.setColumnIndex(0);
+		
+		UpdateCellsRequest u = new UpdateCellsRequest();
+		u.setStart(start);
+		u.setRows(rows);
+		u.setFields(GoogleSheetsCellEncoder.getFieldsMask(GoogleSheetsCellDiff.ChangedEverything));
+		
+		Request req = new Request();
+		req.setUpdateCells(u);
+		
+		List<Request> reqs = new ArrayList<>();
+		reqs.add(req);
+		
+		BatchUpdateSpreadsheetRequest b = new BatchUpdateSpreadsheetRequest();
+		b.setIncludeSpreadsheetInResponse(false);
+		b.setResponseIncludeGridData(false);
+		b.setRequests(reqs);
+		return b;
+	}
+}
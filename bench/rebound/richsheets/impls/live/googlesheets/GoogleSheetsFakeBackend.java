@@ -0,0 +1,1059 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.sheets.v4.model.AppendCellsRequest;
+import com.google.api.services.sheets.v4.model.AppendDimensionRequest;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetResponse;
+import com.google.api.services.sheets.v4.model.BatchUpdateValuesRequest;
+import com.google.api.services.sheets.v4.model.BatchUpdateValuesResponse;
+import com.google.api.services.sheets.v4.model.CellData;
+import com.google.api.services.sheets.v4.model.CellFormat;
+import com.google.api.services.sheets.v4.model.DeleteDimensionRequest;
+import com.google.api.services.sheets.v4.model.DimensionProperties;
+import com.google.api.services.sheets.v4.model.DimensionRange;
+import com.google.api.services.sheets.v4.model.ExtendedValue;
+import com.google.api.services.sheets.v4.model.GridCoordinate;
+import com.google.api.services.sheets.v4.model.GridData;
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.GridRange;
+import com.google.api.services.sheets.v4.model.InsertDimensionRequest;
+import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.Response;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.Spreadsheet;
+import com.google.api.services.sheets.v4.model.UpdateCellsRequest;
+import com.google.api.services.sheets.v4.model.UpdateDimensionPropertiesRequest;
+import com.google.api.services.sheets.v4.model.UpdateSheetPropertiesRequest;
+import com.google.api.services.sheets.v4.model.ValueRange;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * A pretend Google Sheets (and the one Drive call we make), in memory, as an {@link com.google.api.client.http.HttpTransport}, so {@link RichsheetsConnectionForGoogleSheets} can be load tested without Google or its quotas!
+ * (Give {@link #getTransport()} to {@link GoogleSheetsOfflineConnections#newConnection(com.google.api.client.http.HttpTransport, GoogleSheetsApiCaller)}.)
+ *
+ * It does:
+ * 	+ spreadsheets.get, with or without grid data, with any number of A1 ranges ("'Title'", "'Title'!1:100", "'Title'!B2:D9", ...); fields masks are ignored (everything it stores is already only what our masks ask for)
+ * 	+ spreadsheets.batchUpdate, with the requests perform() sends: UpdateCells, AppendCells, AppendDimension, InsertDimension, DeleteDimension, UpdateSheetProperties (frozen rows/columns, title), UpdateDimensionProperties (pixel sizes), and AutoResizeDimensions (which does nothing)
+ * 	+ spreadsheets.values.get and spreadsheets.values.batchUpdate (for {@link RichsheetsConnectionForGoogleSheets.ValuesOnlySubsheetConnection}), which only change values, not formatting
+ * 	+ Drive's files.get for modifiedTime and version, which change whenever a batchUpdate changes something (the version goes up by one each time)
+ *
+ * What's written is stored the way Google would send it back (userEntered* become formattedValue/effectiveFormat), roughly: numbers aren't formatted by their number formats, and fields masks aren't applied (each written cell is replaced entirely).
+ *
+ * And to make it realistic (or nasty), it can:
+ * 	+ Take time: {@link #setLatencyMillis(long)} plus up to {@link #setLatencyJitterMillis(long)} more, plus {@link #setMillisPerMegabyte(double)} for the bytes sent and received
+ * 	+ Fail: {@link #setErrorRate(double)} of requests get a 503
+ * 	+ Enforce quotas: more than {@link #setQuota(int, int)} reads/writes in a minute get 429s, like the real one
+ */
+public class GoogleSheetsFakeBackend
+{
+	protected static final JsonFactory Json = JacksonFactory.getDefaultInstance();
+	
+	
+	protected final Map<String, FakeSpreadsheet> spreadsheets = new ConcurrentHashMap<>();
+	
+	protected volatile long latencyMillis = 0;
+	protected volatile long latencyJitterMillis = 0;
+	protected volatile double millisPerMegabyte = 0;
+	protected volatile double errorRate = 0;
+	
+	protected volatile int readsPerMinute = Integer.MAX_VALUE;
+	protected volatile int writesPerMinute = Integer.MAX_VALUE;
+	protected long quotaWindowStart = System.nanoTime();  //guarded by this
+	protected int readsThisWindow = 0, writesThisWindow = 0;  //guarded by this
+	
+	protected final AtomicLong reads = new AtomicLong();
+	protected final AtomicLong writes = new AtomicLong();
+	protected final AtomicLong injectedErrors = new AtomicLong();
+	protected final AtomicLong quotaErrors = new AtomicLong();
+	protected final AtomicLong bytesIn = new AtomicLong();
+	protected final AtomicLong bytesOut = new AtomicLong();
+	
+	protected final MockHttpTransport transport = new MockHttpTransport()
+	{
+		@Override
+		public LowLevelHttpRequest buildRequest(String method, String url)
+		{
+			return new MockLowLevelHttpRequest(url)
+			{
+				@Override
+				public LowLevelHttpResponse execute() throws IOException
+				{
+					return handle(method, url, readBody(this));
+				}
+			};
+		}
+	};
+	
+	
+	
+	public MockHttpTransport getTransport()
+	{
+		return transport;
+	}
+	
+	
+	
+	
+	/**
+	 * Adds a spreadsheet (replacing any with the same id).
+	 *
+	 * @param subsheets with their properties (index and sheetId too!) and optionally grid data starting at A1, like from {@link GoogleSheetsSyntheticGrids#newSheet(GoogleSheetsSyntheticGrids.Shape)}
+	 */
+	public void putSpreadsheet(String spreadsheetId, List<Sheet> subsheets)
+	{
+		FakeSpreadsheet f = new FakeSpreadsheet();
+		
+		for (Sheet s : subsheets)
+			f.subsheets.add(FakeSubsheet.of(s));
+		
+		f.touch();
+		spreadsheets.put(spreadsheetId, f);
+	}
+	
+	/**
+	 * @return what's in it now, as one {@link Sheet} with all its grid data per subsheet (copies)
+	 */
+	public List<Sheet> getSpreadsheet(String spreadsheetId)
+	{
+		FakeSpreadsheet f = spreadsheets.get(spreadsheetId);
+		
+		synchronized (f)
+		{
+			List<Sheet> l = new ArrayList<>();
+			for (FakeSubsheet s : f.subsheets)
+				l.add(s.toSheet(0, s.rows.size(), 0, s.columnCount()));
+			return l;
+		}
+	}
+	
+	
+	
+	
+	protected LowLevelHttpResponse handle(String method, String url, String body) throws IOException
+	{
+		GenericUrl u = new GenericUrl(url);
+		String path = u.getRawPath();
+		boolean write = !"GET".equals(method);
+		
+		bytesIn.addAndGet(body.length());
+		
+		//The network!
+		simulateLatency(body.length());
+		
+		if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)
+		{
+			injectedErrors.incrementAndGet();
+			return error(503, "UNAVAILABLE", "Injected failure");
+		}
+		
+		if (path.startsWith("/drive/v3/files/"))
+		{
+			FakeSpreadsheet f = spreadsheets.get(path.substring("/drive/v3/files/".length()));
+			
+			if (f == null)
+				return error(404, "NOT_FOUND", "File not found");
+			
+			GenericJson j = new GenericJson();
+			j.put("modifiedTime", new DateTime(f.modifiedTime).toStringRfc3339());
+			j.put("version", Long.toString(f.version));  //an int64, so it's a string in the JSON like the real one
+			return ok(j);
+		}
+		
+		if (!path.startsWith("/v4/spreadsheets/"))
+			return error(404, "NOT_FOUND", "The fake doesn't do "+path);
+		
+		if (!withinQuota(write))
+		{
+			quotaErrors.incrementAndGet();
+			return error(429, "RESOURCE_EXHAUSTED", "Quota exceeded (fake)");
+		}
+		
+		//"{id}", "{id}:batchUpdate", "{id}/values/{range}", or "{id}/values:batchUpdate"
+		String rest = path.substring("/v4/spreadsheets/".length());
+		int idEnd = 0;
+		while (idEnd < rest.length() && rest.charAt(idEnd) != ':' && rest.charAt(idEnd) != '/')
+			idEnd++;
+		String spreadsheetId = rest.substring(0, idEnd);
+		String verb = rest.substring(idEnd);
+		
+		FakeSpreadsheet f = spreadsheets.get(spreadsheetId);
+		
+		if (f == null)
+			return error(404, "NOT_FOUND", "Requested entity was not found.");
+		
+		try
+		{
+			synchronized (f)
+			{
+				if (verb.isEmpty() && "GET".equals(method))
+				{
+					reads.incrementAndGet();
+					return ok(f.get(spreadsheetId, "true".equals(String.valueOf(u.getFirst("includeGridData"))), u.getAll("ranges")));
+				}
+				else if (verb.equals(":batchUpdate") && "POST".equals(method))
+				{
+					writes.incrementAndGet();
+					return ok(f.batchUpdate(spreadsheetId, Json.fromString(body, BatchUpdateSpreadsheetRequest.class)));
+				}
+				else if (verb.startsWith("/values/") && "GET".equals(method))
+				{
+					reads.incrementAndGet();
+					List<String> parts = u.getPathParts();
+					return ok(f.valuesGet(parts.get(parts.size() - 1)));  //decoded
+				}
+				else if (verb.equals("/values:batchUpdate") && "POST".equals(method))
+				{
+					writes.incrementAndGet();
+					return ok(f.valuesBatchUpdate(spreadsheetId, Json.fromString(body, BatchUpdateValuesRequest.class)));
+				}
+				else
+				{
+					return error(404, "NOT_FOUND", "The fake doesn't do "+method+" "+path);
+				}
+			}
+		}
+		catch (IllegalArgumentException exc)
+		{
+			return error(400, "INVALID_ARGUMENT", exc.getMessage());
+		}
+	}
+	
+	
+	protected void simulateLatency(long bytes) throws IOException
+	{
+		long ms = latencyMillis + (latencyJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(latencyJitterMillis + 1) : 0) + (long)(millisPerMegabyte * bytes / (1024 * 1024));
+		
+		if (ms > 0)
+		{
+			try
+			{
+				Thread.sleep(ms);
+			}
+			catch (InterruptedException exc)
+			{
+				Thread.currentThread().interrupt();
+				throw new java.io.InterruptedIOException();
+			}
+		}
+	}
+	
+	
+	protected synchronized boolean withinQuota(boolean write)
+	{
+		long now = System.nanoTime();
+		
+		if (now - quotaWindowStart >= 60_000_000_000L)
+		{
+			quotaWindowStart = now;
+			readsThisWindow = 0;
+			writesThisWindow = 0;
+		}
+		
+		if (write)
+			return ++writesThisWindow <= writesPerMinute;
+		else
+			return ++readsThisWindow <= readsPerMinute;
+	}
+	
+	
+	protected LowLevelHttpResponse ok(Object json) throws IOException
+	{
+		byte[] b = Json.toByteArray(json);
+		bytesOut.addAndGet(b.length);
+		simulateLatency(b.length);
+		
+		return new MockLowLevelHttpResponse()
+		.setStatusCode(200)
+		.setContentType("application/json; charset=UTF-8")
+		.setContent(new ByteArrayInputStream(b));
+	}
+	
+	protected LowLevelHttpResponse error(int code, String status, String message) throws IOException
+	{
+		GenericJson e = new GenericJson();
+		e.put("code", code);
+		e.put("message", message);
+		e.put("status", status);
+		
+		GenericJson j = new GenericJson();
+		j.put("error", e);
+		
+		return new MockLowLevelHttpResponse()
+		.setStatusCode(code)
+		.setReasonPhrase(status)
+		.setContentType("application/json; charset=UTF-8")
+		.setContent(Json.toString(j));
+	}
+	
+	
+	protected static String readBody(MockLowLevelHttpRequest request) throws IOException
+	{
+		if (request.getStreamingContent() == null)
+			return "";
+		
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		request.getStreamingContent().writeTo(b);
+		
+		InputStream in = new ByteArrayInputStream(b.toByteArray());
+		
+		if ("gzip".equals(request.getContentEncoding()))
+			in = new GZIPInputStream(in);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) != -1)
+			out.write(buf, 0, n);
+		
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	
+	
+	
+	protected static class FakeSpreadsheet
+	{
+		protected final List<FakeSubsheet> subsheets = new ArrayList<>();
+		protected long modifiedTime = 0;
+		protected long version = 0;
+		
+		protected void touch()
+		{
+			modifiedTime = Math.max(System.currentTimeMillis(), modifiedTime + 1);  //always later, even in the same millisecond
+			version++;
+		}
+		
+		protected FakeSubsheet byTitle(String title)
+		{
+			for (FakeSubsheet s : subsheets)
+				if (s.properties.getTitle().equals(title))
+					return s;
+			throw new IllegalArgumentException("Unable to parse range: no subsheet named "+title);
+		}
+		
+		protected FakeSubsheet byId(Integer sheetId)
+		{
+			for (FakeSubsheet s : subsheets)
+				if (s.properties.getSheetId().equals(sheetId == null ? 0 : sheetId))
+					return s;
+			throw new IllegalArgumentException("No grid with id: "+sheetId);
+		}
+		
+		
+		/**
+		 * @param range like "'Title'!1:100" or "'Title'"
+		 */
+		protected FakeSubsheet subsheetOf(String range)
+		{
+			int bang = range.lastIndexOf('!');
+			String t = bang == -1 ? range : range.substring(0, bang);
+			return byTitle(t.startsWith("'") && t.endsWith("'") ? t.substring(1, t.length() - 1).replace("''", "'") : t);
+		}
+		
+		/**
+		 * @return {startRow, endRow, startColumn, endColumn} (ends exclusive)
+		 */
+		protected int[] rangeIn(String range, FakeSubsheet s)
+		{
+			int bang = range.lastIndexOf('!');
+			return parseA1(bang == -1 ? null : range.substring(bang + 1), s.rows.size(), s.columnCount());
+		}
+		
+		
+		protected Spreadsheet get(String spreadsheetId, boolean includeGridData, Collection<Object> ranges)
+		{
+			List<Sheet> sheets = new ArrayList<>();
+			
+			if (!includeGridData || ranges == null || ranges.isEmpty())
+			{
+				for (FakeSubsheet s : subsheets)
+					sheets.add(includeGridData ? s.toSheet(0, s.rows.size(), 0, s.columnCount()) : new Sheet().setProperties(s.properties.clone()));
+			}
+			else
+			{
+				//One Sheet per subsheet, with one GridData per range, in tab order
+				Map<FakeSubsheet, Sheet> bySubsheet = new java.util.LinkedHashMap<>();
+				for (FakeSubsheet s : subsheets)
+					bySubsheet.put(s, null);
+				
+				for (Object o : ranges)
+				{
+					FakeSubsheet s = subsheetOf(String.valueOf(o));
+					int[] r = rangeIn(String.valueOf(o), s);
+					
+					Sheet sheet = s.toSheet(r[0], r[1], r[2], r[3]);
+					Sheet existing = bySubsheet.get(s);
+					
+					if (existing == null)
+						bySubsheet.put(s, sheet);
+					else
+						existing.getData().addAll(sheet.getData());
+				}
+				
+				for (Sheet s : bySubsheet.values())
+					if (s != null)
+						sheets.add(s);
+			}
+			
+			Spreadsheet r = new Spreadsheet();
+			r.setSpreadsheetId(spreadsheetId);
+			r.setSheets(sheets);
+			return r;
+		}
+		
+		
+		protected BatchUpdateSpreadsheetResponse batchUpdate(String spreadsheetId, BatchUpdateSpreadsheetRequest b)
+		{
+			//All or nothing, like the real one
+			List<FakeSubsheet> backup = new ArrayList<>();
+			for (FakeSubsheet s : subsheets)
+				backup.add(s.copy());
+			
+			List<Response> replies = new ArrayList<>();
+			
+			try
+			{
+				if (b.getRequests() != null)
+				{
+					for (Request r : b.getRequests())
+					{
+						apply(r);
+						replies.add(new Response());
+					}
+				}
+			}
+			catch (RuntimeException exc)
+			{
+				subsheets.clear();
+				subsheets.addAll(backup);
+				throw exc;
+			}
+			
+			if (!replies.isEmpty())
+				touch();
+			
+			BatchUpdateSpreadsheetResponse resp = new BatchUpdateSpreadsheetResponse();
+			resp.setSpreadsheetId(spreadsheetId);
+			resp.setReplies(replies);
+			return resp;
+		}
+		
+		
+		protected ValueRange valuesGet(String range)
+		{
+			FakeSubsheet s = subsheetOf(range);
+			int[] r = rangeIn(range, s);
+			
+			//Like Google, blank cells on the ends of rows and blank rows on the end are left out
+			List<List<Object>> values = new ArrayList<>();
+			int lastNonblankRow = 0;
+			
+			for (int ri = r[0]; ri < Math.min(r[1], s.rows.size()); ri++)
+			{
+				List<Object> row = new ArrayList<>();
+				int lastNonblank = 0;
+				
+				for (int ci = r[2]; ci < Math.min(r[3], s.columnCount()); ci++)
+				{
+					String v = s.rows.get(ri).get(ci).getFormattedValue();
+					row.add(v == null ? "" : v);
+					if (v != null && !v.isEmpty())
+						lastNonblank = row.size();
+				}
+				
+				values.add(new ArrayList<>(row.subList(0, lastNonblank)));
+				if (lastNonblank > 0)
+					lastNonblankRow = values.size();
+			}
+			
+			ValueRange v = new ValueRange();
+			v.setRange(range);
+			v.setMajorDimension("ROWS");
+			if (lastNonblankRow > 0)
+				v.setValues(new ArrayList<>(values.subList(0, lastNonblankRow)));
+			return v;
+		}
+		
+		/**
+		 * Only the values change; the formatting stays, like on the real one (but rich text runs go, since they're for the old text)
+		 */
+		protected BatchUpdateValuesResponse valuesBatchUpdate(String spreadsheetId, BatchUpdateValuesRequest b)
+		{
+			int cells = 0;
+			
+			//Check them all first, so it's all or nothing
+			for (ValueRange v : b.getData())
+			{
+				FakeSubsheet s = subsheetOf(v.getRange());
+				int[] r = rangeIn(v.getRange(), s);
+				
+				int width = 0;
+				for (List<Object> row : v.getValues())
+					width = Math.max(width, row.size());
+				
+				s.checkBounds(r[0] + v.getValues().size(), r[2] + width);
+			}
+			
+			for (ValueRange v : b.getData())
+			{
+				FakeSubsheet s = subsheetOf(v.getRange());
+				int[] r = rangeIn(v.getRange(), s);
+				
+				for (int ri = 0; ri < v.getValues().size(); ri++)
+				{
+					List<Object> row = v.getValues().get(ri);
+					
+					for (int ci = 0; ci < row.size(); ci++)
+					{
+						CellData old = s.rows.get(r[0] + ri).get(r[2] + ci);
+						
+						CellData c = new CellData();
+						String fv = formatValue(row.get(ci));
+						if (!fv.isEmpty())
+							c.setFormattedValue(fv);
+						if (old.getEffectiveFormat() != null)
+							c.setEffectiveFormat(old.getEffectiveFormat());
+						
+						s.rows.get(r[0] + ri).set(r[2] + ci, c);
+						cells++;
+					}
+				}
+			}
+			
+			if (cells > 0)
+				touch();
+			
+			BatchUpdateValuesResponse resp = new BatchUpdateValuesResponse();
+			resp.setSpreadsheetId(spreadsheetId);
+			resp.setTotalUpdatedCells(cells);
+			return resp;
+		}
+		
+		
+		protected void apply(Request r)
+		{
+			if (r.getUpdateCells() != null)
+			{
+				UpdateCellsRequest u = r.getUpdateCells();
+				List<RowData> rows = u.getRows() == null ? new ArrayList<>() : u.getRows();
+				
+				if (u.getRange() != null)
+				{
+					GridRange g = u.getRange();
+					FakeSubsheet s = byId(g.getSheetId());
+					int r0 = orZero(g.getStartRowIndex()), r1 = g.getEndRowIndex() == null ? s.rows.size() : g.getEndRowIndex();
+					int c0 = orZero(g.getStartColumnIndex()), c1 = g.getEndColumnIndex() == null ? s.columnCount() : g.getEndColumnIndex();
+					
+					s.checkBounds(r1, c1);
+					
+					for (int ri = r0; ri < r1; ri++)
+					{
+						List<CellData> given = ri - r0 < rows.size() ? rows.get(ri - r0).getValues() : null;
+						
+						for (int ci = c0; ci < c1; ci++)
+							s.rows.get(ri).set(ci, given != null && ci - c0 < given.size() ? stored(given.get(ci - c0)) : new CellData());  //the rest of the range is cleared
+					}
+				}
+				else
+				{
+					GridCoordinate g = u.getStart();
+					FakeSubsheet s = byId(g.getSheetId());
+					int r0 = orZero(g.getRowIndex()), c0 = orZero(g.getColumnIndex());
+					
+					for (int ri = 0; ri < rows.size(); ri++)
+					{
+						List<CellData> given = rows.get(ri).getValues();
+						
+						if (given != null)
+						{
+							s.checkBounds(r0 + ri + 1, c0 + given.size());
+							
+							for (int ci = 0; ci < given.size(); ci++)
+								s.rows.get(r0 + ri).set(c0 + ci, stored(given.get(ci)));
+						}
+					}
+				}
+			}
+			else if (r.getAppendCells() != null)
+			{
+				AppendCellsRequest a = r.getAppendCells();
+				FakeSubsheet s = byId(a.getSheetId());
+				
+				int at = s.lastRowWithData() + 1;
+				
+				for (RowData row : a.getRows())
+				{
+					List<CellData> given = row.getValues() == null ? new ArrayList<>() : row.getValues();
+					s.checkBounds(0, given.size());
+					
+					if (at >= s.rows.size())
+						s.insertRows(s.rows.size(), at + 1 - s.rows.size());
+					
+					for (int ci = 0; ci < given.size(); ci++)
+						s.rows.get(at).set(ci, stored(given.get(ci)));
+					
+					at++;
+				}
+			}
+			else if (r.getAppendDimension() != null)
+			{
+				AppendDimensionRequest a = r.getAppendDimension();
+				FakeSubsheet s = byId(a.getSheetId());
+				
+				if ("ROWS".equals(a.getDimension()))
+					s.insertRows(s.rows.size(), a.getLength());
+				else
+					s.insertColumns(s.columnCount(), a.getLength());
+			}
+			else if (r.getInsertDimension() != null)
+			{
+				InsertDimensionRequest i = r.getInsertDimension();
+				DimensionRange d = i.getRange();
+				FakeSubsheet s = byId(d.getSheetId());
+				
+				if ("ROWS".equals(d.getDimension()))
+					s.insertRows(orZero(d.getStartIndex()), d.getEndIndex() - orZero(d.getStartIndex()));
+				else
+					s.insertColumns(orZero(d.getStartIndex()), d.getEndIndex() - orZero(d.getStartIndex()));
+			}
+			else if (r.getDeleteDimension() != null)
+			{
+				DeleteDimensionRequest i = r.getDeleteDimension();
+				DimensionRange d = i.getRange();
+				FakeSubsheet s = byId(d.getSheetId());
+				
+				if ("ROWS".equals(d.getDimension()))
+					s.deleteRows(orZero(d.getStartIndex()), d.getEndIndex());
+				else
+					s.deleteColumns(orZero(d.getStartIndex()), d.getEndIndex());
+			}
+			else if (r.getUpdateSheetProperties() != null)
+			{
+				UpdateSheetPropertiesRequest u = r.getUpdateSheetProperties();
+				SheetProperties p = u.getProperties();
+				FakeSubsheet s = byId(p.getSheetId());
+				String fields = u.getFields() == null ? "" : u.getFields();
+				GridProperties g = p.getGridProperties() == null ? new GridProperties() : p.getGridProperties();
+				
+				if (fields.contains("frozenRowCount"))
+					s.properties.getGridProperties().setFrozenRowCount(g.getFrozenRowCount());
+				if (fields.contains("frozenColumnCount"))
+					s.properties.getGridProperties().setFrozenColumnCount(g.getFrozenColumnCount());
+				if (fields.contains("title"))
+					s.properties.setTitle(p.getTitle());
+			}
+			else if (r.getUpdateDimensionProperties() != null)
+			{
+				UpdateDimensionPropertiesRequest u = r.getUpdateDimensionProperties();
+				DimensionRange d = u.getRange();
+				FakeSubsheet s = byId(d.getSheetId());
+				List<DimensionProperties> m = "ROWS".equals(d.getDimension()) ? s.rowMetadata : s.columnMetadata;
+				int end = d.getEndIndex() == null ? m.size() : d.getEndIndex();
+				
+				if (end > m.size())
+					throw new IllegalArgumentException("Range ("+d+") is out of bounds");
+				
+				for (int i = orZero(d.getStartIndex()); i < end; i++)
+					m.set(i, new DimensionProperties().setPixelSize(u.getProperties().getPixelSize()));
+			}
+			else if (r.getAutoResizeDimensions() != null)
+			{
+				//We don't have fonts, so we can't measure anything XD
+			}
+			else
+			{
+				throw new IllegalArgumentException("The fake doesn't do "+GoogleSheetsObserver.getRequestType(r)+" requests");
+			}
+		}
+	}
+	
+	
+	
+	
+	protected static class FakeSubsheet
+	{
+		protected SheetProperties properties;
+		protected List<List<CellData>> rows = new ArrayList<>();  //always rowCount x columnCount
+		protected List<DimensionProperties> rowMetadata = new ArrayList<>();
+		protected List<DimensionProperties> columnMetadata = new ArrayList<>();
+		
+		protected static FakeSubsheet of(Sheet s)
+		{
+			FakeSubsheet f = new FakeSubsheet();
+			f.properties = s.getProperties().clone();
+			
+			GridProperties g = f.properties.getGridProperties();
+			int rowCount = orZero(g.getRowCount());
+			int columnCount = orZero(g.getColumnCount());
+			f.insertColumns(0, columnCount);
+			f.insertRows(0, rowCount);
+			
+			if (s.getData() != null && !s.getData().isEmpty())
+			{
+				GridData gd = s.getData().get(0);
+				
+				if (gd.getRowData() != null)
+					for (int r = 0; r < gd.getRowData().size() && r < rowCount; r++)
+						if (gd.getRowData().get(r).getValues() != null)
+							for (int c = 0; c < gd.getRowData().get(r).getValues().size() && c < columnCount; c++)
+								f.rows.get(r).set(c, gd.getRowData().get(r).getValues().get(c).clone());
+				
+				if (gd.getRowMetadata() != null)
+					for (int r = 0; r < gd.getRowMetadata().size() && r < rowCount; r++)
+						f.rowMetadata.set(r, gd.getRowMetadata().get(r).clone());
+				
+				if (gd.getColumnMetadata() != null)
+					for (int c = 0; c < gd.getColumnMetadata().size() && c < columnCount; c++)
+						f.columnMetadata.set(c, gd.getColumnMetadata().get(c).clone());
+			}
+			
+			return f;
+		}
+		
+		protected FakeSubsheet copy()
+		{
+			FakeSubsheet f = new FakeSubsheet();
+			f.properties = properties.clone();
+			for (List<CellData> row : rows)
+				f.rows.add(new ArrayList<>(row));  //the cells themselves are never modified, just replaced
+			f.rowMetadata.addAll(rowMetadata);
+			f.columnMetadata.addAll(columnMetadata);
+			return f;
+		}
+		
+		protected int columnCount()
+		{
+			return columnMetadata.size();
+		}
+		
+		protected void checkBounds(int endRow, int endColumn)
+		{
+			if (endRow > rows.size() || endColumn > columnCount())
+				throw new IllegalArgumentException("Range ("+properties.getTitle()+"!"+endRow+"x"+endColumn+") exceeds grid limits. Max rows: "+rows.size()+", max columns: "+columnCount());
+		}
+		
+		protected int lastRowWithData()
+		{
+			for (int r = rows.size() - 1; r >= 0; r--)
+				for (CellData c : rows.get(r))
+					if (c.getFormattedValue() != null && !c.getFormattedValue().isEmpty())
+						return r;
+			return -1;
+		}
+		
+		protected void insertRows(int at, int n)
+		{
+			if (at > rows.size())
+				throw new IllegalArgumentException("Can't insert rows past the end");
+			
+			for (int i = 0; i < n; i++)
+			{
+				List<CellData> row = new ArrayList<>(columnCount());
+				for (int c = 0; c < columnCount(); c++)
+					row.add(new CellData());
+				rows.add(at, row);
+				rowMetadata.add(at, new DimensionProperties().setPixelSize(RichsheetsConnectionForGoogleSheets.DefaultGoogleSheetsRowHeight));
+			}
+			
+			properties.getGridProperties().setRowCount(rows.size());
+		}
+		
+		protected void insertColumns(int at, int n)
+		{
+			if (at > columnCount())
+				throw new IllegalArgumentException("Can't insert columns past the end");
+			
+			for (int i = 0; i < n; i++)
+			{
+				for (List<CellData> row : rows)
+					row.add(at, new CellData());
+				columnMetadata.add(at, new DimensionProperties().setPixelSize(RichsheetsConnectionForGoogleSheets.DefaultGoogleSheetsColumnWidth));
+			}
+			
+			properties.getGridProperties().setColumnCount(columnCount());
+		}
+		
+		protected void deleteRows(int start, int end)
+		{
+			checkBounds(end, 0);
+			rows.subList(start, end).clear();
+			rowMetadata.subList(start, end).clear();
+			properties.getGridProperties().setRowCount(rows.size());
+		}
+		
+		protected void deleteColumns(int start, int end)
+		{
+			checkBounds(0, end);
+			for (List<CellData> row : rows)
+				row.subList(start, end).clear();
+			columnMetadata.subList(start, end).clear();
+			properties.getGridProperties().setColumnCount(columnCount());
+		}
+		
+		
+		/**
+		 * Like Google, trailing blank cells and rows are left out
+		 */
+		protected Sheet toSheet(int r0, int r1, int c0, int c1)
+		{
+			r1 = Math.min(r1, rows.size());
+			c1 = Math.min(c1, columnCount());
+			
+			List<RowData> rd = new ArrayList<>();
+			int lastNonblankRow = -1;
+			
+			for (int r = r0; r < r1; r++)
+			{
+				List<CellData> values = new ArrayList<>();
+				int lastNonblank = -1;
+				
+				for (int c = c0; c < c1; c++)
+				{
+					CellData cell = rows.get(r).get(c);
+					values.add(cell);
+					if (!cell.isEmpty())
+						lastNonblank = values.size();
+				}
+				
+				RowData row = new RowData();
+				if (lastNonblank > 0)
+				{
+					row.setValues(new ArrayList<>(values.subList(0, lastNonblank)));
+					lastNonblankRow = rd.size();
+				}
+				
+				rd.add(row);
+			}
+			
+			GridData gd = new GridData();
+			if (r0 != 0)  gd.setStartRow(r0);
+			if (c0 != 0)  gd.setStartColumn(c0);
+			gd.setRowData(new ArrayList<>(rd.subList(0, lastNonblankRow + 1)));
+			gd.setRowMetadata(new ArrayList<>(rowMetadata.subList(r0, Math.max(r0, r1))));
+			gd.setColumnMetadata(new ArrayList<>(columnMetadata.subList(c0, Math.max(c0, c1))));
+			
+			List<GridData> data = new ArrayList<>();
+			data.add(gd);
+			
+			Sheet s = new Sheet();
+			s.setProperties(properties.clone());
+			s.setData(data);
+			return s;
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * What Google sends back for what was written (roughly!)
+	 */
+	protected static CellData stored(CellData written)
+	{
+		CellData c = new CellData();
+		
+		ExtendedValue v = written.getUserEnteredValue();
+		if (v != null)
+		{
+			if (v.getStringValue() != null)
+				c.setFormattedValue(v.getStringValue());
+			else if (v.getBoolValue() != null)
+				c.setFormattedValue(formatValue(v.getBoolValue()));
+			else if (v.getNumberValue() != null)
+				c.setFormattedValue(formatValue(v.getNumberValue()));
+			else if (v.getFormulaValue() != null)
+				c.setFormattedValue(v.getFormulaValue());  //we're not going to evaluate it XD
+		}
+		
+		CellFormat f = written.getUserEnteredFormat();
+		if (f != null)
+			c.setEffectiveFormat(f.clone());
+		
+		if (written.getTextFormatRuns() != null)
+			c.setTextFormatRuns(new ArrayList<>(written.getTextFormatRuns()));
+		
+		return c;
+	}
+	
+	
+	/**
+	 * @param v a String, Boolean, or Number (like in a {@link ValueRange}), or null
+	 * @return the formatted value (roughly!)
+	 */
+	protected static String formatValue(@Nullable Object v)
+	{
+		if (v == null)
+			return "";
+		else if (v instanceof Boolean)
+			return (Boolean)v ? "TRUE" : "FALSE";
+		else if (v instanceof Number)
+		{
+			double d = ((Number)v).doubleValue();
+			return d == Math.rint(d) && !Double.isInfinite(d) ? Long.toString((long)d) : Double.toString(d);
+		}
+		else
+			return v.toString();
+	}
+	
+	
+	/**
+	 * @param a1 like "1:100", "B2:D9", "A:C", or null for everything
+	 * @return {startRow, endRow, startColumn, endColumn} (ends exclusive)
+	 */
+	protected static int[] parseA1(String a1, int rowCount, int columnCount)
+	{
+		if (a1 == null)
+			return new int[]{0, rowCount, 0, columnCount};
+		
+		String[] ends = a1.split(":", -1);
+		int[] start = parseA1Cell(ends[0]);
+		int[] end = parseA1Cell(ends.length > 1 ? ends[1] : ends[0]);
+		
+		return new int[]{
+			start[1] == -1 ? 0 : start[1],
+			end[1] == -1 ? rowCount : end[1] + 1,
+			start[0] == -1 ? 0 : start[0],
+			end[0] == -1 ? columnCount : end[0] + 1,
+		};
+	}
+	
+	/**
+	 * @return {column, row}, zero-based, with -1 for ones that aren't there
+	 */
+	protected static int[] parseA1Cell(String s)
+	{
+		int i = 0;
+		int column = 0;
+		
+		while (i < s.length() && Character.isLetter(s.charAt(i)))
+		{
+			column = column * 26 + (Character.toUpperCase(s.charAt(i)) - 'A' + 1);
+			i++;
+		}
+		
+		int row = i < s.length() ? Integer.parseInt(s.substring(i)) : 0;
+		
+		return new int[]{column - 1, row - 1};
+	}
+	
+	protected static int orZero(Integer i)
+	{
+		return i == null ? 0 : i;
+	}
+	
+	
+	
+	
+	public long getLatencyMillis()
+	{
+		return latencyMillis;
+	}
+	
+	/**
+	 * Each way (so a request takes at least twice this)
+	 */
+	public void setLatencyMillis(long latencyMillis)
+	{
+		this.latencyMillis = latencyMillis;
+	}
+	
+	public long getLatencyJitterMillis()
+	{
+		return latencyJitterMillis;
+	}
+	
+	public void setLatencyJitterMillis(long latencyJitterMillis)
+	{
+		this.latencyJitterMillis = latencyJitterMillis;
+	}
+	
+	public double getMillisPerMegabyte()
+	{
+		return millisPerMegabyte;
+	}
+	
+	public void setMillisPerMegabyte(double millisPerMegabyte)
+	{
+		this.millisPerMegabyte = millisPerMegabyte;
+	}
+	
+	public double getErrorRate()
+	{
+		return errorRate;
+	}
+	
+	/**
+	 * @param errorRate 0 to 1
+	 */
+	public void setErrorRate(double errorRate)
+	{
+		this.errorRate = errorRate;
+	}
+	
+	/**
+	 * Like Google's per-user quotas (which are 60 and 60 by default)
+	 */
+	public void setQuota(int readsPerMinute, int writesPerMinute)
+	{
+		this.readsPerMinute = readsPerMinute;
+		this.writesPerMinute = writesPerMinute;
+	}
+	
+	public long getNumberOfReads()
+	{
+		return reads.get();
+	}
+	
+	public long getNumberOfWrites()
+	{
+		return writes.get();
+	}
+	
+	public long getNumberOfInjectedErrors()
+	{
+		return injectedErrors.get();
+	}
+	
+	public long getNumberOfQuotaErrors()
+	{
+		return quotaErrors.get();
+	}
+	
+	/**
+	 * Uncompressed
+	 */
+	public long getBytesReceived()
+	{
+		return bytesIn.get();
+	}
+	
+	public long getBytesSent()
+	{
+		return bytesOut.get();
+	}
+}
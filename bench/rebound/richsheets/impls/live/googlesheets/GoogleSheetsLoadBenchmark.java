@@ -0,0 +1,288 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import rebound.richsheets.api.model.RichsheetsRow;
+import rebound.richsheets.api.operation.RichsheetsOperation;
+import rebound.richsheets.impls.live.googlesheets.GoogleSheetsSyntheticGrids.Shape;
+import rebound.richshets.model.cell.RichshetsCellContents;
+import com.google.api.services.sheets.v4.model.Sheet;
+
+/**
+ * End-to-end load test of {@link RichsheetsConnectionForGoogleSheets} against {@link GoogleSheetsFakeBackend}: real HTTP client stack, real JSON, real retries, real caches and snapshots, pretend Google.
+ * Good for seeing what concurrency, latency, and errors do to throughput, and where the time goes (with --verbose, phase timings come from a {@link GoogleSheetsJmxObserver}).
+ *
+ * Arguments:
+ * 	--spreadsheets N      how many spreadsheets (default 4), one subsheet each
+ * 	--rows N              rows in each (default 1000)
+ * 	--columns N           columns in each (default 10)
+ * 	--ops N               operations in total (default 200)
+ * 	--concurrency N       how many at once (default 8)
+ * 	--workload W          read, append, or mixed (default read); mixed is --read-fraction reads and the rest appends
+ * 	--read-fraction F     for mixed (default 0.9)
+ * 	--append-rows N       rows per append (default 10)
+ * 	--values-only true    read through {@link RichsheetsConnectionForGoogleSheets.ValuesOnlySubsheetConnection}s (threads driver only)
+ * 	--driver D            threads (a thread per concurrent op, blocking calls) or scheduler (reads through {@link GoogleSheetsBulkScheduler}); default threads
+ * 	--latency-ms N        fake network latency each way (default 20)
+ * 	--jitter-ms N         plus up to this much more (default 10)
+ * 	--error-rate F        fraction of requests that fail with a 503 (default 0)
+ * 	--quota R,W           reads and writes per minute before 429s (default unlimited)
+ * 	--backoff-ms N        the caller's initial backoff (default 50, so injected errors don't make runs take forever)
+ * 	--out FILE            write the result there instead of stdout
+ * 	--verbose true        also print the observer's totals to stderr
+ *
+ * The result is one JSON object per run, with throughput and latency percentiles (in milliseconds, per operation, including retries).
+ *
+ * Writes that go through {@link RichsheetsOperation#performInMemory(rebound.richsheets.api.model.RichsheetsTable)} aren't part of the workloads, since that needs a {@link rebound.richsheets.api.operation.RichsheetsWriteData} and making one is up to the Richsheets API; appends (which make their own rows) stand in for the write side.
+ */
+public class GoogleSheetsLoadBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int spreadsheets = 4, rows = 1000, columns = 10, ops = 200, concurrency = 8, appendRows = 10;
+		String workload = "read", driver = "threads";
+		double readFraction = 0.9, errorRate = 0;
+		long latencyMillis = 20, jitterMillis = 10, backoffMillis = 50;
+		int readQuota = Integer.MAX_VALUE, writeQuota = Integer.MAX_VALUE;
+		PrintStream out = System.out;
+		boolean verbose = false;
+		boolean valuesOnly = false;
+		
+		for (int i = 0; i < args.length; i++)
+		{
+			String a = args[i];
+			
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for "+a);
+			
+			String v = args[++i];
+			
+			if (a.equals("--spreadsheets"))
+				spreadsheets = Integer.parseInt(v);
+			else if (a.equals("--rows"))
+				rows = Integer.parseInt(v);
+			else if (a.equals("--columns"))
+				columns = Integer.parseInt(v);
+			else if (a.equals("--ops"))
+				ops = Integer.parseInt(v);
+			else if (a.equals("--concurrency"))
+				concurrency = Integer.parseInt(v);
+			else if (a.equals("--workload"))
+				workload = v;
+			else if (a.equals("--read-fraction"))
+				readFraction = Double.parseDouble(v);
+			else if (a.equals("--append-rows"))
+				appendRows = Integer.parseInt(v);
+			else if (a.equals("--values-only"))
+				valuesOnly = Boolean.parseBoolean(v);
+			else if (a.equals("--driver"))
+				driver = v;
+			else if (a.equals("--latency-ms"))
+				latencyMillis = Long.parseLong(v);
+			else if (a.equals("--jitter-ms"))
+				jitterMillis = Long.parseLong(v);
+			else if (a.equals("--error-rate"))
+				errorRate = Double.parseDouble(v);
+			else if (a.equals("--quota"))
+			{
+				String[] rw = v.split(",");
+				readQuota = Integer.parseInt(rw[0]);
+				writeQuota = Integer.parseInt(rw[1]);
+			}
+			else if (a.equals("--backoff-ms"))
+				backoffMillis = Long.parseLong(v);
+			else if (a.equals("--out"))
+				out = new PrintStream(new FileOutputStream(v), true, "UTF-8");
+			else if (a.equals("--verbose"))
+				verbose = Boolean.parseBoolean(v);
+			else
+				throw new IllegalArgumentException("Unknown argument: "+a);
+		}
+		
+		if (!workload.equals("read") && !workload.equals("append") && !workload.equals("mixed"))
+			throw new IllegalArgumentException("Unknown workload: "+workload);
+		if (!driver.equals("threads") && !driver.equals("scheduler"))
+			throw new IllegalArgumentException("Unknown driver: "+driver);
+		if (driver.equals("scheduler") && !workload.equals("read"))
+			throw new IllegalArgumentException("The scheduler driver only does the read workload (the scheduler takes RichsheetsOperations, not appends)");
+		if (driver.equals("scheduler") && valuesOnly)
+			throw new IllegalArgumentException("The scheduler driver doesn't do values-only (the scheduler makes its own connections)");
+		
+		
+		
+		//The pretend Google
+		GoogleSheetsFakeBackend backend = new GoogleSheetsFakeBackend();
+		backend.setLatencyMillis(latencyMillis);
+		backend.setLatencyJitterMillis(jitterMillis);
+		backend.setErrorRate(errorRate);
+		backend.setQuota(readQuota, writeQuota);
+		
+		Shape shape = new Shape();
+		shape.rows = rows;
+		shape.columns = columns;
+		
+		String[] ids = new String[spreadsheets];
+		for (int i = 0; i < spreadsheets; i++)
+		{
+			shape.seed = i;
+			ids[i] = "fake-spreadsheet-"+i;
+			
+			List<Sheet> l = new ArrayList<>();
+			l.add(GoogleSheetsSyntheticGrids.newSheet(shape));
+			backend.putSpreadsheet(ids[i], l);
+		}
+		
+		
+		//The client, with the client-side rate limits out of the way (the fake's quotas are what's being tested)
+		GoogleSheetsApiCaller caller = new GoogleSheetsApiCaller(new GoogleSheetsRateLimiter(1e6, 1e6), new GoogleSheetsRateLimiter(1e6, 1e6));
+		caller.setInitialBackoffMillis(backoffMillis);
+		
+		GoogleSheetsJmxObserver observer = new GoogleSheetsJmxObserver();
+		
+		
+		try (RichsheetsConnectionForGoogleSheets connection = GoogleSheetsOfflineConnections.newConnection(backend.getTransport(), caller))
+		{
+			if (verbose)
+				connection.setObserver(observer);
+			
+			List<List<RichsheetsRow>> appendBatches = newAppendBatches(columns, appendRows, 16);
+			
+			long[] latencies = new long[ops];
+			AtomicInteger failures = new AtomicInteger();
+			AtomicLong appended = new AtomicLong();
+			
+			RichsheetsOperation read = t -> null;  //read and decode, but don't write
+			
+			System.err.println("# "+workload+" x"+ops+" on "+spreadsheets+" spreadsheets of "+rows+"x"+columns+", "+concurrency+" at once ("+driver+"), "+latencyMillis+"+"+jitterMillis+"ms latency, "+errorRate+" error rate");
+			
+			long start = System.nanoTime();
+			
+			if (driver.equals("threads"))
+			{
+				ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+				List<Future<?>> futures = new ArrayList<>(ops);
+				String w = workload;
+				double rf = readFraction;
+				boolean vo = valuesOnly;
+				
+				for (int i = 0; i < ops; i++)
+				{
+					int op = i;
+					
+					futures.add(pool.submit(() ->
+					{
+						String id = ids[op % ids.length];
+						boolean isRead = w.equals("read") || (w.equals("mixed") && ThreadLocalRandom.current().nextDouble() < rf);
+						
+						long t = System.nanoTime();
+						try
+						{
+							if (isRead)
+								(vo ? connection.getValuesOnlyConnectionFor(id, 0) : connection.getConnectionFor(id, 0)).perform(null, read);
+							else
+								appended.addAndGet(connection.getConnectionFor(id, 0).performAppend(header -> appendBatches.get(op % appendBatches.size())));
+						}
+						catch (Exception exc)
+						{
+							failures.incrementAndGet();
+						}
+						latencies[op] = System.nanoTime() - t;
+					}));
+				}
+				
+				for (Future<?> f : futures)
+					f.get();
+				
+				pool.shutdown();
+			}
+			else
+			{
+				GoogleSheetsBulkScheduler scheduler = new GoogleSheetsBulkScheduler(connection, concurrency);
+				CompletableFuture<?>[] futures = new CompletableFuture<?>[ops];
+				
+				for (int i = 0; i < ops; i++)
+				{
+					int op = i;
+					long t = System.nanoTime();
+					
+					futures[i] = scheduler.submit(ids[op % ids.length], 0, null, read).whenComplete((r, exc) ->
+					{
+						if (exc != null)
+							failures.incrementAndGet();
+						latencies[op] = System.nanoTime() - t;  //including time spent queued, which is the point of the scheduler
+					});
+				}
+				
+				CompletableFuture.allOf(futures).exceptionally(exc -> null).join();
+				
+				if (verbose)
+					System.err.println("# "+scheduler);
+			}
+			
+			long elapsed = System.nanoTime() - start;
+			
+			
+			Arrays.sort(latencies);
+			
+			out.println("{\"benchmark\":\"load\",\"params\":"+GoogleSheetsBenchmarkRunner.json("workload="+workload+",driver="+driver+",valuesOnly="+valuesOnly+",spreadsheets="+spreadsheets+",rows="+rows+",columns="+columns+",concurrency="+concurrency+",latencyMs="+latencyMillis+"+"+jitterMillis+",errorRate="+errorRate)
+			+",\"ops\":"+ops+",\"failures\":"+failures.get()+",\"rowsAppended\":"+appended.get()
+			+",\"seconds\":"+GoogleSheetsBenchmarkRunner.format(elapsed / 1e9)+",\"opsPerSecond\":"+GoogleSheetsBenchmarkRunner.format(ops / (elapsed / 1e9))
+			+",\"p50Ms\":"+millis(percentile(latencies, 0.50))+",\"p90Ms\":"+millis(percentile(latencies, 0.90))+",\"p99Ms\":"+millis(percentile(latencies, 0.99))+",\"maxMs\":"+millis(latencies[latencies.length - 1])
+			+",\"backendReads\":"+backend.getNumberOfReads()+",\"backendWrites\":"+backend.getNumberOfWrites()+",\"injectedErrors\":"+backend.getNumberOfInjectedErrors()+",\"quotaErrors\":"+backend.getNumberOfQuotaErrors()
+			+",\"retries\":"+caller.getNumberOfRetries()+",\"bytesSent\":"+backend.getBytesSent()+",\"bytesReceived\":"+backend.getBytesReceived()+"}");
+			
+			if (verbose)
+				System.err.println("# "+observer);
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * A few batches of decoded synthetic rows, made up front so making rows isn't part of what's measured
+	 */
+	protected static List<List<RichsheetsRow>> newAppendBatches(int columns, int rowsPerBatch, int batches)
+	{
+		Random random = new Random(1);
+		List<List<RichsheetsRow>> l = new ArrayList<>(batches);
+		
+		for (int b = 0; b < batches; b++)
+		{
+			List<RichsheetsRow> rows = new ArrayList<>(rowsPerBatch);
+			
+			for (int r = 0; r < rowsPerBatch; r++)
+			{
+				List<RichshetsCellContents> cells = new ArrayList<>(columns);
+				for (int c = 0; c < columns; c++)
+					cells.add(RichsheetsConnectionForGoogleSheets.decodeCell(GoogleSheetsSyntheticGrids.newTextCell(GoogleSheetsSyntheticGrids.randomText(random, 500, 2), 1, false, random)));
+				rows.add(new RichsheetsRow(cells, null));
+			}
+			
+			l.add(rows);
+		}
+		
+		return l;
+	}
+	
+	protected static long percentile(long[] sorted, double p)
+	{
+		return sorted[Math.min(sorted.length - 1, (int)Math.ceil(p * sorted.length) - 1)];
+	}
+	
+	protected static String millis(long nanos)
+	{
+		return GoogleSheetsBenchmarkRunner.format(nanos / 1e6);
+	}
+}
@@ -0,0 +1,38 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.testing.http.MockHttpTransport;
+
+/**
+ * {@link RichsheetsConnectionForGoogleSheets}s that never talk to Google (or ask anyone to log in), for benchmarks.
+ */
+public class GoogleSheetsOfflineConnections
+{
+	/**
+	 * One whose transport answers every request with an empty 200 (for benchmarking things that don't need the network, like {@link RichsheetsConnectionForGoogleSheets#convertToRichsheets(com.google.api.services.sheets.v4.model.Sheet, int, int)})
+	 */
+	public static RichsheetsConnectionForGoogleSheets newOfflineConnection() throws IOException, GeneralSecurityException
+	{
+		return newConnection(new MockHttpTransport(), new GoogleSheetsApiCaller());
+	}
+	
+	/**
+	 * @param transport eg, a {@link MockHttpTransport}
+	 */
+	public static RichsheetsConnectionForGoogleSheets newConnection(HttpTransport transport, GoogleSheetsApiCaller caller) throws IOException, GeneralSecurityException
+	{
+		GoogleSheetsTransportConfig config = new GoogleSheetsTransportConfig();
+		config.setCustomTransport(transport);
+		
+		return new RichsheetsConnectionForGoogleSheets(newFakeCredential(), "Richsheets benchmarks", config, caller);
+	}
+	
+	public static Credential newFakeCredential()
+	{
+		return new Credential(BearerToken.authorizationHeaderAccessMethod()).setAccessToken("not-a-real-token");
+	}
+}
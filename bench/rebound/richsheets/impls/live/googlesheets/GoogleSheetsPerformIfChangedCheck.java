@@ -0,0 +1,100 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.ArrayList;
+import java.util.List;
+import rebound.richsheets.impls.live.googlesheets.RichsheetsConnectionForGoogleSheets.SubsheetConnection;
+import rebound.richsheets.impls.live.googlesheets.RichsheetsConnectionForGoogleSheets.SubsheetConnection.PerformState;
+import rebound.richsheets.impls.live.googlesheets.RichsheetsConnectionForGoogleSheets.WriteMode;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
+import com.google.api.services.sheets.v4.model.CellData;
+import com.google.api.services.sheets.v4.model.ExtendedValue;
+import com.google.api.services.sheets.v4.model.GridRange;
+import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.UpdateCellsRequest;
+
+/**
+ * Checks (against {@link GoogleSheetsFakeBackend}) that our own writes don't count as changes for {@link SubsheetConnection#performIfChanged(Integer, rebound.richsheets.api.operation.RichsheetsOperation)}: after a perform that wrote something, the next performIfChanged skips, and after someone else edits the spreadsheet, it doesn't.
+ * Including when their edit lands between our read and our write, which our write's new modified time covers too, so it mustn't be taken as ours!
+ * (There's no test framework in lib/, so like the benchmarks it's just a main; it throws an AssertionError if anything's wrong.)
+ */
+public class GoogleSheetsPerformIfChangedCheck
+{
+	public static void main(String[] args) throws Exception
+	{
+		GoogleSheetsFakeBackend backend = new GoogleSheetsFakeBackend();
+		
+		GoogleSheetsSyntheticGrids.Shape shape = new GoogleSheetsSyntheticGrids.Shape();
+		shape.rows = 10;
+		shape.columns = 3;
+		
+		List<Sheet> sheets = new ArrayList<>();
+		sheets.add(GoogleSheetsSyntheticGrids.newSheet(shape));
+		backend.putSpreadsheet("check", sheets);
+		
+		try (RichsheetsConnectionForGoogleSheets connection = GoogleSheetsOfflineConnections.newConnection(backend.getTransport(), new GoogleSheetsApiCaller()))
+		{
+			SubsheetConnection c = connection.getConnectionFor("check", 0, WriteMode.RewriteEverything);
+			
+			check(c.getLastProcessedModifiedTime() == null, "there's a processed time before anything was performed");  //(like a performIfChanged loop does first)
+			
+			//A perform's write step, with something to write (like every RewriteEverything perform has)
+			PerformState st = c.new PerformState(null, null);
+			st.setOriginal(connection.getDriveModifiedTime("check"));
+			st.reqs = newEdit(1000, 3, "ours");
+			c.write(st);
+			
+			check(backend.getNumberOfWrites() == 1, "the write wasn't sent");
+			
+			//(The performs after this have no operation, so they just read; that's all performIfChanged's deciding needs)
+			check(!c.performIfChanged(null, null), "performIfChanged ran again after only our own write");
+			check(!c.performIfChanged(null, null), "performIfChanged ran again the time after that");
+			
+			//Someone else's edit
+			connection.getCaller().execute(connection.service.spreadsheets().batchUpdate("check", new BatchUpdateSpreadsheetRequest().setRequests(newEdit(1000, 4, "theirs"))), true);
+			
+			check(c.performIfChanged(null, null), "performIfChanged skipped someone else's edit");
+			check(!c.performIfChanged(null, null), "performIfChanged ran again after a perform that didn't write");
+			
+			//Someone else's edit after our read but before our write
+			st = c.new PerformState(null, null);
+			st.setOriginal(connection.getDriveModifiedTime("check"));
+			connection.getCaller().execute(connection.service.spreadsheets().batchUpdate("check", new BatchUpdateSpreadsheetRequest().setRequests(newEdit(1000, 5, "theirs, sneakily"))), true);
+			st.reqs = newEdit(1000, 3, "ours again");
+			c.write(st);
+			
+			check(c.performIfChanged(null, null), "performIfChanged skipped an edit made while we were performing");
+			check(!c.performIfChanged(null, null), "performIfChanged ran again after that");
+		}
+		
+		System.out.println("OK");
+	}
+	
+	
+	protected static List<Request> newEdit(int sheetId, int rowIndex, String text)
+	{
+		List<CellData> cells = new ArrayList<>();
+		cells.add(new CellData().setUserEnteredValue(new ExtendedValue().setStringValue(text)));
+		
+		List<RowData> rows = new ArrayList<>();
+		rows.add(new RowData().setValues(cells));
+		
+		GridRange range = new GridRange();
+		range.setSheetId(sheetId);
+		range.setStartRowIndex(rowIndex);
+		range.setEndRowIndex(rowIndex + 1);
+		range.setStartColumnIndex(0);
+		range.setEndColumnIndex(1);
+		
+		List<Request> reqs = new ArrayList<>();
+		reqs.add(new Request().setUpdateCells(new UpdateCellsRequest().setRange(range).setRows(rows).setFields("userEnteredValue")));
+		return reqs;
+	}
+	
+	protected static void check(boolean ok, String problem)
+	{
+		if (!ok)
+			throw new AssertionError(problem);
+	}
+}
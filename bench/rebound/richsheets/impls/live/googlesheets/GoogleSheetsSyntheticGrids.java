@@ -0,0 +1,234 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import com.google.api.services.sheets.v4.model.CellData;
+import com.google.api.services.sheets.v4.model.CellFormat;
+import com.google.api.services.sheets.v4.model.Color;
+import com.google.api.services.sheets.v4.model.DimensionProperties;
+import com.google.api.services.sheets.v4.model.GridData;
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.NumberFormat;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.TextFormat;
+import com.google.api.services.sheets.v4.model.TextFormatRun;
+
+/**
+ * Makes up subsheets that look like what spreadsheets.get returns (with our fields mask), for benchmarking without Google.
+ * Same shape and seed, same sheet, so runs are comparable :3
+ */
+public class GoogleSheetsSyntheticGrids
+{
+	public static class Shape
+	{
+		public int rows = 1000;
+		public int columns = 10;
+		public int frozenRows = 1;
+		
+		/**
+		 * How many of the (non-header) columns are all TRUE/FALSE, and how many are all numbers; the rest are text
+		 */
+		public int booleanColumns = 1;
+		public int numberColumns = 2;
+		
+		/**
+		 * 0 to 1: how many text cells have a background color/alignment/wrapping/bold/etc.
+		 */
+		public double formattedFraction = 0.2;
+		
+		/**
+		 * 1 for plain text, more for rich text with that many differently formatted runs
+		 */
+		public int runsPerCell = 1;
+		
+		/**
+		 * How many different words there are (fewer means more repeated values, which is more realistic!)
+		 */
+		public int vocabulary = 500;
+		
+		public long seed = 1;
+		
+		public Shape()
+		{
+		}
+		
+		public Shape(int rows, int columns, double formattedFraction, int runsPerCell)
+		{
+			this.rows = rows;
+			this.columns = columns;
+			this.formattedFraction = formattedFraction;
+			this.runsPerCell = runsPerCell;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return rows+"x"+columns+",formatted="+formattedFraction+",runs="+runsPerCell;
+		}
+	}
+	
+	
+	
+	
+	public static Sheet newSheet(Shape shape)
+	{
+		Random random = new Random(shape.seed);
+		
+		List<RowData> rows = new ArrayList<>(shape.rows);
+		List<DimensionProperties> rowMetadata = new ArrayList<>(shape.rows);
+		List<DimensionProperties> columnMetadata = new ArrayList<>(shape.columns);
+		
+		for (int c = 0; c < shape.columns; c++)
+			columnMetadata.add(new DimensionProperties().setPixelSize(100));
+		
+		for (int r = 0; r < shape.rows; r++)
+		{
+			List<CellData> cells = new ArrayList<>(shape.columns);
+			
+			for (int c = 0; c < shape.columns; c++)
+			{
+				if (r < shape.frozenRows)
+					cells.add(newTextCell("Column "+c, 1, true, random));
+				else if (c < shape.booleanColumns)
+					cells.add(newBooleanCell(random.nextBoolean()));
+				else if (c < shape.booleanColumns + shape.numberColumns)
+					cells.add(newNumberCell(random.nextInt(100_000) / 100.0));
+				else
+					cells.add(newTextCell(randomText(random, shape.vocabulary, 1 + random.nextInt(4)), shape.runsPerCell, random.nextDouble() < shape.formattedFraction, random));
+			}
+			
+			rows.add(new RowData().setValues(cells));
+			rowMetadata.add(new DimensionProperties().setPixelSize(21));
+		}
+		
+		GridData gd = new GridData();
+		gd.setRowData(rows);
+		gd.setRowMetadata(rowMetadata);
+		gd.setColumnMetadata(columnMetadata);
+		
+		Sheet s = new Sheet();
+		s.setProperties(newProperties(0, "Sheet1", shape.rows, shape.columns, shape.frozenRows));
+		s.setData(singletonList(gd));
+		return s;
+	}
+	
+	
+	public static SheetProperties newProperties(int index, String title, int rows, int columns, int frozenRows)
+	{
+		GridProperties g = new GridProperties();
+		g.setRowCount(rows);
+		g.setColumnCount(columns);
+		if (frozenRows != 0)
+			g.setFrozenRowCount(frozenRows);
+		
+		SheetProperties p = new SheetProperties();
+		p.setSheetId(1000 + index);
+		p.setTitle(title);
+		p.setIndex(index);
+		p.setGridProperties(g);
+		return p;
+	}
+	
+	
+	
+	
+	public static CellData newBooleanCell(boolean v)
+	{
+		CellData c = new CellData();
+		c.setFormattedValue(v ? "TRUE" : "FALSE");
+		c.setEffectiveFormat(new CellFormat().setHorizontalAlignment("CENTER"));
+		return c;
+	}
+	
+	public static CellData newNumberCell(double v)
+	{
+		CellData c = new CellData();
+		c.setFormattedValue(String.format("%.2f", v));
+		c.setEffectiveFormat(new CellFormat().setHorizontalAlignment("RIGHT").setNumberFormat(new NumberFormat().setType("NUMBER")));
+		return c;
+	}
+	
+	public static CellData newTextCell(String text, int runs, boolean formatted, Random random)
+	{
+		CellData c = new CellData();
+		c.setFormattedValue(text);
+		
+		CellFormat f = new CellFormat();
+		
+		if (formatted)
+		{
+			f.setBackgroundColor(newColor(random.nextInt(8)));
+			f.setHorizontalAlignment(random.nextBoolean() ? "LEFT" : "CENTER");
+			f.setWrapStrategy(random.nextBoolean() ? "WRAP" : "CLIP");
+			f.setTextFormat(new TextFormat().setBold(true));
+		}
+		else
+		{
+			f.setTextFormat(new TextFormat());
+		}
+		
+		c.setEffectiveFormat(f);
+		
+		if (runs > 1 && text.length() >= runs)
+		{
+			List<TextFormatRun> rs = new ArrayList<>(runs);
+			
+			for (int i = 0; i < runs; i++)
+			{
+				TextFormat tf = new TextFormat();
+				if (i % 2 == 1)
+				{
+					tf.setItalic(true);
+					tf.setForegroundColor(newColor(1 + i % 7));
+				}
+				
+				TextFormatRun r = new TextFormatRun().setFormat(tf);
+				if (i != 0)
+					r.setStartIndex(i * text.length() / runs);
+				rs.add(r);
+			}
+			
+			c.setTextFormatRuns(rs);
+		}
+		
+		return c;
+	}
+	
+	
+	/**
+	 * A few distinct colors, like real sheets have
+	 */
+	public static Color newColor(int i)
+	{
+		Color c = new Color();
+		if ((i & 1) != 0)  c.setRed(1f);
+		if ((i & 2) != 0)  c.setGreen(0.8f);
+		if ((i & 4) != 0)  c.setBlue(0.6f);
+		return c;
+	}
+	
+	public static String randomText(Random random, int vocabulary, int words)
+	{
+		StringBuilder b = new StringBuilder();
+		
+		for (int i = 0; i < words; i++)
+		{
+			if (i != 0)
+				b.append(' ');
+			b.append("word").append(random.nextInt(vocabulary));
+		}
+		
+		return b.toString();
+	}
+	
+	
+	protected static <E> List<E> singletonList(E e)
+	{
+		List<E> l = new ArrayList<>(1);  //mutable, since the model objects are
+		l.add(e);
+		return l;
+	}
+}
@@ -0,0 +1,282 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponseException;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * Everything we send to Google goes through here, so it's all rate limited (to stay under the quotas) and retried with jittered exponential backoff when Google says to slow down or has a hiccup (429s and 5xx's).
+ */
+public class GoogleSheetsApiCaller
+{
+	protected final GoogleSheetsRateLimiter readLimiter;
+	protected final GoogleSheetsRateLimiter writeLimiter;
+	
+	protected int maxRetries = 5;
+	protected long initialBackoffMillis = 1000;
+	protected long maxBackoffMillis = 32_000;
+	
+	protected final AtomicLong calls = new AtomicLong();
+	protected final AtomicLong throttledCalls = new AtomicLong();
+	protected final AtomicLong retriedCalls = new AtomicLong();
+	protected final AtomicLong retries = new AtomicLong();
+	protected final AtomicLong failedCalls = new AtomicLong();
+	
+	protected volatile GoogleSheetsObserver observer = GoogleSheetsObserver.None;
+	
+	
+	
+	public GoogleSheetsApiCaller()
+	{
+		this(GoogleSheetsRateLimiter.getProcessWideReadLimiter(), GoogleSheetsRateLimiter.getProcessWideWriteLimiter());
+	}
+	
+	public GoogleSheetsApiCaller(GoogleSheetsRateLimiter readLimiter, GoogleSheetsRateLimiter writeLimiter)
+	{
+		this.readLimiter = readLimiter;
+		this.writeLimiter = writeLimiter;
+	}
+	
+	
+	
+	
+	/**
+	 * @param write whether this counts against the write quota (batchUpdate and such) rather than the read quota.  Writes are only retried on responses that mean Google didn't apply them (429/503), not on timeouts/network errors, since they might not be idempotent (eg, appending rows!)
+	 */
+	public <T> T execute(AbstractGoogleClientRequest<T> request, boolean write) throws IOException
+	{
+		return call(request::execute, write ? writeLimiter : readLimiter, write);
+	}
+	
+	
+	public static interface IOCall<T>
+	{
+		public T call() throws IOException;
+	}
+	
+	/**
+	 * For calls that aren't {@link AbstractGoogleClientRequest}s (eg, to other Google APIs that don't have a client library handy) or that have their own quotas.
+	 * @param limiter null to not rate limit it at all (but still retry it)
+	 * @param write whether it's not safe to retry after timeouts/network errors (see {@link #execute(AbstractGoogleClientRequest, boolean)})
+	 */
+	public <T> T call(IOCall<T> call, @Nullable GoogleSheetsRateLimiter limiter, boolean write) throws IOException
+	{
+		GoogleSheetsObserver observer = this.observer;
+		
+		if (!observer.isEnabled())
+			return call(call, limiter, write, null);
+		
+		long start = System.nanoTime();
+		int[] retriesHolder = new int[1];
+		
+		try
+		{
+			T r = call(call, limiter, write, retriesHolder);
+			observer.apiCall(write, retriesHolder[0], System.nanoTime() - start, null);
+			return r;
+		}
+		catch (IOException exc)
+		{
+			observer.apiCall(write, retriesHolder[0], System.nanoTime() - start, exc);
+			throw exc;
+		}
+	}
+	
+	/**
+	 * @param retriesHolder if not null, element 0 is set to how many times it retried
+	 */
+	protected <T> T call(IOCall<T> call, @Nullable GoogleSheetsRateLimiter limiter, boolean write, @Nullable int[] retriesHolder) throws IOException
+	{
+		calls.incrementAndGet();
+		
+		int attempt = 0;
+		
+		while (true)
+		{
+			try
+			{
+				if (limiter != null && limiter.acquire() > 0)
+					throttledCalls.incrementAndGet();
+			}
+			catch (InterruptedException exc)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for Google Sheets quota");
+			}
+			
+			
+			try
+			{
+				return call.call();
+			}
+			catch (IOException exc)
+			{
+				if (attempt >= maxRetries || !isRetryable(exc, write))
+				{
+					failedCalls.incrementAndGet();
+					throw exc;
+				}
+			}
+			
+			
+			if (attempt == 0)
+				retriedCalls.incrementAndGet();
+			retries.incrementAndGet();
+			
+			try
+			{
+				Thread.sleep(backoffMillis(attempt));
+			}
+			catch (InterruptedException exc)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while backing off from Google Sheets");
+			}
+			
+			attempt++;
+			
+			if (retriesHolder != null)
+				retriesHolder[0] = attempt;
+		}
+	}
+	
+	
+	protected boolean isRetryable(IOException exc, boolean write)
+	{
+		if (exc instanceof HttpResponseException)
+		{
+			int status = ((HttpResponseException)exc).getStatusCode();
+			
+			if (write)
+				return status == 429 || status == 503;
+			else
+				return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+		}
+		else if (exc instanceof SocketTimeoutException)
+		{
+			return !write;
+		}
+		else if (exc instanceof InterruptedIOException)
+		{
+			return false;  //someone wants us to stop!
+		}
+		else
+		{
+			return !write;  //network hiccups
+		}
+	}
+	
+	
+	/**
+	 * A random time between half and all of the exponential backoff (1s, 2s, 4s, ... up to the max), so lots of clients that got throttled at the same time don't all come back at the same time too.
+	 */
+	protected long backoffMillis(int attempt)
+	{
+		long cap = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 30));
+		return ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+	}
+	
+	
+	
+	
+	public int getMaxRetries()
+	{
+		return maxRetries;
+	}
+	
+	public void setMaxRetries(int maxRetries)
+	{
+		this.maxRetries = maxRetries;
+	}
+	
+	public long getInitialBackoffMillis()
+	{
+		return initialBackoffMillis;
+	}
+	
+	public void setInitialBackoffMillis(long initialBackoffMillis)
+	{
+		this.initialBackoffMillis = initialBackoffMillis;
+	}
+	
+	public long getMaxBackoffMillis()
+	{
+		return maxBackoffMillis;
+	}
+	
+	public void setMaxBackoffMillis(long maxBackoffMillis)
+	{
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+	
+	public GoogleSheetsRateLimiter getReadLimiter()
+	{
+		return readLimiter;
+	}
+	
+	public GoogleSheetsRateLimiter getWriteLimiter()
+	{
+		return writeLimiter;
+	}
+	
+	public GoogleSheetsObserver getObserver()
+	{
+		return observer;
+	}
+	
+	/**
+	 * Usually set through {@link RichsheetsConnectionForGoogleSheets#setObserver(GoogleSheetsObserver)}
+	 */
+	public void setObserver(GoogleSheetsObserver observer)
+	{
+		this.observer = observer;
+	}
+	
+	
+	
+	
+	/**
+	 * @return how many API calls were made (not counting retries)
+	 */
+	public long getNumberOfCalls()
+	{
+		return calls.get();
+	}
+	
+	/**
+	 * @return how many times a call (or a retry of one) had to wait for the rate limiter
+	 */
+	public long getNumberOfThrottledCalls()
+	{
+		return throttledCalls.get();
+	}
+	
+	/**
+	 * @return how many calls needed at least one retry
+	 */
+	public long getNumberOfRetriedCalls()
+	{
+		return retriedCalls.get();
+	}
+	
+	/**
+	 * @return how many retries there were in total
+	 */
+	public long getNumberOfRetries()
+	{
+		return retries.get();
+	}
+	
+	/**
+	 * @return how many calls failed even after retrying
+	 */
+	public long getNumberOfFailedCalls()
+	{
+		return failedCalls.get();
+	}
+}
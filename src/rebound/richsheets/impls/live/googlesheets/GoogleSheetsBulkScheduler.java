@@ -0,0 +1,337 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import rebound.richsheets.api.operation.RichsheetsOperation;
+import rebound.richsheets.impls.live.googlesheets.RichsheetsConnectionForGoogleSheets.WriteMode;
+
+/**
+ * For running operations over lots of spreadsheets (like maintenance on thousands of them) without racing or blowing through the quota!
+ *
+ * 	+ At most {@link #getMaxConcurrentJobs()} jobs run at once (across all spreadsheets)
+ * 	+ Jobs on the same spreadsheet run one at a time, in the order they were submitted (so two of them never read the same data and then overwrite each other's changes)
+ * 	+ Spreadsheets take turns: whenever a job finishes, the next one to start is from the spreadsheet that's been waiting longest, so one spreadsheet with a thousand jobs queued up can't starve the others
+ *
+ * Jobs run through {@link RichsheetsConnectionForGoogleSheets.SubsheetConnection#performAsync(Integer, RichsheetsOperation)}, so they don't each hold a thread while they wait on the network.
+ * A cancelled job still counts as running (and holds up its spreadsheet) until the read or write it was in the middle of is done, so the next job on that spreadsheet never overlaps it.
+ */
+public class GoogleSheetsBulkScheduler
+{
+	protected final RichsheetsConnectionForGoogleSheets connection;
+	protected volatile int maxConcurrentJobs;
+	
+	//All guarded by this
+	protected final Map<String, ArrayDeque<Job>> queuesBySpreadsheet = new HashMap<>();
+	protected final ArrayDeque<String> spreadsheetsWaiting = new ArrayDeque<>();  //ones with queued jobs and none running, in the order they'll get their turns
+	protected int running = 0;
+	protected int queued = 0;
+	
+	protected final ThreadLocal<Boolean> inStartWhatWeCan = ThreadLocal.withInitial(() -> false);  //so a job that fails right away (finishing while it's being started) doesn't recurse into starting the next one
+	
+	protected final AtomicLong submitted = new AtomicLong();
+	protected final AtomicLong succeeded = new AtomicLong();
+	protected final AtomicLong failed = new AtomicLong();
+	protected final AtomicLong totalQueuedNanos = new AtomicLong();
+	protected final AtomicLong maxQueuedNanos = new AtomicLong();
+	protected final AtomicLong totalRunningNanos = new AtomicLong();
+	
+	
+	
+	public GoogleSheetsBulkScheduler(RichsheetsConnectionForGoogleSheets connection, int maxConcurrentJobs)
+	{
+		if (maxConcurrentJobs < 1)
+			throw new IllegalArgumentException("maxConcurrentJobs must be at least 1");
+		
+		this.connection = connection;
+		this.maxConcurrentJobs = maxConcurrentJobs;
+	}
+	
+	
+	
+	
+	public CompletableFuture<Void> submit(String spreadsheetId, int subsheetIndex, Integer maxRowsToRead, RichsheetsOperation operation)
+	{
+		return submit(spreadsheetId, subsheetIndex, WriteMode.RewriteEverything, maxRowsToRead, operation);
+	}
+	
+	/**
+	 * @return completes when the job's done (or failed, or was cancelled); cancelling it before it starts takes it out of the queue
+	 */
+	public CompletableFuture<Void> submit(String spreadsheetId, int subsheetIndex, @Nonnull WriteMode writeMode, Integer maxRowsToRead, RichsheetsOperation operation)
+	{
+		Job job = new Job(spreadsheetId, subsheetIndex, writeMode, maxRowsToRead, operation);
+		submitted.incrementAndGet();
+		
+		synchronized (this)
+		{
+			ArrayDeque<Job> q = queuesBySpreadsheet.get(spreadsheetId);
+			
+			if (q == null)
+			{
+				q = new ArrayDeque<>();
+				queuesBySpreadsheet.put(spreadsheetId, q);
+				spreadsheetsWaiting.add(spreadsheetId);  //nothing's running on it (otherwise it'd still have a queue)
+			}
+			
+			q.add(job);
+			queued++;
+		}
+		
+		startWhatWeCan();
+		
+		return job.result;
+	}
+	
+	
+	
+	
+	protected void startWhatWeCan()
+	{
+		if (inStartWhatWeCan.get())
+			return;  //the loop further up the stack will see whatever just became free :3
+		
+		inStartWhatWeCan.set(true);
+		try
+		{
+			startWhatWeCanLoop();
+		}
+		finally
+		{
+			inStartWhatWeCan.set(false);
+		}
+	}
+	
+	protected void startWhatWeCanLoop()
+	{
+		while (true)
+		{
+			Job job;
+			
+			synchronized (this)
+			{
+				job = null;
+				
+				while (job == null && running < maxConcurrentJobs && !spreadsheetsWaiting.isEmpty())
+				{
+					String spreadsheetId = spreadsheetsWaiting.poll();
+					ArrayDeque<Job> q = queuesBySpreadsheet.get(spreadsheetId);
+					
+					//Skip the ones that were cancelled while they were queued
+					while (!q.isEmpty() && q.peek().result.isDone())
+					{
+						q.poll();
+						queued--;
+					}
+					
+					if (q.isEmpty())
+					{
+						queuesBySpreadsheet.remove(spreadsheetId);
+					}
+					else
+					{
+						job = q.poll();  //the queue stays in the map (empty or not) while it runs, so nothing else on this spreadsheet can start
+						queued--;
+						running++;
+					}
+				}
+			}
+			
+			if (job == null)
+				return;
+			
+			start(job);
+		}
+	}
+	
+	
+	protected void start(Job job)
+	{
+		long started = System.nanoTime();
+		long waited = started - job.submittedAt;
+		
+		totalQueuedNanos.addAndGet(waited);
+		maxQueuedNanos.accumulateAndGet(waited, Math::max);
+		
+		//Not the future performAsync returns, since that one's done as soon as it's cancelled, even if it's still reading or writing!
+		CompletableFuture<Void> stepsFinished = new CompletableFuture<>();
+		
+		CompletableFuture<Void> f;
+		try
+		{
+			f = connection.getConnectionFor(job.spreadsheetId, job.subsheetIndex, job.writeMode).performAsync(job.maxRowsToRead, job.operation, stepsFinished);
+		}
+		catch (RuntimeException exc)
+		{
+			f = new CompletableFuture<>();
+			f.completeExceptionally(exc);
+			stepsFinished.completeExceptionally(exc);
+		}
+		
+		final CompletableFuture<Void> running = f;
+		
+		job.result.whenComplete((r, exc) ->
+		{
+			//If they cancel it (or it times out, or anything else completes it) while it's running, pass that on so it stops before its next step
+			if (!stepsFinished.isDone())
+				running.cancel(false);
+		});
+		
+		stepsFinished.whenComplete((r, exc) ->
+		{
+			totalRunningNanos.addAndGet(System.nanoTime() - started);
+			
+			if (exc == null)
+			{
+				succeeded.incrementAndGet();
+				job.result.complete(null);
+			}
+			else
+			{
+				failed.incrementAndGet();
+				job.result.completeExceptionally(exc);
+			}
+			
+			finished(job.spreadsheetId);
+		});
+	}
+	
+	
+	protected void finished(String spreadsheetId)
+	{
+		synchronized (this)
+		{
+			running--;
+			
+			ArrayDeque<Job> q = queuesBySpreadsheet.get(spreadsheetId);
+			
+			if (q.isEmpty())
+				queuesBySpreadsheet.remove(spreadsheetId);
+			else
+				spreadsheetsWaiting.add(spreadsheetId);  //to the back of the line!
+		}
+		
+		startWhatWeCan();
+	}
+	
+	
+	
+	
+	protected static class Job
+	{
+		protected final String spreadsheetId;
+		protected final int subsheetIndex;
+		protected final WriteMode writeMode;
+		protected final Integer maxRowsToRead;
+		protected final RichsheetsOperation operation;
+		
+		protected final long submittedAt = System.nanoTime();
+		protected final CompletableFuture<Void> result = new CompletableFuture<>();
+		
+		public Job(String spreadsheetId, int subsheetIndex, WriteMode writeMode, Integer maxRowsToRead, RichsheetsOperation operation)
+		{
+			this.spreadsheetId = spreadsheetId;
+			this.subsheetIndex = subsheetIndex;
+			this.writeMode = writeMode;
+			this.maxRowsToRead = maxRowsToRead;
+			this.operation = operation;
+		}
+	}
+	
+	
+	
+	
+	public RichsheetsConnectionForGoogleSheets getConnection()
+	{
+		return connection;
+	}
+	
+	public int getMaxConcurrentJobs()
+	{
+		return maxConcurrentJobs;
+	}
+	
+	/**
+	 * Raising it starts more right away; lowering it just doesn't start any more until enough have finished.
+	 */
+	public void setMaxConcurrentJobs(int maxConcurrentJobs)
+	{
+		if (maxConcurrentJobs < 1)
+			throw new IllegalArgumentException("maxConcurrentJobs must be at least 1");
+		
+		this.maxConcurrentJobs = maxConcurrentJobs;
+		startWhatWeCan();
+	}
+	
+	
+	/**
+	 * @return the queue depth (jobs submitted but not started yet; including any cancelled ones that haven't been skipped yet)
+	 */
+	public synchronized int getNumberOfQueuedJobs()
+	{
+		return queued;
+	}
+	
+	public synchronized int getNumberOfRunningJobs()
+	{
+		return running;
+	}
+	
+	/**
+	 * @return how many spreadsheets have jobs queued or running
+	 */
+	public synchronized int getNumberOfActiveSpreadsheets()
+	{
+		return queuesBySpreadsheet.size();
+	}
+	
+	public long getNumberOfJobsSubmitted()
+	{
+		return submitted.get();
+	}
+	
+	public long getNumberOfJobsSucceeded()
+	{
+		return succeeded.get();
+	}
+	
+	public long getNumberOfJobsFailed()
+	{
+		return failed.get();
+	}
+	
+	/**
+	 * @return the total time jobs spent waiting in the queue (for the average, divide by the number started: {@link #getNumberOfJobsSucceeded()} + {@link #getNumberOfJobsFailed()} + {@link #getNumberOfRunningJobs()})
+	 */
+	public long getTotalQueuedNanos()
+	{
+		return totalQueuedNanos.get();
+	}
+	
+	/**
+	 * @return the longest any job has waited in the queue
+	 */
+	public long getMaxQueuedNanos()
+	{
+		return maxQueuedNanos.get();
+	}
+	
+	/**
+	 * @return the total time finished jobs spent running (for the average, divide by {@link #getNumberOfJobsSucceeded()} + {@link #getNumberOfJobsFailed()})
+	 */
+	public long getTotalRunningNanos()
+	{
+		return totalRunningNanos.get();
+	}
+	
+	
+	@Override
+	public String toString()
+	{
+		long finished = succeeded.get() + failed.get();
+		return "queued="+getNumberOfQueuedJobs()+", running="+getNumberOfRunningJobs()+", succeeded="+succeeded.get()+", failed="+failed.get()+(finished == 0 ? "" : ", average run ms="+(totalRunningNanos.get() / finished / 1_000_000))+", max queued ms="+(maxQueuedNanos.get() / 1_000_000);
+	}
+}
@@ -0,0 +1,302 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.function.Supplier;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+/**
+ * Wraps another transport to tell a {@link GoogleSheetsObserver} about each HTTP exchange, with the response bytes counted as they're actually read (so compressed, if it was gzipped).
+ * We can't just use the Content-Length header for that, since Google leaves it out of gzipped responses (they're chunked), and those are most of them! XD
+ *
+ * Each exchange is reported once its response body has been read to the end or closed (which google-http-client always does when it's parsed or ignored), or right away if it has no body.
+ * While the observer's off, requests go straight through to the underlying transport's own ones, unwrapped, so it costs nothing :3
+ */
+public class GoogleSheetsByteCountingTransport
+extends HttpTransport
+{
+	protected static final MethodHandle BuildRequest;
+	
+	static
+	{
+		//It's protected, and we're not a subclass of the underlying transport's class, so this is the only way to call it on another transport ^^'
+		//(A MethodHandle rather than Method.invoke(), since that boxes the arguments into a new array every call)
+		try
+		{
+			Method m = HttpTransport.class.getDeclaredMethod("buildRequest", String.class, String.class);
+			m.setAccessible(true);
+			BuildRequest = MethodHandles.lookup().unreflect(m);
+		}
+		catch (NoSuchMethodException | IllegalAccessException exc)
+		{
+			throw new AssertionError(exc);
+		}
+	}
+	
+	
+	protected final HttpTransport underlying;
+	protected final Supplier<GoogleSheetsObserver> observer;
+	
+	/**
+	 * @param observer asked for the current observer each time (so it can be changed after this is made)
+	 */
+	public GoogleSheetsByteCountingTransport(HttpTransport underlying, Supplier<GoogleSheetsObserver> observer)
+	{
+		this.underlying = underlying;
+		this.observer = observer;
+	}
+	
+	
+	
+	
+	@Override
+	protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException
+	{
+		LowLevelHttpRequest request;
+		try
+		{
+			request = (LowLevelHttpRequest)BuildRequest.invokeExact(underlying, method, url);
+		}
+		catch (IOException | RuntimeException | Error exc)
+		{
+			throw exc;
+		}
+		catch (Throwable exc)
+		{
+			throw new IOException(exc);
+		}
+		
+		if (!observer.get().isEnabled())
+			return request;  //nothing's listening, so don't bother counting
+		
+		return new CountingRequest(method, url, request);
+	}
+	
+	@Override
+	public boolean supportsMethod(String method) throws IOException
+	{
+		return underlying.supportsMethod(method);
+	}
+	
+	@Override
+	public void shutdown() throws IOException
+	{
+		underlying.shutdown();
+	}
+	
+	public HttpTransport getUnderlying()
+	{
+		return underlying;
+	}
+	
+	
+	
+	
+	protected class CountingRequest
+	extends LowLevelHttpRequest
+	{
+		protected final String method;
+		protected final String url;
+		protected final LowLevelHttpRequest underlying;
+		
+		public CountingRequest(String method, String url, LowLevelHttpRequest underlying)
+		{
+			this.method = method;
+			this.url = url;
+			this.underlying = underlying;
+		}
+		
+		@Override
+		public void addHeader(String name, String value) throws IOException
+		{
+			underlying.addHeader(name, value);
+		}
+		
+		@Override
+		public void setTimeout(int connectTimeout, int readTimeout) throws IOException
+		{
+			underlying.setTimeout(connectTimeout, readTimeout);
+		}
+		
+		@Override
+		public LowLevelHttpResponse execute() throws IOException
+		{
+			//The content's set on us, not it (those setters are final!)
+			underlying.setContentLength(getContentLength());
+			underlying.setContentEncoding(getContentEncoding());
+			underlying.setContentType(getContentType());
+			underlying.setStreamingContent(getStreamingContent());
+			
+			long requestBytes = getStreamingContent() == null ? 0 : getContentLength();
+			
+			return new CountingResponse(this, requestBytes, underlying.execute());
+		}
+	}
+	
+	
+	protected class CountingResponse
+	extends LowLevelHttpResponse
+	{
+		protected final CountingRequest request;
+		protected final long requestBytes;
+		protected final LowLevelHttpResponse underlying;
+		
+		protected long responseBytes = 0;
+		protected boolean reported = false;
+		
+		public CountingResponse(CountingRequest request, long requestBytes, LowLevelHttpResponse underlying)
+		{
+			this.request = request;
+			this.requestBytes = requestBytes;
+			this.underlying = underlying;
+		}
+		
+		
+		@Override
+		public InputStream getContent() throws IOException
+		{
+			InputStream content = underlying.getContent();
+			
+			if (content == null)
+			{
+				report();
+				return null;
+			}
+			
+			return new FilterInputStream(content)
+			{
+				@Override
+				public int read() throws IOException
+				{
+					int b = super.read();
+					
+					if (b == -1)
+						report();
+					else
+						responseBytes++;
+					
+					return b;
+				}
+				
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException
+				{
+					int n = super.read(b, off, len);
+					
+					if (n == -1)
+						report();
+					else
+						responseBytes += n;
+					
+					return n;
+				}
+				
+				@Override
+				public long skip(long n) throws IOException
+				{
+					long skipped = super.skip(n);
+					responseBytes += skipped;
+					return skipped;
+				}
+				
+				@Override
+				public void close() throws IOException
+				{
+					try
+					{
+						super.close();
+					}
+					finally
+					{
+						report();
+					}
+				}
+			};
+		}
+		
+		@Override
+		public void disconnect() throws IOException
+		{
+			report();
+			underlying.disconnect();
+		}
+		
+		
+		protected void report() throws IOException
+		{
+			synchronized (this)
+			{
+				if (reported)
+					return;
+				reported = true;
+			}
+			
+			GoogleSheetsObserver observer = GoogleSheetsByteCountingTransport.this.observer.get();
+			
+			if (observer.isEnabled())
+				observer.httpExchange(request.method, new GenericUrl(request.url).getRawPath(), underlying.getStatusCode(), requestBytes, responseBytes);
+		}
+		
+		
+		@Override
+		public String getContentEncoding() throws IOException
+		{
+			return underlying.getContentEncoding();
+		}
+		
+		@Override
+		public long getContentLength() throws IOException
+		{
+			return underlying.getContentLength();
+		}
+		
+		@Override
+		public String getContentType() throws IOException
+		{
+			return underlying.getContentType();
+		}
+		
+		@Override
+		public String getStatusLine() throws IOException
+		{
+			return underlying.getStatusLine();
+		}
+		
+		@Override
+		public int getStatusCode() throws IOException
+		{
+			return underlying.getStatusCode();
+		}
+		
+		@Override
+		public String getReasonPhrase() throws IOException
+		{
+			return underlying.getReasonPhrase();
+		}
+		
+		@Override
+		public int getHeaderCount() throws IOException
+		{
+			return underlying.getHeaderCount();
+		}
+		
+		@Override
+		public String getHeaderName(int index) throws IOException
+		{
+			return underlying.getHeaderName(index);
+		}
+		
+		@Override
+		public String getHeaderValue(int index) throws IOException
+		{
+			return underlying.getHeaderValue(index);
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import rebound.richsheets.api.model.RichsheetsTable;
+import rebound.richshets.model.cell.RichshetsCellContents;
+import rebound.richshets.model.cell.RichshetsCellContentsRun;
+import rebound.richshets.model.cell.RichshetsColor;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * Works out which rectangles of cells actually differ between the table we decoded from Google Sheets and the table the operation handed back, so we only have to send those :3
+ */
+public class GoogleSheetsCellDiff
+{
+	public static final int ChangedValue = 1;  //the text itself (and so the text format runs too, since their indexes are into the text!)
+	public static final int ChangedRuns = 2;  //bold/italic/color/etc. of the runs
+	public static final int ChangedBackgroundColor = 4;
+	public static final int ChangedJustification = 8;
+	public static final int ChangedWrappingStrategy = 16;
+	public static final int ChangedEverything = ChangedValue | ChangedRuns | ChangedBackgroundColor | ChangedJustification | ChangedWrappingStrategy;
+	
+	
+	
+	public static class ChangedRegion
+	{
+		protected final int startColumnIndex;  //inclusive
+		protected final int startRowIndex;  //inclusive
+		protected final int endColumnIndex;  //exclusive
+		protected int endRowIndex;  //exclusive
+		protected int changes;  //bitfield of Changed* constants for all the cells in the region together
+		
+		public ChangedRegion(int startColumnIndex, int startRowIndex, int endColumnIndex, int endRowIndex, int changes)
+		{
+			this.startColumnIndex = startColumnIndex;
+			this.startRowIndex = startRowIndex;
+			this.endColumnIndex = endColumnIndex;
+			this.endRowIndex = endRowIndex;
+			this.changes = changes;
+		}
+		
+		public int getStartColumnIndex()
+		{
+			return startColumnIndex;
+		}
+		
+		public int getStartRowIndex()
+		{
+			return startRowIndex;
+		}
+		
+		public int getEndColumnIndex()
+		{
+			return endColumnIndex;
+		}
+		
+		public int getEndRowIndex()
+		{
+			return endRowIndex;
+		}
+		
+		public int getChanges()
+		{
+			return changes;
+		}
+		
+		/**
+		 * @return the {@link com.google.api.services.sheets.v4.model.UpdateCellsRequest#setFields(String) fields mask} that covers exactly what changed in this region and nothing else
+		 */
+		public String getFieldsMask()
+		{
+			return toFieldsMask(changes);
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * Cells that are past the end of the original table (rows/columns the operation added) are compared against {@link RichshetsCellContents#Blank} since that's what Google Sheets fills new rows/columns with.
+	 * Cells that are past the end of the new table are ignored, just like the full rewrite leaves them alone.
+	 *
+	 * @return the regions in row-major order (sorted by their first row, then their first column), which don't overlap.  Empty if nothing changed at all!
+	 */
+	public static List<ChangedRegion> diff(RichsheetsTable original, RichsheetsTable modified)
+	{
+		int originalNumberOfColumns = original.getNumberOfColumns();
+		int originalNumberOfRows = original.getNumberOfRows();
+		int newNumberOfColumns = modified.getNumberOfColumns();
+		int newNumberOfRows = modified.getNumberOfRows();
+		
+		List<ChangedRegion> closed = new ArrayList<>();
+		Map<Long, ChangedRegion> open = new HashMap<>();  //keyed by (startColumn, endColumn); a region is open if it extends all the way down to the previous row
+		
+		int[] changesByColumn = new int[newNumberOfColumns];
+		
+		for (int r = 0; r < newNumberOfRows; r++)
+		{
+			for (int c = 0; c < newNumberOfColumns; c++)
+			{
+				RichshetsCellContents theirs = r < originalNumberOfRows && c < originalNumberOfColumns ? original.getCell(c, r) : RichshetsCellContents.Blank;
+				changesByColumn[c] = compareCells(theirs, modified.getCell(c, r));
+			}
+			
+			
+			Map<Long, ChangedRegion> stillOpen = new HashMap<>();
+			
+			int c = 0;
+			while (c < newNumberOfColumns)
+			{
+				if (changesByColumn[c] == 0)
+				{
+					c++;
+				}
+				else
+				{
+					int start = c;
+					int changes = 0;
+					while (c < newNumberOfColumns && changesByColumn[c] != 0)
+					{
+						changes |= changesByColumn[c];
+						c++;
+					}
+					
+					Long key = (((long)start) << 32) | c;
+					
+					ChangedRegion region = open.remove(key);
+					
+					if (region == null)
+					{
+						region = new ChangedRegion(start, r, c, r+1, changes);
+					}
+					else
+					{
+						region.endRowIndex = r+1;
+						region.changes |= changes;
+					}
+					
+					stillOpen.put(key, region);
+				}
+			}
+			
+			//Anything that didn't continue onto this row is done!
+			closed.addAll(open.values());
+			open = stillOpen;
+		}
+		
+		closed.addAll(open.values());
+		
+		closed.sort((a, b) -> a.startRowIndex != b.startRowIndex ? Integer.compare(a.startRowIndex, b.startRowIndex) : Integer.compare(a.startColumnIndex, b.startColumnIndex));
+		
+		return closed;
+	}
+	
+	
+	
+	
+	/**
+	 * @return a bitfield of the Changed* constants, zero if they're the same as far as Google Sheets is concerned
+	 */
+	public static int compareCells(RichshetsCellContents a, RichshetsCellContents b)
+	{
+		if (a == b)
+			return 0;
+		
+		int changes = 0;
+		
+		if (!a.justText().equals(b.justText()))
+			changes |= ChangedValue | ChangedRuns;
+		else if (!runFormattingEqual(a.getContents(), b.getContents()))
+			changes |= ChangedRuns;
+		
+		if (!colorsEqual(a.getBackgroundColor(), b.getBackgroundColor()))
+			changes |= ChangedBackgroundColor;
+		
+		if (a.getJustification() != b.getJustification())
+			changes |= ChangedJustification;
+		
+		if (a.getWrappingStrategy() != b.getWrappingStrategy())
+			changes |= ChangedWrappingStrategy;
+		
+		return changes;
+	}
+	
+	
+	protected static boolean runFormattingEqual(List<RichshetsCellContentsRun> a, List<RichshetsCellContentsRun> b)
+	{
+		int n = a.size();
+		
+		if (n != b.size())
+			return false;
+		
+		for (int i = 0; i < n; i++)
+		{
+			RichshetsCellContentsRun x = a.get(i);
+			RichshetsCellContentsRun y = b.get(i);
+			
+			if (!Objects.equals(x.getContents(), y.getContents()))  //the boundaries between runs moved
+				return false;
+			
+			if (x.isBold() != y.isBold() || x.isItalic() != y.isItalic() || x.isUnderline() != y.isUnderline() || x.isStrikethrough() != y.isStrikethrough())
+				return false;
+			
+			if (x.getScriptLevel() != y.getScriptLevel())
+				return false;
+			
+			if (!colorsEqual(x.getTextColor(), y.getTextColor()))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	
+	public static boolean colorsEqual(@Nullable RichshetsColor a, @Nullable RichshetsColor b)
+	{
+		if (a == null || b == null)
+			return a == b;
+		else
+			return a.getR() == b.getR() && a.getG() == b.getG() && a.getB() == b.getB();
+	}
+	
+	
+	
+	
+	public static String toFieldsMask(int changes)
+	{
+		List<String> fields = new ArrayList<>(10);
+		
+		if ((changes & ChangedValue) != 0)
+			fields.add("userEnteredValue");
+		
+		if ((changes & (ChangedValue | ChangedRuns)) != 0)
+		{
+			fields.add("textFormatRuns");
+			
+			//Text that's all one format is written as the cell's text format instead of as a run (see GoogleSheetsCellEncoder), so these have to be reset too.  (Just these, so things like the font people set by hand are left alone!)
+			fields.add("userEnteredFormat.textFormat.bold");
+			fields.add("userEnteredFormat.textFormat.italic");
+			fields.add("userEnteredFormat.textFormat.underline");
+			fields.add("userEnteredFormat.textFormat.strikethrough");
+			fields.add("userEnteredFormat.textFormat.foregroundColor");
+		}
+		
+		if ((changes & ChangedBackgroundColor) != 0)
+			fields.add("userEnteredFormat.backgroundColor");
+		
+		if ((changes & ChangedJustification) != 0)
+			fields.add("userEnteredFormat.horizontalAlignment");
+		
+		if ((changes & ChangedWrappingStrategy) != 0)
+			fields.add("userEnteredFormat.wrapStrategy");
+		
+		return String.join(",", fields);
+	}
+}
@@ -0,0 +1,337 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import rebound.exceptions.UnexpectedHardcodedEnumValueException;
+import rebound.richsheets.api.operation.RichsheetsUnencodableFormatException;
+import rebound.richshets.model.cell.RichshetsCellContents;
+import rebound.richshets.model.cell.RichshetsCellContents.RichshetsJustification;
+import rebound.richshets.model.cell.RichshetsCellContents.RichshetsTextWrappingStrategy;
+import rebound.richshets.model.cell.RichshetsCellContentsRun;
+import rebound.richshets.model.cell.RichshetsCellContentsRun.RichshetsCellRunScriptLevel;
+import rebound.richshets.model.cell.RichshetsColor;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.sheets.v4.model.CellData;
+import com.google.api.services.sheets.v4.model.CellFormat;
+import com.google.api.services.sheets.v4.model.Color;
+import com.google.api.services.sheets.v4.model.ExtendedValue;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.TextFormat;
+import com.google.api.services.sheets.v4.model.TextFormatRun;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * Turns our cells into as little JSON as possible for writing:
+ *
+ * 	+ Only {@link CellData#setUserEnteredValue(ExtendedValue) userEnteredValue}, {@link CellData#setUserEnteredFormat(CellFormat) userEnteredFormat} and {@link CellData#setTextFormatRuns(List) textFormatRuns} (the effective*'s and formattedValue are computed by the server, which ignores them on writes)
+ * 	+ Anything that's the default is left out (false booleans, overflow wrapping, black text, white backgrounds, zero color components, empty text, ...), which works because the requests always have a {@link #getFieldsMask(int) fields mask} that clears whatever we left out
+ * 	+ Text that's all one format puts it in the cell's format instead of a run, and adjacent runs with the same format are merged
+ * 	+ Identical formats/colors are the same objects (so they're only built once per encoder)
+ * 	+ Blank cells at the ends of rows are left out entirely (the request's range clears them)
+ *
+ * Not thread-safe (make one per write).
+ */
+public class GoogleSheetsCellEncoder
+{
+	protected static final int White = 0xFFFFFF;
+	
+	protected final Map<Integer, Color> colors = new HashMap<>();
+	protected final Map<Integer, TextFormat> textFormats = new HashMap<>();
+	protected final Map<Long, CellFormat> cellFormats = new HashMap<>();
+	
+	protected long cellsEncoded = 0;
+	
+	
+	
+	/**
+	 * The fields mask for an {@link com.google.api.services.sheets.v4.model.UpdateCellsRequest} of cells from this, that only changed in the given ways.
+	 * (Everything the encoder might leave out has to be in the mask, so that leaving it out resets it to the default!)
+	 *
+	 * @param changes a bitfield of {@link GoogleSheetsCellDiff}'s Changed* constants, or {@link GoogleSheetsCellDiff#ChangedEverything}
+	 */
+	public static String getFieldsMask(int changes)
+	{
+		return GoogleSheetsCellDiff.toFieldsMask(changes);
+	}
+	
+	
+	
+	
+	/**
+	 * @param columnTypes what type of value each column holds (indexed by column in the whole table, not in start..end), or null to write them all as text (eg, for header rows)
+	 * @return the cells from start (inclusive) to end (exclusive), with blank cells on the end left out
+	 */
+	public RowData encodeRow(List<RichshetsCellContents> cells, int start, int end, @Nullable GoogleSheetsColumnTypes columnTypes)
+	{
+		List<CellData> values = new ArrayList<>(end - start);
+		int nonblankEnd = 0;
+		
+		for (int i = start; i < end; i++)
+		{
+			CellData c = encodeCell(cells.get(i), columnTypes, i);
+			values.add(c);
+			
+			if (!c.isEmpty())
+				nonblankEnd = values.size();
+		}
+		
+		RowData row = new RowData();
+		
+		if (nonblankEnd > 0)
+			row.setValues(nonblankEnd == values.size() ? values : new ArrayList<>(values.subList(0, nonblankEnd)));
+		
+		return row;
+	}
+	
+	
+	
+	
+	/**
+	 * @param columnTypes null to write it as text
+	 */
+	public CellData encodeCell(RichshetsCellContents cell, @Nullable GoogleSheetsColumnTypes columnTypes, int columnIndex)
+	{
+		cellsEncoded++;
+		
+		CellData sheetsCell = new CellData();
+		
+		String text = cell.justText();
+		
+		//Value
+		if (!text.isEmpty())
+		{
+			if (columnTypes != null)
+			{
+				sheetsCell.setUserEnteredValue(columnTypes.toValue(columnIndex, text));
+			}
+			else
+			{
+				ExtendedValue ev = new ExtendedValue();
+				ev.setStringValue(text);
+				sheetsCell.setUserEnteredValue(ev);
+			}
+		}
+		
+		
+		//Runs
+		List<RichshetsCellContentsRun> runs = cell.getContents();
+		int textFormatKey = -1;  //-1 for none (plain text, or text in more than one format)
+		{
+			List<TextFormatRun> gsruns = null;
+			int previousKey = -1;
+			int i = 0;
+			
+			for (RichshetsCellContentsRun run : runs)
+			{
+				String t = run.getContents();
+				
+				if (t.isEmpty())
+					continue;  //it doesn't format anything!
+				
+				if (run.getScriptLevel() != RichshetsCellRunScriptLevel.Normal)
+					throw new RichsheetsUnencodableFormatException("Google Sheets cannot encode superscript or subscript rich text.");
+				
+				int key = textFormatKey(run);
+				
+				if (i == 0)
+				{
+					textFormatKey = key;
+				}
+				else if (key != previousKey)
+				{
+					if (gsruns == null)
+					{
+						//Turns out it's not all one format, so it needs runs after all
+						gsruns = new ArrayList<>();
+						gsruns.add(newRun(0, textFormatKey));
+						textFormatKey = -1;
+					}
+					
+					gsruns.add(newRun(i, key));
+				}
+				
+				previousKey = key;
+				i += t.length();
+			}
+			
+			if (gsruns != null)
+				sheetsCell.setTextFormatRuns(gsruns);
+		}
+		
+		
+		//Format
+		{
+			long key = cellFormatKey(cell, textFormatKey);
+			
+			if (key != 0)
+				sheetsCell.setUserEnteredFormat(cellFormats.computeIfAbsent(key, k -> newCellFormat(cell, k)));
+		}
+		
+		return sheetsCell;
+	}
+	
+	
+	
+	
+	protected TextFormatRun newRun(int startIndex, int textFormatKey)
+	{
+		TextFormatRun r = new TextFormatRun();
+		
+		if (startIndex != 0)
+			r.setStartIndex(startIndex);  //zero is the default!
+		
+		r.setFormat(textFormatKey == 0 ? new TextFormat() : textFormat(textFormatKey));  //an empty format still has to be there to end the previous run
+		return r;
+	}
+	
+	
+	/**
+	 * Bits 0-3 are bold/italic/underline/strikethrough, and if the text isn't the default color (black), bit 4 is set and bits 5-28 are the color.
+	 * So zero means the default format.
+	 */
+	protected static int textFormatKey(RichshetsCellContentsRun run)
+	{
+		int key = (run.isBold() ? 1 : 0) | (run.isItalic() ? 2 : 0) | (run.isUnderline() ? 4 : 0) | (run.isStrikethrough() ? 8 : 0);
+		
+		RichshetsColor c = run.getTextColor();
+		int rgb = c == null ? 0 : rgb(c);
+		
+		if (rgb != 0)
+			key |= 16 | (rgb << 5);
+		
+		return key;
+	}
+	
+	protected TextFormat textFormat(int key)
+	{
+		return textFormats.computeIfAbsent(key, k ->
+		{
+			TextFormat tf = new TextFormat();
+			
+			if ((k & 1) != 0)  tf.setBold(true);
+			if ((k & 2) != 0)  tf.setItalic(true);
+			if ((k & 4) != 0)  tf.setUnderline(true);
+			if ((k & 8) != 0)  tf.setStrikethrough(true);
+			if ((k & 16) != 0)  tf.setForegroundColor(color(k >>> 5));
+			
+			return tf;
+		});
+	}
+	
+	
+	/**
+	 * Bits 0-1 are the justification (0 for the default), 2-3 the wrapping (0 for the default, overflow), bit 4 whether there's a background color other than the default (white) and 5-28 what it is, and 29-61 the text format key plus one (0 for none).
+	 * So zero means no format at all.
+	 */
+	protected static long cellFormatKey(RichshetsCellContents cell, int textFormatKey)
+	{
+		long key;
+		
+		RichshetsJustification j = cell.getJustification();
+		if (j == null)
+			key = 0;
+		else if (j == RichshetsJustification.Left)
+			key = 1;
+		else if (j == RichshetsJustification.Center)
+			key = 2;
+		else if (j == RichshetsJustification.Right)
+			key = 3;
+		else
+			throw new UnexpectedHardcodedEnumValueException(j);
+		
+		RichshetsTextWrappingStrategy w = cell.getWrappingStrategy();
+		if (w == null || w == RichshetsTextWrappingStrategy.Overflow)
+			key |= 0 << 2;
+		else if (w == RichshetsTextWrappingStrategy.Wrap)
+			key |= 1 << 2;
+		else if (w == RichshetsTextWrappingStrategy.Clip)
+			key |= 2 << 2;
+		else
+			throw new UnexpectedHardcodedEnumValueException(w);
+		
+		RichshetsColor bg = cell.getBackgroundColor();
+		if (bg != null && rgb(bg) != White)
+			key |= 16 | (rgb(bg) << 5);
+		
+		if (textFormatKey > 0)  //not plain and not runs
+			key |= (long)(textFormatKey + 1) << 29;
+		
+		return key;
+	}
+	
+	protected CellFormat newCellFormat(RichshetsCellContents cell, long key)
+	{
+		CellFormat f = new CellFormat();
+		
+		int j = (int)(key & 3);
+		if (j == 1)
+			f.setHorizontalAlignment("LEFT");
+		else if (j == 2)
+			f.setHorizontalAlignment("CENTER");
+		else if (j == 3)
+			f.setHorizontalAlignment("RIGHT");
+		
+		int w = (int)((key >>> 2) & 3);
+		if (w == 1)
+			f.setWrapStrategy("WRAP");
+		else if (w == 2)
+			f.setWrapStrategy("CLIP");
+		
+		if ((key & 16) != 0)
+			f.setBackgroundColor(color((int)((key >>> 5) & 0xFFFFFF)));
+		
+		int tf = (int)(key >>> 29) - 1;
+		if (tf > 0)
+			f.setTextFormat(textFormat(tf));
+		
+		return f;
+	}
+	
+	
+	protected Color color(int rgb)
+	{
+		return colors.computeIfAbsent(rgb, k ->
+		{
+			Color c = new Color();
+			
+			int r = (k >>> 16) & 0xFF;
+			int g = (k >>> 8) & 0xFF;
+			int b = k & 0xFF;
+			
+			//Zeros are the default, so they're left out
+			if (r != 0)  c.setRed(RichsheetsConnectionForGoogleSheets.ci2f(r));
+			if (g != 0)  c.setGreen(RichsheetsConnectionForGoogleSheets.ci2f(g));
+			if (b != 0)  c.setBlue(RichsheetsConnectionForGoogleSheets.ci2f(b));
+			
+			return c;
+		});
+	}
+	
+	protected static int rgb(RichshetsColor c)
+	{
+		return (c.getR() << 16) | (c.getG() << 8) | c.getB();
+	}
+	
+	
+	
+	
+	/**
+	 * @return how many cells this has encoded (including blank ones on the ends of rows that were left out)
+	 */
+	public long getNumberOfCellsEncoded()
+	{
+		return cellsEncoded;
+	}
+	
+	
+	/**
+	 * Exactly how many bytes of JSON something will be sent as (by actually serializing it, so this is for measuring, not for every request!)
+	 */
+	public static long measureJsonBytes(JsonFactory jsonFactory, Object o) throws IOException
+	{
+		return jsonFactory.toByteArray(o).length;
+	}
+}
@@ -0,0 +1,715 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
+import com.google.api.services.sheets.v4.model.CellData;
+import com.google.api.services.sheets.v4.model.CellFormat;
+import com.google.api.services.sheets.v4.model.Color;
+import com.google.api.services.sheets.v4.model.ExtendedValue;
+import com.google.api.services.sheets.v4.model.GridCoordinate;
+import com.google.api.services.sheets.v4.model.GridRange;
+import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.TextFormat;
+import com.google.api.services.sheets.v4.model.TextFormatRun;
+import com.google.api.services.sheets.v4.model.UpdateCellsRequest;
+
+/**
+ * Sends a batchUpdate's worth of {@link Request}s, splitting the cell data up into several batchUpdates if it's too big to send in one (Google has request size limits, and huge ones tend to time out!)
+ *
+ * The requests are sent in phases, each finishing before the next starts, so the ordering that matters is kept:
+ * 1. Everything before the first {@link UpdateCellsRequest} (expanding the sheet with Append/InsertDimension, frozen panes), in one batchUpdate
+ * 2. The {@link UpdateCellsRequest}s, cut into chunks of rows by their estimated serialized size, sent with up to {@link #getMaxInFlight()} batchUpdates at once (they're all disjoint ranges so their order doesn't matter)
+ * 3. Everything after them (row heights, column widths, autoresizing), in one batchUpdate
+ * And when several subsheets' requests are written together (see {@link RichsheetsConnectionForGoogleSheets.MultiSubsheetConnection}), the pattern just repeats: every run of UpdateCells is chunked like that, and everything between two runs (one subsheet's widths, the next one's expanding) is one batchUpdate between them.
+ *
+ * The batch size adapts: it grows while batches come back quickly and shrinks when they're slow or fail.  A batch that failed because it was too big, timed out, or hit a 5xx is retried in smaller pieces, so one failure doesn't throw away the whole write (but not on 429s, which the caller has already backed off from).
+ * (But note this means if it does finally fail, the chunks before it have already been written!  A single small batchUpdate is still all-or-nothing like before.)
+ *
+ * When a chunk does finally fail, no more chunks are started, the other chunks already in flight are waited for (not abandoned, since a batchUpdate that's been sent can't be called back), and then {@link #write(Sheets, String, List)} throws.  (The same goes for being interrupted: it still waits for those, then throws with the thread's interrupt flag set again.)
+ * So once it's thrown, nothing more is being written, but the subsheet is left partly updated: whichever chunks succeeded are there, the rest of the cells aren't, and the requests after the cells (row heights, column widths, autoresizing) weren't sent.
+ */
+public class GoogleSheetsChunkedWriter
+	implements Closeable
+{
+	protected long minBatchBytes = 64 * 1024;
+	protected long maxBatchBytes = 8 * 1024 * 1024;
+	protected long targetLatencyMillis = 10_000;
+	protected int maxInFlight = 4;
+	protected int maxAttemptsPerChunk = 3;
+	
+	protected volatile long batchBytes = 2 * 1024 * 1024;  //the adaptive part!
+	
+	protected final GoogleSheetsApiCaller caller;
+	protected ExecutorService executor;  //made lazily, since most writes are small enough to go in one batch
+	
+	protected final AtomicLong cellsWritten = new AtomicLong();
+	protected final AtomicLong cellBytesWritten = new AtomicLong();
+	
+	
+	
+	public GoogleSheetsChunkedWriter(GoogleSheetsApiCaller caller)
+	{
+		this.caller = caller;
+	}
+	
+	
+	
+	public long getMinBatchBytes()
+	{
+		return minBatchBytes;
+	}
+	
+	public void setMinBatchBytes(long minBatchBytes)
+	{
+		this.minBatchBytes = minBatchBytes;
+	}
+	
+	public long getMaxBatchBytes()
+	{
+		return maxBatchBytes;
+	}
+	
+	public void setMaxBatchBytes(long maxBatchBytes)
+	{
+		this.maxBatchBytes = maxBatchBytes;
+	}
+	
+	/**
+	 * Batches faster than half this make the batch size grow, slower than this make it shrink.
+	 */
+	public long getTargetLatencyMillis()
+	{
+		return targetLatencyMillis;
+	}
+	
+	public void setTargetLatencyMillis(long targetLatencyMillis)
+	{
+		this.targetLatencyMillis = targetLatencyMillis;
+	}
+	
+	/**
+	 * Only takes effect before the first chunked write.
+	 */
+	public int getMaxInFlight()
+	{
+		return maxInFlight;
+	}
+	
+	public void setMaxInFlight(int maxInFlight)
+	{
+		this.maxInFlight = maxInFlight;
+	}
+	
+	public int getMaxAttemptsPerChunk()
+	{
+		return maxAttemptsPerChunk;
+	}
+	
+	public void setMaxAttemptsPerChunk(int maxAttemptsPerChunk)
+	{
+		this.maxAttemptsPerChunk = maxAttemptsPerChunk;
+	}
+	
+	/**
+	 * @return the current (adapted) target size of one batchUpdate in estimated JSON bytes
+	 */
+	public long getBatchBytes()
+	{
+		return batchBytes;
+	}
+	
+	public void setBatchBytes(long batchBytes)
+	{
+		this.batchBytes = clamp(batchBytes);
+	}
+	
+	
+	
+	
+	/**
+	 * Does nothing if there are no requests :3
+	 * 
+	 * @return how many batchUpdates it sent (so callers can tell how far Drive's version of the file should have moved because of us)
+	 */
+	public int write(Sheets service, String spreadsheetId, List<Request> reqs) throws IOException
+	{
+		if (reqs.isEmpty())
+			return 0;
+		
+		
+		//Runs of UpdateCells, and runs of everything else, alternating in the order they came in
+		List<List<Request>> runs = new ArrayList<>();
+		long cellBytes = 0;
+		{
+			List<Request> run = null;
+			
+			for (Request r : reqs)
+			{
+				boolean isCells = r.getUpdateCells() != null;
+				
+				if (run == null || (run.get(0).getUpdateCells() != null) != isCells)
+				{
+					run = new ArrayList<>();
+					runs.add(run);
+				}
+				
+				run.add(r);
+				
+				if (isCells)
+					cellBytes += estimateBytes(r.getUpdateCells());
+			}
+		}
+		
+		
+		if (cellBytes <= batchBytes)
+		{
+			//Small enough to do in one go like always!
+			send(service, spreadsheetId, reqs);
+			return 1;
+		}
+		else
+		{
+			int sent = 0;
+			
+			for (List<Request> run : runs)
+			{
+				if (run.get(0).getUpdateCells() != null)
+				{
+					List<UpdateCellsRequest> cells = new ArrayList<>(run.size());
+					for (Request r : run)
+						cells.add(r.getUpdateCells());
+					
+					sent += writeCellsConcurrently(service, spreadsheetId, cells);
+				}
+				else
+				{
+					send(service, spreadsheetId, run);
+					sent++;
+				}
+			}
+			
+			return sent;
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * @return how many batchUpdates it sent (counting the smaller pieces of any that were retried)
+	 */
+	protected int writeCellsConcurrently(Sheets service, String spreadsheetId, List<UpdateCellsRequest> cells) throws IOException
+	{
+		List<List<UpdateCellsRequest>> batches = pack(cells, batchBytes);
+		
+		CompletionService<Integer> completion = new ExecutorCompletionService<>(getExecutor());
+		AtomicBoolean failed = new AtomicBoolean();  //so the in-flight ones don't start any more retries either
+		
+		int submitted = 0;
+		int completed = 0;
+		int n = batches.size();
+		int sent = 0;
+		Throwable failure = null;
+		
+		try
+		{
+			while (completed < submitted || (failure == null && completed < n))
+			{
+				while (failure == null && submitted < n && submitted - completed < maxInFlight)
+				{
+					List<UpdateCellsRequest> batch = batches.get(submitted);
+					completion.submit(() -> sendWithRetries(service, spreadsheetId, batch, 1, failed));
+					submitted++;
+				}
+				
+				Future<Integer> done = completion.take();
+				completed++;
+				
+				try
+				{
+					sent += done.get();
+				}
+				catch (ExecutionException exc)
+				{
+					failed.set(true);
+					
+					//The first one's what we throw; the rest (still waited for!) just tag along
+					if (failure == null)
+						failure = exc.getCause();
+					else
+						failure.addSuppressed(exc.getCause());
+				}
+			}
+		}
+		catch (InterruptedException exc)
+		{
+			failed.set(true);
+			
+			IOException thrown = new IOException("Interrupted while writing chunks to Google Sheets!  (The ones that were already being sent were let finish first)", exc);
+			if (failure != null)
+				thrown.addSuppressed(failure);
+			
+			//Still wait for the ones in flight (ignoring any more interrupts), so nothing's being written once we've thrown; then pass the interrupt on
+			while (completed < submitted)
+			{
+				Future<Integer> done;
+				try
+				{
+					done = completion.take();
+				}
+				catch (InterruptedException again)
+				{
+					continue;
+				}
+				
+				completed++;
+				
+				try
+				{
+					done.get();  //it's done, so this doesn't block
+				}
+				catch (ExecutionException e)
+				{
+					thrown.addSuppressed(e.getCause());
+				}
+				catch (InterruptedException again)
+				{
+				}
+			}
+			
+			Thread.currentThread().interrupt();
+			throw thrown;
+		}
+		
+		if (failure instanceof IOException)
+			throw (IOException)failure;
+		else if (failure instanceof RuntimeException)
+			throw (RuntimeException)failure;
+		else if (failure != null)
+			throw new IOException(failure);
+		
+		return sent;
+	}
+	
+	
+	/**
+	 * @param failed set when another chunk has failed, so we don't send anything more (we throw instead)
+	 * @return how many batchUpdates it sent (more than one if it had to be split up)
+	 */
+	protected int sendWithRetries(Sheets service, String spreadsheetId, List<UpdateCellsRequest> batch, int attempt, AtomicBoolean failed) throws IOException
+	{
+		if (failed.get())
+			throw new IOException("Not written, since another chunk failed");
+		
+		List<Request> reqs = new ArrayList<>(batch.size());
+		for (UpdateCellsRequest u : batch)
+			reqs.add(new Request().setUpdateCells(u));
+		
+		long start = System.nanoTime();
+		
+		try
+		{
+			send(service, spreadsheetId, reqs);
+		}
+		catch (IOException exc)
+		{
+			if (!isWorthSplitting(exc))
+				throw exc;  //it's not going to work any better in smaller pieces ^^'
+			
+			//Shrink everything from now on, and try this one again in smaller pieces
+			long smaller = clamp(batchBytes / 2);
+			batchBytes = smaller;
+			
+			if (attempt >= maxAttemptsPerChunk)
+				throw exc;
+			
+			int sent = 0;
+			for (List<UpdateCellsRequest> piece : pack(batch, smaller))
+				sent += sendWithRetries(service, spreadsheetId, piece, attempt+1, failed);
+			
+			return sent;
+		}
+		
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		
+		if (millis > targetLatencyMillis)
+			batchBytes = clamp(batchBytes / 2);
+		else if (millis < targetLatencyMillis / 2)
+			batchBytes = clamp(batchBytes + batchBytes / 4);
+		
+		return 1;
+	}
+	
+	
+	/**
+	 * @return true for the failures smaller batches might fix: "too big" (413), timeouts, and 5xx's
+	 * Not 429's!  {@link GoogleSheetsApiCaller} has already backed off and retried those, so splitting up the batch then would just be more requests when we're already over the quota ^^'
+	 */
+	protected static boolean isWorthSplitting(IOException exc)
+	{
+		if (exc instanceof HttpResponseException)
+		{
+			int status = ((HttpResponseException)exc).getStatusCode();
+			return status == 413 || status >= 500;
+		}
+		else
+		{
+			return exc instanceof SocketTimeoutException;
+		}
+	}
+	
+	
+	protected void send(Sheets service, String spreadsheetId, List<Request> reqs) throws IOException
+	{
+		BatchUpdateSpreadsheetRequest mainreq = new BatchUpdateSpreadsheetRequest();
+		mainreq.setIncludeSpreadsheetInResponse(false);
+		mainreq.setResponseIncludeGridData(false);
+		mainreq.setRequests(reqs);
+		
+		caller.execute(service.spreadsheets().batchUpdate(spreadsheetId, mainreq), true);
+		
+		
+		for (Request r : reqs)
+		{
+			UpdateCellsRequest u = r.getUpdateCells();
+			
+			if (u != null)
+			{
+				cellsWritten.addAndGet(countCells(u));
+				cellBytesWritten.addAndGet(estimateBytes(u));
+			}
+		}
+	}
+	
+	
+	/**
+	 * @return how many cells it writes, including the ones it clears by leaving them out of a range
+	 */
+	public static long countCells(UpdateCellsRequest u)
+	{
+		GridRange range = u.getRange();
+		
+		if (range != null && range.getStartRowIndex() != null && range.getEndRowIndex() != null && range.getStartColumnIndex() != null && range.getEndColumnIndex() != null)
+		{
+			return (long)(range.getEndRowIndex() - range.getStartRowIndex()) * (range.getEndColumnIndex() - range.getStartColumnIndex());
+		}
+		else
+		{
+			long total = 0;
+			
+			if (u.getRows() != null)
+				for (RowData row : u.getRows())
+					if (row.getValues() != null)
+						total += row.getValues().size();
+			
+			return total;
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * @return how many cells have been successfully written (see {@link #countCells(UpdateCellsRequest)})
+	 */
+	public long getNumberOfCellsWritten()
+	{
+		return cellsWritten.get();
+	}
+	
+	/**
+	 * @return the total {@link #estimateBytes(UpdateCellsRequest) estimated} JSON bytes of the cell data that's been successfully written
+	 */
+	public long getEstimatedCellBytesWritten()
+	{
+		return cellBytesWritten.get();
+	}
+	
+	/**
+	 * @return NaN if nothing's been written yet
+	 */
+	public double getEstimatedBytesPerWrittenCell()
+	{
+		long cells = cellsWritten.get();
+		return cells == 0 ? Double.NaN : (double)cellBytesWritten.get() / cells;
+	}
+	
+	
+	
+	
+	/**
+	 * Cuts the requests up into row chunks and packs them into batches of about maxBytes each (a single row bigger than that still goes, alone).
+	 */
+	protected static List<List<UpdateCellsRequest>> pack(List<UpdateCellsRequest> cells, long maxBytes)
+	{
+		List<List<UpdateCellsRequest>> batches = new ArrayList<>();
+		List<UpdateCellsRequest> current = new ArrayList<>();
+		long currentBytes = 0;
+		
+		for (UpdateCellsRequest u : cells)
+		{
+			List<RowData> rows = u.getRows();
+			int n = rows == null ? 0 : rows.size();
+			
+			int chunkStart = 0;
+			long chunkBytes = 0;
+			
+			for (int i = 0; i < n; i++)
+			{
+				long b = estimateBytes(rows.get(i));
+				
+				if (currentBytes + chunkBytes + b > maxBytes && (chunkBytes > 0 || currentBytes > 0))
+				{
+					if (chunkBytes > 0)
+						current.add(slice(u, chunkStart, i));
+					
+					batches.add(current);
+					current = new ArrayList<>();
+					currentBytes = 0;
+					chunkStart = i;
+					chunkBytes = 0;
+				}
+				
+				chunkBytes += b;
+			}
+			
+			if (n > chunkStart || n == 0)
+			{
+				current.add(chunkStart == 0 ? u : slice(u, chunkStart, n));
+				currentBytes += chunkBytes;
+			}
+		}
+		
+		if (!current.isEmpty())
+			batches.add(current);
+		
+		return batches;
+	}
+	
+	
+	/**
+	 * @return an {@link UpdateCellsRequest} for just rows [start, end) of the given one
+	 */
+	protected static UpdateCellsRequest slice(UpdateCellsRequest u, int start, int end)
+	{
+		UpdateCellsRequest s = new UpdateCellsRequest();
+		s.setFields(u.getFields());
+		s.setRows(u.getRows().subList(start, end));
+		
+		if (u.getStart() != null)
+		{
+			GridCoordinate o = u.getStart();
+			GridCoordinate c = new GridCoordinate();
+			c.setSheetId(o.getSheetId());
+			c.setColumnIndex(o.getColumnIndex());
+			c.setRowIndex((o.getRowIndex() == null ? 0 : o.getRowIndex()) + start);
+			s.setStart(c);
+		}
+		else
+		{
+			GridRange o = u.getRange();
+			GridRange r = new GridRange();
+			r.setSheetId(o.getSheetId());
+			r.setStartColumnIndex(o.getStartColumnIndex());
+			r.setEndColumnIndex(o.getEndColumnIndex());
+			r.setStartRowIndex((o.getStartRowIndex() == null ? 0 : o.getStartRowIndex()) + start);
+			r.setEndRowIndex((o.getStartRowIndex() == null ? 0 : o.getStartRowIndex()) + end);
+			s.setRange(r);
+		}
+		
+		return s;
+	}
+	
+	
+	
+	
+	/**
+	 * A quick guess at how big this will be as JSON, without actually serializing it.
+	 */
+	public static long estimateBytes(UpdateCellsRequest u)
+	{
+		long total = 100;
+		
+		if (u.getRows() != null)
+			for (RowData r : u.getRows())
+				total += estimateBytes(r);
+		
+		return total;
+	}
+	
+	public static long estimateBytes(RowData row)
+	{
+		long total = 14;  //{"values":[]},
+		
+		List<CellData> values = row.getValues();
+		
+		if (values != null)
+			for (CellData c : values)
+				total += estimateBytes(c);
+		
+		return total;
+	}
+	
+	public static long estimateBytes(CellData c)
+	{
+		long total = 4;
+		
+		total += estimateBytes(c.getUserEnteredValue());
+		total += estimateBytes(c.getEffectiveValue());
+		
+		if (c.getFormattedValue() != null)
+			total += 20 + c.getFormattedValue().length();
+		
+		if (c.getUserEnteredFormat() != null)
+			total += estimateBytes(c.getUserEnteredFormat());
+		
+		if (c.getEffectiveFormat() != null)
+			total += estimateBytes(c.getEffectiveFormat());
+		
+		List<TextFormatRun> runs = c.getTextFormatRuns();
+		if (runs != null)
+		{
+			total += 20;
+			
+			for (TextFormatRun r : runs)
+			{
+				total += 12;
+				
+				if (r.getStartIndex() != null)
+					total += 16;
+				
+				if (r.getFormat() != null)
+					total += 10 + estimateBytes(r.getFormat());
+			}
+		}
+		
+		return total;
+	}
+	
+	protected static long estimateBytes(ExtendedValue v)
+	{
+		if (v == null)
+			return 0;
+		else if (v.getStringValue() != null)
+			return 40 + (v.getStringValue().length() * 11L) / 10;  //a bit for escaping
+		else
+			return 40;
+	}
+	
+	protected static long estimateBytes(CellFormat f)
+	{
+		long total = 24;
+		
+		if (f.getBackgroundColor() != null)
+			total += 20 + estimateBytes(f.getBackgroundColor());
+		
+		if (f.getHorizontalAlignment() != null)
+			total += 32;
+		
+		if (f.getWrapStrategy() != null)
+			total += 28;
+		
+		if (f.getTextFormat() != null)
+			total += 14 + estimateBytes(f.getTextFormat());
+		
+		if (f.getNumberFormat() != null)
+			total += 50;
+		
+		return total;
+	}
+	
+	protected static long estimateBytes(TextFormat f)
+	{
+		long total = 2;
+		
+		if (f.getBold() != null)
+			total += 12;
+		
+		if (f.getItalic() != null)
+			total += 14;
+		
+		if (f.getUnderline() != null)
+			total += 17;
+		
+		if (f.getStrikethrough() != null)
+			total += 21;
+		
+		if (f.getFontFamily() != null)
+			total += 16 + f.getFontFamily().length();
+		
+		if (f.getFontSize() != null)
+			total += 14;
+		
+		if (f.getForegroundColor() != null)
+			total += 20 + estimateBytes(f.getForegroundColor());
+		
+		return total;
+	}
+	
+	protected static long estimateBytes(Color c)
+	{
+		long total = 2;
+		
+		if (c.getRed() != null)
+			total += 18;
+		
+		if (c.getGreen() != null)
+			total += 20;
+		
+		if (c.getBlue() != null)
+			total += 19;
+		
+		if (c.getAlpha() != null)
+			total += 19;
+		
+		return total;
+	}
+	
+	
+	
+	
+	protected long clamp(long bytes)
+	{
+		return Math.max(minBatchBytes, Math.min(maxBatchBytes, bytes));
+	}
+	
+	protected synchronized ExecutorService getExecutor()
+	{
+		if (executor == null)
+		{
+			executor = Executors.newFixedThreadPool(maxInFlight, r ->
+			{
+				Thread t = new Thread(r, "Google Sheets chunked writer");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		
+		return executor;
+	}
+	
+	@Override
+	public synchronized void close()
+	{
+		if (executor != null)
+		{
+			executor.shutdown();
+			executor = null;
+		}
+	}
+}
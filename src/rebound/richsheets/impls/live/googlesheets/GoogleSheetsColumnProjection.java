@@ -0,0 +1,163 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * Which columns of a subsheet a {@link RichsheetsConnectionForGoogleSheets.ProjectedSubsheetConnection} reads and writes: either by index, or by the text in the header (frozen) rows.
+ * Headers are looked up again every perform, so they're still found after someone inserts or moves columns :3
+ *
+ * The table the operation gets has just these columns, in the order they're given here (which doesn't have to be the order they're in on the subsheet).
+ */
+public class GoogleSheetsColumnProjection
+{
+	protected final @Nullable int[] columnIndices;
+	protected final @Nullable String[] headers;
+	
+	protected GoogleSheetsColumnProjection(@Nullable int[] columnIndices, @Nullable String[] headers)
+	{
+		this.columnIndices = columnIndices;
+		this.headers = headers;
+	}
+	
+	
+	
+	/**
+	 * @param columnIndices zero-based (so A is 0), no duplicates
+	 */
+	public static GoogleSheetsColumnProjection ofColumns(int... columnIndices)
+	{
+		if (columnIndices.length == 0)
+			throw new IllegalArgumentException("A projection needs at least one column");
+		
+		Set<Integer> seen = new HashSet<>();
+		for (int c : columnIndices)
+		{
+			if (c < 0)
+				throw new IllegalArgumentException("Column indexes can't be negative: "+c);
+			if (!seen.add(c))
+				throw new IllegalArgumentException("Column "+c+" is in there more than once!");
+		}
+		
+		return new GoogleSheetsColumnProjection(columnIndices.clone(), null);
+	}
+	
+	/**
+	 * @param headers the exact text of a cell in one of the frozen rows of each column (if more than one column has it, the leftmost one's used), no duplicates
+	 */
+	public static GoogleSheetsColumnProjection ofHeaders(String... headers)
+	{
+		if (headers.length == 0)
+			throw new IllegalArgumentException("A projection needs at least one column");
+		
+		Set<String> seen = new HashSet<>();
+		for (String h : headers)
+		{
+			if (!seen.add(h))
+				throw new IllegalArgumentException("Header "+h+" is in there more than once!");
+		}
+		
+		return new GoogleSheetsColumnProjection(null, headers.clone());
+	}
+	
+	
+	
+	public boolean isByHeader()
+	{
+		return headers != null;
+	}
+	
+	public @Nullable int[] getColumnIndices()
+	{
+		return columnIndices == null ? null : columnIndices.clone();
+	}
+	
+	public @Nullable List<String> getHeaders()
+	{
+		return headers == null ? null : Arrays.asList(headers.clone());
+	}
+	
+	public int getNumberOfColumns()
+	{
+		return headers != null ? headers.length : columnIndices.length;
+	}
+	
+	
+	
+	/**
+	 * @param headerRows the frozen rows' values (like {@link GoogleSheetsReadPlanner#readSubsheetValues(com.google.api.services.sheets.v4.Sheets, String, int, String)} gives), only used if {@link #isByHeader()}
+	 * @return the subsheet's column index for each of the table's columns
+	 * @throws IllegalArgumentException if a header isn't in any of the header rows, or two of them are in the same column
+	 */
+	public int[] resolve(@Nullable List<List<Object>> headerRows)
+	{
+		if (headers == null)
+			return columnIndices.clone();
+		
+		int width = 0;
+		if (headerRows != null)
+			for (List<Object> row : headerRows)
+				width = Math.max(width, row.size());
+		
+		int[] resolved = new int[headers.length];
+		Set<Integer> seen = new HashSet<>();
+		
+		for (int i = 0; i < headers.length; i++)
+		{
+			resolved[i] = -1;
+			
+			for (int c = 0; c < width && resolved[i] == -1; c++)
+			{
+				for (List<Object> row : headerRows)
+				{
+					if (c < row.size() && row.get(c) != null && headers[i].equals(row.get(c).toString()))
+					{
+						resolved[i] = c;
+						break;
+					}
+				}
+			}
+			
+			if (resolved[i] == -1)
+				throw new IllegalArgumentException("There's no column with the header "+headers[i]+(headerRows == null || headerRows.isEmpty() ? " (there are no frozen rows to look in!)" : ""));
+			
+			if (!seen.add(resolved[i]))
+				throw new IllegalArgumentException("Header "+headers[i]+" is on column "+GoogleSheetsReadPlanner.a1Column(resolved[i])+", which is already in the projection");
+		}
+		
+		return resolved;
+	}
+	
+	
+	/**
+	 * @param columns the subsheet's column index for each of the table's columns (like {@link #resolve(List)} gives)
+	 * @return the runs of the table's columns that are next to each other on the subsheet too (so each can be one range), as {start, end} indexes into the table's columns (end exclusive), in order
+	 */
+	public static List<int[]> runs(int[] columns)
+	{
+		List<int[]> runs = new ArrayList<>();
+		
+		int start = 0;
+		for (int i = 1; i <= columns.length; i++)
+		{
+			if (i == columns.length || columns[i] != columns[i-1] + 1)
+			{
+				runs.add(new int[]{start, i});
+				start = i;
+			}
+		}
+		
+		return runs;
+	}
+	
+	
+	@Override
+	public String toString()
+	{
+		return headers != null ? "headers "+Arrays.toString(headers) : "columns "+Arrays.toString(columnIndices);
+	}
+}
@@ -0,0 +1,392 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Pattern;
+import rebound.exceptions.UnexpectedHardcodedEnumValueException;
+import rebound.richsheets.api.model.RichsheetsRow;
+import rebound.richsheets.api.model.RichsheetsTable;
+import rebound.richshets.model.cell.RichshetsCellContents;
+import com.google.api.services.sheets.v4.model.CellData;
+import com.google.api.services.sheets.v4.model.CellFormat;
+import com.google.api.services.sheets.v4.model.ExtendedValue;
+import com.google.api.services.sheets.v4.model.GridData;
+import com.google.api.services.sheets.v4.model.NumberFormat;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * Works out what type of value each column holds, so the cells can be written as typed {@link com.google.api.services.sheets.v4.model.ExtendedValue}s (booleans, numbers, dates) instead of all as strings.
+ *
+ * Each column is looked at once (each cell's text is only gotten once), and wide tables are split up by columns over a {@link ForkJoinPool}.
+ * The frozen rows (headers!) and frozen columns are never typed.
+ *
+ * The sheet's existing number formats (of the cells we read) are used as hints:
+ * 	+ A column formatted as plain text stays text no matter what's in it
+ * 	+ Numbers only need the number format for looser forms like "1,234.50" or "12%"; otherwise they have to be written exactly how Google would display the number they'd become (like "12" or "-3.5", not "012" or "1.50" or "1e3") so nothing changes on screen
+ * 	+ Dates (ISO "yyyy-MM-dd" or "yyyy-MM-dd HH:mm:ss") only become dates if the column is already formatted as dates, since otherwise they'd show up as day numbers!
+ *
+ * This works the same for partial reads (maxRowsToRead), since only the rows we read (and any we add) are written anyway.
+ */
+public class GoogleSheetsColumnTypes
+{
+	public static enum ColumnType
+	{
+		Text,
+		Boolean,
+		Number,
+		Date,
+	}
+	
+	
+	/**
+	 * Tables with fewer cells than this are done on the calling thread.
+	 */
+	public static final int DefaultParallelThresholdCells = 64 * 1024;
+	
+	
+	protected static final Pattern CanonicalNumber = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]*[1-9])?");
+	protected static final Pattern LooseNumber = Pattern.compile("-?([0-9]{1,3}(,[0-9]{3})+|[0-9]+)(\\.[0-9]+)?");
+	protected static final int MaxSignificantDigits = 15;  //what a double can hold exactly (and what Google displays)
+	
+	protected static final DateTimeFormatter IsoDateTime = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+	protected static final LocalDateTime SheetsEpoch = LocalDateTime.of(1899, 12, 30, 0, 0);
+	
+	
+	
+	protected final ColumnType[] types;
+	protected final String[] numberFormatHints;
+	
+	protected GoogleSheetsColumnTypes(ColumnType[] types, String[] numberFormatHints)
+	{
+		this.types = types;
+		this.numberFormatHints = numberFormatHints;
+	}
+	
+	public ColumnType getType(int columnIndex)
+	{
+		return types[columnIndex];
+	}
+	
+	public int getNumberOfColumns()
+	{
+		return types.length;
+	}
+	
+	
+	/**
+	 * @param text a (nonempty) cell's text in that column, which has to be of the column's type (as it will be if it was in the table this was inferred from)
+	 */
+	public ExtendedValue toValue(int columnIndex, String text)
+	{
+		ColumnType type = columnIndex < types.length ? types[columnIndex] : ColumnType.Text;
+		
+		ExtendedValue ev = new ExtendedValue();
+		
+		if (type == ColumnType.Text)
+		{
+			ev.setStringValue(text);
+		}
+		else if (type == ColumnType.Boolean)
+		{
+			if (text.equalsIgnoreCase("true"))
+				ev.setBoolValue(true);
+			else if (text.equalsIgnoreCase("false"))
+				ev.setBoolValue(false);
+			else
+				throw new IllegalArgumentException("Not a boolean value!: '"+text+"'");
+		}
+		else if (type == ColumnType.Number)
+		{
+			Double d = parseNumber(text, numberFormatHints[columnIndex]);
+			if (d == null)
+				throw new IllegalArgumentException("Not a number!: '"+text+"'");
+			ev.setNumberValue(d);
+		}
+		else if (type == ColumnType.Date)
+		{
+			Double d = parseDate(text);
+			if (d == null)
+				throw new IllegalArgumentException("Not a date!: '"+text+"'");
+			ev.setNumberValue(d);
+		}
+		else
+		{
+			throw new UnexpectedHardcodedEnumValueException(type);
+		}
+		
+		return ev;
+	}
+	
+	
+	
+	
+	/**
+	 * @param original the subsheet as we read it, for its number formats (or null if we don't have its cells, eg from a snapshot)
+	 * @param pool where to infer wide tables' columns in parallel
+	 */
+	public static GoogleSheetsColumnTypes infer(RichsheetsTable table, @Nullable Sheet original, ForkJoinPool pool, int parallelThresholdCells)
+	{
+		int numberOfColumns = table.getNumberOfColumns();
+		int numberOfRows = table.getNumberOfRows();
+		int frozenColumns = table.getFrozenColumns();
+		int frozenRows = table.getFrozenRows();
+		
+		String[] hints = numberFormatHints(original, numberOfColumns, frozenRows);
+		
+		ColumnType[] types = new ColumnType[numberOfColumns];
+		
+		for (int c = 0; c < Math.min(frozenColumns, numberOfColumns); c++)
+			types[c] = ColumnType.Text;
+		
+		if (frozenColumns < numberOfColumns)
+		{
+			InferColumns task = new InferColumns(table.getRows(), hints, types, frozenColumns, numberOfColumns, frozenRows, numberOfRows, Math.max(1, parallelThresholdCells / Math.max(1, numberOfRows - frozenRows)));
+			
+			if ((long)(numberOfColumns - frozenColumns) * (numberOfRows - frozenRows) >= parallelThresholdCells && numberOfColumns - frozenColumns > 1)
+				pool.invoke(task);
+			else
+				task.compute();
+		}
+		
+		return new GoogleSheetsColumnTypes(types, hints);
+	}
+	
+	
+	protected static class InferColumns
+		extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		protected final List<RichsheetsRow> rows;
+		protected final String[] hints;
+		protected final ColumnType[] types;
+		protected final int startColumn, endColumn;
+		protected final int startRow, endRow;
+		protected final int columnsPerTask;
+		
+		public InferColumns(List<RichsheetsRow> rows, String[] hints, ColumnType[] types, int startColumn, int endColumn, int startRow, int endRow, int columnsPerTask)
+		{
+			this.rows = rows;
+			this.hints = hints;
+			this.types = types;
+			this.startColumn = startColumn;
+			this.endColumn = endColumn;
+			this.startRow = startRow;
+			this.endRow = endRow;
+			this.columnsPerTask = columnsPerTask;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			int n = endColumn - startColumn;
+			
+			if (n > columnsPerTask && getPool() != null)
+			{
+				int mid = startColumn + n / 2;
+				invokeAll(new InferColumns(rows, hints, types, startColumn, mid, startRow, endRow, columnsPerTask), new InferColumns(rows, hints, types, mid, endColumn, startRow, endRow, columnsPerTask));
+			}
+			else
+			{
+				inferRange();
+			}
+		}
+		
+		protected void inferRange()
+		{
+			int n = endColumn - startColumn;
+			
+			//What's still possible for each column, narrowed down as we go
+			boolean[] anyExactBoolean = new boolean[n];
+			boolean[] allBooleanable = new boolean[n];
+			boolean[] allNumbers = new boolean[n];
+			boolean[] allDates = new boolean[n];
+			boolean[] anyNonempty = new boolean[n];
+			
+			for (int i = 0; i < n; i++)
+			{
+				String hint = hints[startColumn + i];
+				allBooleanable[i] = !"TEXT".equals(hint);
+				allNumbers[i] = hint == null || "NUMBER".equals(hint) || "PERCENT".equals(hint);  //not dates/currency/etc., or they'd look different
+				allDates[i] = isDateFormat(hint);
+			}
+			
+			//Row by row (within our columns), since that's how the table is laid out in memory
+			for (int r = startRow; r < endRow; r++)
+			{
+				List<RichshetsCellContents> cells = rows.get(r).getCells();
+				
+				for (int i = 0; i < n; i++)
+				{
+					if (!allBooleanable[i] && !allNumbers[i] && !allDates[i])
+						continue;  //it's text no matter what's in the rest of it
+					
+					String v = cells.get(startColumn + i).justText();
+					
+					if (v.isEmpty())
+						continue;
+					
+					anyNonempty[i] = true;
+					
+					if (allBooleanable[i])
+					{
+						if (v.equals("TRUE") || v.equals("FALSE"))
+							anyExactBoolean[i] = true;
+						else if (!v.equalsIgnoreCase("true") && !v.equalsIgnoreCase("false"))
+							allBooleanable[i] = false;
+					}
+					
+					if (allNumbers[i] && parseNumber(v, hints[startColumn + i]) == null)
+						allNumbers[i] = false;
+					
+					if (allDates[i] && parseDate(v) == null)
+						allDates[i] = false;
+				}
+			}
+			
+			for (int i = 0; i < n; i++)
+			{
+				ColumnType t;
+				
+				if (allBooleanable[i] && anyExactBoolean[i])
+					t = ColumnType.Boolean;
+				else if (allDates[i] && anyNonempty[i])
+					t = ColumnType.Date;
+				else if (allNumbers[i] && anyNonempty[i])
+					t = ColumnType.Number;
+				else
+					t = ColumnType.Text;
+				
+				types[startColumn + i] = t;
+			}
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * @return the {@link NumberFormat#getType() number format type} all of each column's formatted (non-frozen) cells have in common, or null where there isn't one (or for columns past the end of the original)
+	 */
+	protected static String[] numberFormatHints(@Nullable Sheet original, int numberOfColumns, int frozenRows)
+	{
+		String[] hints = new String[numberOfColumns];
+		
+		if (original == null || original.getData() == null || original.getData().size() != 1)
+			return hints;
+		
+		GridData gd = original.getData().get(0);
+		List<RowData> rowData = gd.getRowData();
+		
+		if (rowData == null)
+			return hints;
+		
+		boolean[] conflicting = new boolean[numberOfColumns];
+		
+		for (int r = frozenRows; r < rowData.size(); r++)
+		{
+			List<CellData> values = rowData.get(r).getValues();
+			
+			if (values == null)
+				continue;
+			
+			for (int c = 0; c < Math.min(values.size(), numberOfColumns); c++)
+			{
+				CellFormat f = values.get(c).getEffectiveFormat();
+				NumberFormat nf = f == null ? null : f.getNumberFormat();
+				String type = nf == null ? null : nf.getType();
+				
+				if (type == null || conflicting[c])
+					continue;
+				
+				if (hints[c] == null)
+				{
+					hints[c] = type;
+				}
+				else if (!hints[c].equals(type))
+				{
+					hints[c] = null;
+					conflicting[c] = true;
+				}
+			}
+		}
+		
+		return hints;
+	}
+	
+	
+	protected static boolean isDateFormat(@Nullable String numberFormatType)
+	{
+		return "DATE".equals(numberFormatType) || "DATE_TIME".equals(numberFormatType);
+	}
+	
+	
+	
+	
+	/**
+	 * @param numberFormatHint the column's number format type (see {@link #numberFormatHints(Sheet, int, int)})
+	 * @return null if it's not a number we can write as one without changing how it looks
+	 */
+	public static @Nullable Double parseNumber(String v, @Nullable String numberFormatHint)
+	{
+		if ("PERCENT".equals(numberFormatHint))
+		{
+			//They always look like "12%" (or "12.50%"), so "12" would be 1200%!
+			if (!v.endsWith("%"))
+				return null;
+			
+			String n = v.substring(0, v.length() - 1);
+			return LooseNumber.matcher(n).matches() ? Double.parseDouble(n.replace(",", "")) / 100 : null;
+		}
+		else if (CanonicalNumber.matcher(v).matches())
+		{
+			int digits = 0;
+			for (int i = 0; i < v.length(); i++)
+				if (v.charAt(i) >= '0' && v.charAt(i) <= '9')
+					digits++;
+			
+			if (digits > MaxSignificantDigits || v.equals("-0"))
+				return null;
+			
+			return Double.parseDouble(v);
+		}
+		else if ("NUMBER".equals(numberFormatHint))
+		{
+			//The number format will make it look the same again
+			return LooseNumber.matcher(v).matches() ? Double.parseDouble(v.replace(",", "")) : null;
+		}
+		else
+		{
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * @return the Google Sheets date serial number (days since 1899-12-30, and a fraction for the time), or null if it's not an ISO date or date-time
+	 */
+	public static @Nullable Double parseDate(String v)
+	{
+		try
+		{
+			if (v.length() == 10)
+				return (double)ChronoUnit.DAYS.between(SheetsEpoch.toLocalDate(), LocalDate.parse(v));  //ISO_LOCAL_DATE
+			else if (v.length() == 19)
+				return ChronoUnit.SECONDS.between(SheetsEpoch, LocalDateTime.parse(v, IsoDateTime)) / 86400d;
+			else
+				return null;
+		}
+		catch (DateTimeParseException exc)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,348 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
+import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
+import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
+import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.store.FileDataStoreFactory;
+
+/**
+ * Where {@link RichsheetsConnectionForGoogleSheets} gets its {@link Credential}, made lazily (so constructing a connection doesn't read files, log in, or open a browser; the first request does, or {@link #initializeInBackground()} if you want it started early) and then kept fresh in the background.
+ *
+ * The access token is refreshed {@link #getRefreshAheadMillis()} before it expires, on a background thread, so requests never have to stop and wait for a refresh round trip.
+ * (If a background refresh fails it's retried every {@link #getRetryMillis()}, and if the token does expire anyway, the Credential still refreshes it inline like it always did.)
+ *
+ * One provider can be shared by as many connections and threads as you like; they all get the same Credential (which is thread-safe), and there's only ever one refresh at a time for it.
+ * Closing a connection doesn't close a provider you gave it, only ones it made itself.
+ *
+ * Kinds:
+ * 	+ {@link #forInstalledApp(SimpleGoogleOAuthConfig)}: the usual OAuth login as a user, through a browser the first time, and from the token cache file after that (which doesn't need a browser, so it's fine headless once it's been done once somewhere)
+ * 	+ {@link #forServiceAccount(File)}: a service account's JSON key, completely headless (share the spreadsheets with the service account's email address!)
+ * 	+ {@link #forApplicationDefault()}: whatever Google's Application Default Credentials finds (GOOGLE_APPLICATION_CREDENTIALS, or the metadata server on Google Cloud)
+ * 	+ {@link #forCredential(Credential)}: one you made yourself
+ */
+public class GoogleSheetsCredentialProvider
+	implements Closeable
+{
+	@FunctionalInterface
+	public static interface CredentialFactory
+	{
+		/**
+		 * Called once, the first time the credential's needed.  It can block (eg, for logging in)
+		 */
+		public Credential newCredential() throws IOException, GeneralSecurityException;
+	}
+	
+	
+	protected static final JsonFactory JsonFactory = JacksonFactory.getDefaultInstance();
+	
+	protected static volatile ScheduledExecutorService refreshScheduler;
+	
+	
+	protected final CredentialFactory factory;
+	
+	protected volatile Credential credential = null;
+	protected ScheduledFuture<?> refreshTask = null;  //guarded by this
+	protected boolean closed = false;  //guarded by this
+	
+	protected volatile long refreshAheadMillis = 5 * 60_000;
+	protected volatile long retryMillis = 30_000;
+	
+	protected volatile GoogleSheetsObserver observer = GoogleSheetsObserver.None;
+	
+	protected final AtomicLong refreshes = new AtomicLong();
+	protected final AtomicLong failedRefreshes = new AtomicLong();
+	
+	
+	
+	public GoogleSheetsCredentialProvider(CredentialFactory factory)
+	{
+		this.factory = factory;
+	}
+	
+	
+	
+	
+	/**
+	 * Logs in with the redirect going to port 8888 (like it always has, so client secrets that list it keep working)
+	 */
+	public static GoogleSheetsCredentialProvider forInstalledApp(SimpleGoogleOAuthConfig config)
+	{
+		return forInstalledApp(config, 8888);
+	}
+	
+	/**
+	 * @param port for the local server the browser's redirected back to, only used if there's no usable token in the cache file; -1 for any free port
+	 */
+	public static GoogleSheetsCredentialProvider forInstalledApp(SimpleGoogleOAuthConfig config, int port)
+	{
+		return new GoogleSheetsCredentialProvider(() ->
+		{
+			// Load client secrets.
+			String t = ReboundStaticallyCopiedUtilities.readAllText(config.getSecretsFile());
+			
+			GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JsonFactory, new StringReader(t));
+			
+			// Build flow and trigger user authorization request (which just loads the cached token if there is one).
+			GoogleAuthorizationCodeFlow flow = new GoogleAuthorizationCodeFlow.Builder(GoogleNetHttpTransport.newTrustedTransport(), JsonFactory, clientSecrets, RichsheetsConnectionForGoogleSheets.Scopes).setDataStoreFactory(new FileDataStoreFactory(config.getTokenCacheFile())).setAccessType("offline").build();
+			LocalServerReceiver receiver = new LocalServerReceiver.Builder().setPort(port).build();
+			return new AuthorizationCodeInstalledApp(flow, receiver).authorize("user");
+		});
+	}
+	
+	/**
+	 * @param keyFile the JSON key you download for the service account
+	 */
+	public static GoogleSheetsCredentialProvider forServiceAccount(File keyFile)
+	{
+		return new GoogleSheetsCredentialProvider(() ->
+		{
+			try (InputStream in = new FileInputStream(keyFile))
+			{
+				return GoogleCredential.fromStream(in, GoogleNetHttpTransport.newTrustedTransport(), JsonFactory).createScoped(RichsheetsConnectionForGoogleSheets.Scopes);
+			}
+		});
+	}
+	
+	public static GoogleSheetsCredentialProvider forApplicationDefault()
+	{
+		return new GoogleSheetsCredentialProvider(() ->
+		{
+			GoogleCredential c = GoogleCredential.getApplicationDefault(GoogleNetHttpTransport.newTrustedTransport(), JsonFactory);
+			return c.createScopedRequired() ? c.createScoped(RichsheetsConnectionForGoogleSheets.Scopes) : c;
+		});
+	}
+	
+	/**
+	 * It's still refreshed in the background if it can be (has a refresh token, or is a service account's)
+	 *
+	 * @param credential needs the {@link RichsheetsConnectionForGoogleSheets#Scopes}
+	 */
+	public static GoogleSheetsCredentialProvider forCredential(Credential credential)
+	{
+		return new GoogleSheetsCredentialProvider(() -> credential);
+	}
+	
+	
+	
+	
+	/**
+	 * Makes the credential if it hasn't been yet (which can block, on a login even!), and gets it an access token if it doesn't have a fresh one.
+	 */
+	public Credential getCredential() throws IOException
+	{
+		Credential c = credential;
+		
+		if (c == null)
+		{
+			synchronized (this)
+			{
+				c = credential;
+				
+				if (c == null)
+				{
+					try
+					{
+						c = factory.newCredential();
+					}
+					catch (GeneralSecurityException exc)
+					{
+						throw new IOException(exc);
+					}
+					
+					if (c.getAccessToken() == null || isExpiringSoon(c))
+						c.refreshToken();  //service accounts don't start with one
+					
+					credential = c;
+					scheduleRefresh(c);
+				}
+			}
+		}
+		
+		return c;
+	}
+	
+	/**
+	 * Starts {@link #getCredential()} on another thread, so it's ready (or at least started) by the time the first request needs it.
+	 */
+	public CompletableFuture<Credential> initializeInBackground()
+	{
+		CompletableFuture<Credential> f = new CompletableFuture<>();
+		
+		Thread t = new Thread(() ->
+		{
+			try
+			{
+				f.complete(getCredential());
+			}
+			catch (Throwable exc)
+			{
+				f.completeExceptionally(exc);
+			}
+		}, "richsheets-credential-init");
+		
+		t.setDaemon(true);
+		t.start();
+		
+		return f;
+	}
+	
+	
+	
+	protected boolean isExpiringSoon(Credential c)
+	{
+		Long expiresIn = c.getExpiresInSeconds();
+		return expiresIn != null && expiresIn * 1000 <= refreshAheadMillis;
+	}
+	
+	protected synchronized void scheduleRefresh(Credential c)
+	{
+		Long expiration = c.getExpirationTimeMilliseconds();
+		
+		if (closed || expiration == null)
+			return;  //closed, or it never expires (or we can't tell when)
+		
+		long delay = Math.max(1000, expiration - System.currentTimeMillis() - refreshAheadMillis);
+		refreshTask = getRefreshScheduler().schedule(() -> refreshInBackground(c), delay, TimeUnit.MILLISECONDS);
+	}
+	
+	protected void refreshInBackground(Credential c)
+	{
+		try
+		{
+			//Credential locks around this, so if a request happens to be refreshing it too, one just waits for the other
+			if (c.refreshToken())
+			{
+				refreshes.incrementAndGet();
+				scheduleRefresh(c);
+			}
+			//else it can't be refreshed (no refresh token), so there's nothing more for us to do
+		}
+		catch (IOException | RuntimeException exc)
+		{
+			failedRefreshes.incrementAndGet();
+			
+			GoogleSheetsObserver observer = this.observer;
+			if (observer.isEnabled())
+				observer.warning(null, "Couldn't refresh the access token in the background; trying again in "+retryMillis+"ms", exc);
+			
+			synchronized (this)
+			{
+				if (!closed)
+					refreshTask = getRefreshScheduler().schedule(() -> refreshInBackground(c), retryMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+	
+	/**
+	 * One thread for every provider (refreshes are about once an hour each, so it's plenty)
+	 */
+	protected static ScheduledExecutorService getRefreshScheduler()
+	{
+		ScheduledExecutorService s = refreshScheduler;
+		
+		if (s == null)
+		{
+			synchronized (GoogleSheetsCredentialProvider.class)
+			{
+				s = refreshScheduler;
+				
+				if (s == null)
+				{
+					s = Executors.newSingleThreadScheduledExecutor(r ->
+					{
+						Thread t = new Thread(r, "richsheets-token-refresh");
+						t.setDaemon(true);
+						return t;
+					});
+					
+					refreshScheduler = s;
+				}
+			}
+		}
+		
+		return s;
+	}
+	
+	
+	/**
+	 * Stops refreshing in the background (the credential still works, and still refreshes itself inline when it has to).
+	 */
+	@Override
+	public synchronized void close()
+	{
+		closed = true;
+		
+		if (refreshTask != null)
+			refreshTask.cancel(false);
+	}
+	
+	
+	
+	
+	public long getRefreshAheadMillis()
+	{
+		return refreshAheadMillis;
+	}
+	
+	/**
+	 * Google's access tokens last an hour, and Credential itself refreshes inline when there's less than a minute left, so this should be comfortably between those (the default is five minutes).
+	 * Takes effect at the next refresh.
+	 */
+	public void setRefreshAheadMillis(long refreshAheadMillis)
+	{
+		this.refreshAheadMillis = refreshAheadMillis;
+	}
+	
+	public long getRetryMillis()
+	{
+		return retryMillis;
+	}
+	
+	public void setRetryMillis(long retryMillis)
+	{
+		this.retryMillis = retryMillis;
+	}
+	
+	public GoogleSheetsObserver getObserver()
+	{
+		return observer;
+	}
+	
+	/**
+	 * For background refreshes that fail.  This isn't set by {@link RichsheetsConnectionForGoogleSheets#setObserver(GoogleSheetsObserver)}, since the provider can be shared by several connections.
+	 */
+	public void setObserver(GoogleSheetsObserver observer)
+	{
+		this.observer = observer;
+	}
+	
+	public long getNumberOfBackgroundRefreshes()
+	{
+		return refreshes.get();
+	}
+	
+	public long getNumberOfFailedBackgroundRefreshes()
+	{
+		return failedRefreshes.get();
+	}
+}
@@ -0,0 +1,116 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads the async operations run on.
+ * The network parts just sit there blocked on sockets most of the time, so they want lots of cheap threads: virtual threads if the JVM has them (Java 21+), otherwise an unbounded pool of daemon threads (the real limit on how many requests are in flight is the {@link GoogleSheetsRateLimiter}s and the connection pool anyway).
+ * The decoding/encoding parts are CPU work, so they go on {@link RichsheetsConnectionForGoogleSheets#getForkJoinPool()} instead, and the two never wait for each other's threads.
+ */
+public class GoogleSheetsExecutors
+{
+	protected static final AtomicInteger ThreadCounter = new AtomicInteger();
+	
+	protected static volatile ScheduledExecutorService timeoutScheduler;
+	
+	
+	
+	/**
+	 * @return a virtual-thread-per-task executor if this JVM has them, or else a cached pool of daemon threads
+	 */
+	public static ExecutorService newBlockingIoExecutor()
+	{
+		ExecutorService virtual = newVirtualThreadPerTaskExecutorIfAvailable();
+		
+		if (virtual != null)
+			return virtual;
+		
+		return Executors.newCachedThreadPool(r ->
+		{
+			Thread t = new Thread(r, "richsheets-io-"+ThreadCounter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	
+	/**
+	 * We're compiled for Java 8, so this has to use reflection to find it :3
+	 *
+	 * @return null if this JVM doesn't have virtual threads
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutorIfAvailable()
+	{
+		try
+		{
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException | LinkageError | SecurityException exc)
+		{
+			return null;
+		}
+	}
+	
+	public static boolean isVirtualThreadsAvailable()
+	{
+		try
+		{
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		}
+		catch (NoSuchMethodException | SecurityException exc)
+		{
+			return false;
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * Makes the future fail with a {@link TimeoutException} if it isn't done in time (like Java 9's orTimeout()).
+	 * It doesn't interrupt anything that's already running, but the async operations check between each step, so nothing more gets read/written after it times out.
+	 *
+	 * @return the same future
+	 */
+	public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit)
+	{
+		ScheduledFuture<?> timer = getTimeoutScheduler().schedule(() -> future.completeExceptionally(new TimeoutException("Timed out after "+timeout+" "+unit.toString().toLowerCase())), timeout, unit);
+		future.whenComplete((r, exc) -> timer.cancel(false));
+		return future;
+	}
+	
+	protected static ScheduledExecutorService getTimeoutScheduler()
+	{
+		ScheduledExecutorService s = timeoutScheduler;
+		
+		if (s == null)
+		{
+			synchronized (GoogleSheetsExecutors.class)
+			{
+				s = timeoutScheduler;
+				
+				if (s == null)
+				{
+					s = Executors.newSingleThreadScheduledExecutor(r ->
+					{
+						Thread t = new Thread(r, "richsheets-timeouts");
+						t.setDaemon(true);
+						return t;
+					});
+					
+					timeoutScheduler = s;
+				}
+			}
+		}
+		
+		return s;
+	}
+}
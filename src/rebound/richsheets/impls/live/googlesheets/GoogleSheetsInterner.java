@@ -0,0 +1,282 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import rebound.richshets.model.cell.RichshetsCellContents;
+import rebound.richshets.model.cell.RichshetsCellContents.RichshetsJustification;
+import rebound.richshets.model.cell.RichshetsCellContents.RichshetsTextWrappingStrategy;
+import rebound.richshets.model.cell.RichshetsCellContentsRun;
+import rebound.richshets.model.cell.RichshetsCellContentsRun.RichshetsCellRunScriptLevel;
+import rebound.richshets.model.cell.RichshetsColor;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * Flyweights for decoding!
+ * Real sheets use a handful of distinct colors and formats (and lots of the same short values, like "TRUE" or "", over and over) across millions of cells, so instead of making new colors/runs/cells for every cell, identical ones are all the same object.
+ * (The model objects are immutable, so sharing them is safe.)
+ *
+ * Colors are always interned.  Runs are interned if their text is short (at most {@link #MaxInternedTextLength} chars) since long text is rarely repeated, and whole cells are interned if all of their runs were.
+ * Each kind stops taking new entries once it has {@link #getMaxEntriesPerKind()} of them (then new ones are just not shared), so a sheet full of unique short values can't make this grow forever.
+ *
+ * It's thread-safe, so everything shares {@link #getProcessWide()} by default.
+ * See {@link GoogleSheetsTableHeapReport} to see how much it's saving.
+ */
+public class GoogleSheetsInterner
+{
+	public static final int MaxInternedTextLength = 32;
+	
+	protected static final GoogleSheetsInterner ProcessWide = new GoogleSheetsInterner(1 << 16);
+	
+	public static GoogleSheetsInterner getProcessWide()
+	{
+		return ProcessWide;
+	}
+	
+	
+	
+	
+	protected volatile int maxEntriesPerKind;
+	
+	protected final ConcurrentHashMap<Integer, RichshetsColor> colors = new ConcurrentHashMap<>();
+	protected final ConcurrentHashMap<RunKey, RichshetsCellContentsRun> runs = new ConcurrentHashMap<>();
+	protected final ConcurrentHashMap<CellKey, RichshetsCellContents> cells = new ConcurrentHashMap<>();
+	
+	protected final AtomicLong hits = new AtomicLong();
+	protected final AtomicLong misses = new AtomicLong();
+	
+	
+	
+	public GoogleSheetsInterner(int maxEntriesPerKind)
+	{
+		this.maxEntriesPerKind = maxEntriesPerKind;
+	}
+	
+	
+	
+	
+	/**
+	 * @param r 0-255
+	 * @param g 0-255
+	 * @param b 0-255
+	 */
+	public RichshetsColor color(int r, int g, int b)
+	{
+		int rgb = ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
+		
+		RichshetsColor c = colors.get(rgb);
+		
+		if (c != null)
+		{
+			hits.incrementAndGet();
+			return c;
+		}
+		
+		misses.incrementAndGet();
+		c = new RichshetsColor(r, g, b);
+		return colors.size() < maxEntriesPerKind ? orExisting(colors.putIfAbsent(rgb, c), c) : c;
+	}
+	
+	
+	/**
+	 * @param textColor should be from {@link #color(int, int, int)} (or null), since runs are matched by their color's identity!
+	 */
+	public RichshetsCellContentsRun run(String text, boolean bold, boolean underline, boolean italic, boolean strikethrough, RichshetsCellRunScriptLevel scriptLevel, @Nullable RichshetsColor textColor)
+	{
+		if (text.length() > MaxInternedTextLength)
+			return new RichshetsCellContentsRun(text, bold, underline, italic, strikethrough, scriptLevel, textColor);
+		
+		RunKey key = new RunKey(text, bold, underline, italic, strikethrough, scriptLevel, textColor);
+		
+		RichshetsCellContentsRun run = runs.get(key);
+		
+		if (run != null)
+		{
+			hits.incrementAndGet();
+			return run;
+		}
+		
+		misses.incrementAndGet();
+		run = new RichshetsCellContentsRun(text, bold, underline, italic, strikethrough, scriptLevel, textColor);
+		return runs.size() < maxEntriesPerKind ? orExisting(runs.putIfAbsent(key, run), run) : run;
+	}
+	
+	
+	/**
+	 * @param contents should be from {@link #run(String, boolean, boolean, boolean, boolean, RichshetsCellRunScriptLevel, RichshetsColor)}s, and it'll be kept (and shared!) so don't modify it afterward
+	 * @param backgroundColor should be from {@link #color(int, int, int)} (or null)
+	 */
+	public RichshetsCellContents cell(List<RichshetsCellContentsRun> contents, @Nullable RichshetsJustification justification, @Nullable RichshetsColor backgroundColor, RichshetsTextWrappingStrategy wrappingStrategy)
+	{
+		for (RichshetsCellContentsRun run : contents)
+			if (run.getContents().length() > MaxInternedTextLength)
+				return new RichshetsCellContents(contents, justification, backgroundColor, wrappingStrategy);  //its runs weren't interned, so neither can it be
+		
+		CellKey key = new CellKey(contents, justification, backgroundColor, wrappingStrategy);
+		
+		RichshetsCellContents cell = cells.get(key);
+		
+		if (cell != null)
+		{
+			hits.incrementAndGet();
+			return cell;
+		}
+		
+		misses.incrementAndGet();
+		cell = new RichshetsCellContents(contents, justification, backgroundColor, wrappingStrategy);
+		return cells.size() < maxEntriesPerKind ? orExisting(cells.putIfAbsent(key, cell), cell) : cell;
+	}
+	
+	
+	protected static <E> E orExisting(@Nullable E existing, E ours)
+	{
+		return existing != null ? existing : ours;  //someone else interned the same thing at the same time
+	}
+	
+	
+	
+	
+	/**
+	 * Lets go of everything (tables already decoded keep their objects of course, they just won't be shared with new ones).
+	 */
+	public void clear()
+	{
+		colors.clear();
+		runs.clear();
+		cells.clear();
+	}
+	
+	public int getMaxEntriesPerKind()
+	{
+		return maxEntriesPerKind;
+	}
+	
+	public void setMaxEntriesPerKind(int maxEntriesPerKind)
+	{
+		this.maxEntriesPerKind = maxEntriesPerKind;
+	}
+	
+	public int getNumberOfDistinctColors()
+	{
+		return colors.size();
+	}
+	
+	public int getNumberOfDistinctRuns()
+	{
+		return runs.size();
+	}
+	
+	public int getNumberOfDistinctCells()
+	{
+		return cells.size();
+	}
+	
+	/**
+	 * @return how many times an existing object was returned instead of a new one
+	 */
+	public long getNumberOfHits()
+	{
+		return hits.get();
+	}
+	
+	public long getNumberOfMisses()
+	{
+		return misses.get();
+	}
+	
+	
+	
+	
+	/*
+	 * The keys compare colors and runs by identity, since they're interned already (and the model classes might not have equals()/hashCode() anyway!)
+	 */
+	
+	protected static class RunKey
+	{
+		protected final String text;
+		protected final int flags;
+		protected final RichshetsCellRunScriptLevel scriptLevel;
+		protected final RichshetsColor textColor;
+		protected final int hash;
+		
+		public RunKey(String text, boolean bold, boolean underline, boolean italic, boolean strikethrough, RichshetsCellRunScriptLevel scriptLevel, RichshetsColor textColor)
+		{
+			this.text = text;
+			this.flags = (bold ? 1 : 0) | (underline ? 2 : 0) | (italic ? 4 : 0) | (strikethrough ? 8 : 0);
+			this.scriptLevel = scriptLevel;
+			this.textColor = textColor;
+			this.hash = ((text.hashCode() * 31 + flags) * 31 + (scriptLevel == null ? 0 : scriptLevel.ordinal() + 1)) * 31 + System.identityHashCode(textColor);
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof RunKey))
+				return false;
+			
+			RunKey o = (RunKey)obj;
+			return hash == o.hash && flags == o.flags && scriptLevel == o.scriptLevel && textColor == o.textColor && text.equals(o.text);
+		}
+	}
+	
+	
+	protected static class CellKey
+	{
+		protected final List<RichshetsCellContentsRun> contents;
+		protected final RichshetsJustification justification;
+		protected final RichshetsColor backgroundColor;
+		protected final RichshetsTextWrappingStrategy wrappingStrategy;
+		protected final int hash;
+		
+		public CellKey(List<RichshetsCellContentsRun> contents, RichshetsJustification justification, RichshetsColor backgroundColor, RichshetsTextWrappingStrategy wrappingStrategy)
+		{
+			this.contents = contents;
+			this.justification = justification;
+			this.backgroundColor = backgroundColor;
+			this.wrappingStrategy = wrappingStrategy;
+			
+			int h = 1;
+			for (RichshetsCellContentsRun run : contents)
+				h = h * 31 + System.identityHashCode(run);
+			h = h * 31 + (justification == null ? 0 : justification.ordinal() + 1);
+			h = h * 31 + System.identityHashCode(backgroundColor);
+			h = h * 31 + (wrappingStrategy == null ? 0 : wrappingStrategy.ordinal() + 1);
+			this.hash = h;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof CellKey))
+				return false;
+			
+			CellKey o = (CellKey)obj;
+			
+			if (hash != o.hash || justification != o.justification || backgroundColor != o.backgroundColor || wrappingStrategy != o.wrappingStrategy)
+				return false;
+			
+			int n = contents.size();
+			
+			if (n != o.contents.size())
+				return false;
+			
+			for (int i = 0; i < n; i++)
+				if (contents.get(i) != o.contents.get(i))
+					return false;
+			
+			return true;
+		}
+	}
+}
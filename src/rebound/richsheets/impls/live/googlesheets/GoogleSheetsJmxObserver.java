@@ -0,0 +1,258 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import com.google.api.services.sheets.v4.model.Request;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * A {@link GoogleSheetsObserver} that just keeps totals, and shows them over JMX (so they're in JConsole/VisualVM, or whatever scrapes JMX into your metrics system).
+ * It's all {@link LongAdder}s, so it's cheap even with lots of threads.
+ */
+public class GoogleSheetsJmxObserver
+	implements GoogleSheetsObserver, GoogleSheetsMetricsMXBean
+{
+	protected final LongAdder[] phaseCounts = newAdders(Phase.values().length);
+	protected final LongAdder[] phaseNanos = newAdders(Phase.values().length);
+	
+	protected final LongAdder rowsDecoded = new LongAdder();
+	protected final LongAdder cellsDecoded = new LongAdder();
+	protected final LongAdder cellsEncoded = new LongAdder();
+	protected final ConcurrentHashMap<String, LongAdder> requestCountsByType = new ConcurrentHashMap<>();
+	
+	protected final LongAdder apiCalls = new LongAdder();
+	protected final LongAdder apiCallRetries = new LongAdder();
+	protected final LongAdder apiCallFailures = new LongAdder();
+	protected final LongAdder apiCallNanos = new LongAdder();
+	
+	protected final LongAdder httpExchanges = new LongAdder();
+	protected final LongAdder requestBytes = new LongAdder();
+	protected final LongAdder responseBytes = new LongAdder();
+	
+	protected final LongAdder warnings = new LongAdder();
+	protected volatile String lastWarning = null;
+	
+	
+	
+	protected static LongAdder[] newAdders(int n)
+	{
+		LongAdder[] a = new LongAdder[n];
+		for (int i = 0; i < n; i++)
+			a[i] = new LongAdder();
+		return a;
+	}
+	
+	
+	
+	
+	/**
+	 * Registers it with the platform MBean server, under "rebound.richsheets:type=GoogleSheets,name=<name>"
+	 */
+	public ObjectName register(String name) throws JMException
+	{
+		ObjectName on = new ObjectName("rebound.richsheets:type=GoogleSheets,name="+ObjectName.quote(name));
+		register(ManagementFactory.getPlatformMBeanServer(), on);
+		return on;
+	}
+	
+	public void register(MBeanServer server, ObjectName name) throws JMException
+	{
+		server.registerMBean(this, name);
+	}
+	
+	
+	
+	
+	@Override
+	public void phaseFinished(String spreadsheetId, int subsheetIndex, Phase phase, long nanos)
+	{
+		phaseCounts[phase.ordinal()].increment();
+		phaseNanos[phase.ordinal()].add(nanos);
+	}
+	
+	@Override
+	public void decoded(String spreadsheetId, int subsheetIndex, int rows, long cells)
+	{
+		rowsDecoded.add(rows);
+		cellsDecoded.add(cells);
+	}
+	
+	@Override
+	public void encoded(String spreadsheetId, int subsheetIndex, List<Request> requests, long cells)
+	{
+		cellsEncoded.add(cells);
+		
+		for (Request r : requests)
+			requestCountsByType.computeIfAbsent(GoogleSheetsObserver.getRequestType(r), k -> new LongAdder()).increment();
+	}
+	
+	@Override
+	public void apiCall(boolean write, int retries, long nanos, @Nullable IOException failure)
+	{
+		apiCalls.increment();
+		apiCallRetries.add(retries);
+		apiCallNanos.add(nanos);
+		
+		if (failure != null)
+			apiCallFailures.increment();
+	}
+	
+	@Override
+	public void httpExchange(String method, String path, int statusCode, long requestBytes, long responseBytes)
+	{
+		httpExchanges.increment();
+		
+		if (requestBytes > 0)
+			this.requestBytes.add(requestBytes);
+		if (responseBytes > 0)
+			this.responseBytes.add(responseBytes);
+	}
+	
+	@Override
+	public void warning(@Nullable String spreadsheetId, String message, @Nullable Throwable cause)
+	{
+		warnings.increment();
+		lastWarning = (spreadsheetId == null ? "" : spreadsheetId+": ")+message+(cause == null ? "" : " ("+cause+")");
+	}
+	
+	
+	
+	
+	@Override
+	public Map<String, Long> getPhaseCounts()
+	{
+		Map<String, Long> m = new TreeMap<>();
+		for (Phase p : Phase.values())
+			m.put(p.name(), phaseCounts[p.ordinal()].sum());
+		return m;
+	}
+	
+	@Override
+	public Map<String, Long> getPhaseTotalMillis()
+	{
+		Map<String, Long> m = new TreeMap<>();
+		for (Phase p : Phase.values())
+			m.put(p.name(), phaseNanos[p.ordinal()].sum() / 1_000_000);
+		return m;
+	}
+	
+	public long getPhaseTotalNanos(Phase phase)
+	{
+		return phaseNanos[phase.ordinal()].sum();
+	}
+	
+	@Override
+	public long getRowsDecoded()
+	{
+		return rowsDecoded.sum();
+	}
+	
+	@Override
+	public long getCellsDecoded()
+	{
+		return cellsDecoded.sum();
+	}
+	
+	@Override
+	public long getCellsEncoded()
+	{
+		return cellsEncoded.sum();
+	}
+	
+	@Override
+	public Map<String, Long> getRequestCountsByType()
+	{
+		Map<String, Long> m = new TreeMap<>();
+		requestCountsByType.forEach((k, v) -> m.put(k, v.sum()));
+		return m;
+	}
+	
+	@Override
+	public long getApiCalls()
+	{
+		return apiCalls.sum();
+	}
+	
+	@Override
+	public long getApiCallRetries()
+	{
+		return apiCallRetries.sum();
+	}
+	
+	@Override
+	public long getApiCallFailures()
+	{
+		return apiCallFailures.sum();
+	}
+	
+	@Override
+	public long getApiCallTotalMillis()
+	{
+		return apiCallNanos.sum() / 1_000_000;
+	}
+	
+	@Override
+	public long getHttpExchanges()
+	{
+		return httpExchanges.sum();
+	}
+	
+	@Override
+	public long getRequestBytes()
+	{
+		return requestBytes.sum();
+	}
+	
+	@Override
+	public long getResponseBytes()
+	{
+		return responseBytes.sum();
+	}
+	
+	@Override
+	public long getWarnings()
+	{
+		return warnings.sum();
+	}
+	
+	@Override
+	public String getLastWarning()
+	{
+		return lastWarning;
+	}
+	
+	
+	@Override
+	public void reset()
+	{
+		for (LongAdder a : phaseCounts)
+			a.reset();
+		for (LongAdder a : phaseNanos)
+			a.reset();
+		
+		rowsDecoded.reset();
+		cellsDecoded.reset();
+		cellsEncoded.reset();
+		requestCountsByType.clear();
+		
+		apiCalls.reset();
+		apiCallRetries.reset();
+		apiCallFailures.reset();
+		apiCallNanos.reset();
+		
+		httpExchanges.reset();
+		requestBytes.reset();
+		responseBytes.reset();
+		
+		warnings.reset();
+		lastWarning = null;
+	}
+}
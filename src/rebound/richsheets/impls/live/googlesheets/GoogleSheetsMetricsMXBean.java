@@ -0,0 +1,32 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.Map;
+
+/**
+ * What {@link GoogleSheetsJmxObserver} shows over JMX.
+ * (The times are in milliseconds and the maps are by {@link GoogleSheetsObserver.Phase} name or request type, since JMX clients show those nicer than nanoseconds and enums.)
+ */
+public interface GoogleSheetsMetricsMXBean
+{
+	public Map<String, Long> getPhaseCounts();
+	public Map<String, Long> getPhaseTotalMillis();
+	
+	public long getRowsDecoded();
+	public long getCellsDecoded();
+	public long getCellsEncoded();
+	public Map<String, Long> getRequestCountsByType();
+	
+	public long getApiCalls();
+	public long getApiCallRetries();
+	public long getApiCallFailures();
+	public long getApiCallTotalMillis();
+	
+	public long getHttpExchanges();
+	public long getRequestBytes();
+	public long getResponseBytes();
+	
+	public long getWarnings();
+	public String getLastWarning();
+	
+	public void reset();
+}
@@ -0,0 +1,138 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.IOException;
+import java.util.List;
+import com.google.api.services.sheets.v4.model.Request;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * Gets told what {@link RichsheetsConnectionForGoogleSheets} is doing and how long it takes, so when a perform() is slow you can see whether it's the network, decoding, your operation, encoding, or the batchUpdate!
+ * And it gets the warnings that used to just get swallowed (like snapshots that couldn't be saved).
+ *
+ * Every method does nothing by default, so implement just the ones you want.
+ * They're called on whatever thread is doing the work (often several at once), so they need to be thread-safe and quick.
+ *
+ * The default is {@link #None}, which is never called at all (and nothing is measured or counted for it), so it costs nothing.
+ * See {@link GoogleSheetsJmxObserver} for one that keeps totals you can look at in JConsole/VisualVM/etc.
+ */
+public interface GoogleSheetsObserver
+{
+	public static enum Phase
+	{
+		/**
+		 * Asking Drive when the spreadsheet was last modified (network)
+		 */
+		CheckModified,
+		
+		/**
+		 * Downloading the grid (or loading it from a snapshot)
+		 */
+		Read,
+		
+		/**
+		 * Turning Google's cells into ours (CPU)
+		 */
+		Decode,
+		
+		/**
+		 * The {@link rebound.richsheets.api.operation.RichsheetsOperation} itself
+		 */
+		Operation,
+		
+		/**
+		 * Working out what changed and turning our cells into Google's (CPU)
+		 */
+		Encode,
+		
+		/**
+		 * The batchUpdate(s) (network)
+		 */
+		Write,
+	}
+	
+	
+	public static final GoogleSheetsObserver None = new GoogleSheetsObserver()
+	{
+		@Override
+		public boolean isEnabled()
+		{
+			return false;
+		}
+	};
+	
+	
+	
+	/**
+	 * If this is false, nothing else is called, and nothing's measured just for it.
+	 */
+	public default boolean isEnabled()
+	{
+		return true;
+	}
+	
+	
+	/**
+	 * @param subsheetIndex -1 if it's for the whole spreadsheet (eg, {@link Phase#CheckModified})
+	 */
+	public default void phaseFinished(String spreadsheetId, int subsheetIndex, Phase phase, long nanos)
+	{
+	}
+	
+	/**
+	 * @param cells rows times columns (including blank ones)
+	 */
+	public default void decoded(String spreadsheetId, int subsheetIndex, int rows, long cells)
+	{
+	}
+	
+	/**
+	 * @param requests what's about to be sent (see {@link #getRequestType(Request)} to count them by type); don't modify them!
+	 * @param cells how many cells the requests write (including ones they clear)
+	 */
+	public default void encoded(String spreadsheetId, int subsheetIndex, List<Request> requests, long cells)
+	{
+	}
+	
+	/**
+	 * After every call through {@link GoogleSheetsApiCaller}, including all its retries.
+	 *
+	 * @param nanos including waiting for the rate limiter and backing off
+	 * @param failure null if it succeeded (eventually)
+	 */
+	public default void apiCall(boolean write, int retries, long nanos, @Nullable IOException failure)
+	{
+	}
+	
+	/**
+	 * After every HTTP response has been read (so once per attempt, not once per call).
+	 *
+	 * @param requestBytes the request body's size, or 0 if there isn't one, or -1 if it's not known
+	 * @param responseBytes how many bytes of the response body were actually read off the connection (so compressed, if it was gzipped; see {@link GoogleSheetsByteCountingTransport})
+	 */
+	public default void httpExchange(String method, String path, int statusCode, long requestBytes, long responseBytes)
+	{
+	}
+	
+	/**
+	 * Something went wrong that didn't stop the operation.
+	 *
+	 * @param spreadsheetId null if it's not about a particular spreadsheet
+	 */
+	public default void warning(@Nullable String spreadsheetId, String message, @Nullable Throwable cause)
+	{
+	}
+	
+	
+	
+	
+	/**
+	 * @return which kind of request it is, like "updateCells" or "appendDimension"
+	 */
+	public static String getRequestType(Request r)
+	{
+		//A Request is only supposed to have one of its fields set, and GenericData only lists the ones that are :3
+		for (String k : r.keySet())
+			return k;
+		return "empty";
+	}
+}
@@ -0,0 +1,118 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+/**
+ * A token bucket: permits trickle in at a steady rate up to a maximum burst, and anyone who wants one when there aren't any waits their turn.
+ * (Waiting is done by reserving a future permit and sleeping until it arrives, so waiters are served in the order they asked, and bursts get smoothed out instead of all hammering the API at once.)
+ */
+public class GoogleSheetsRateLimiter
+{
+	/**
+	 * Google Sheets' default quotas are 60 read requests and 60 write requests per minute per user (per project it's 300 of each), so these are what we default to.
+	 * https://developers.google.com/sheets/api/limits
+	 */
+	public static final double DefaultReadsPerMinute = 60;
+	public static final double DefaultWritesPerMinute = 60;
+	
+	protected static final GoogleSheetsRateLimiter ProcessWideReads = new GoogleSheetsRateLimiter(DefaultReadsPerMinute / 60, 10);
+	protected static final GoogleSheetsRateLimiter ProcessWideWrites = new GoogleSheetsRateLimiter(DefaultWritesPerMinute / 60, 10);
+	
+	/**
+	 * The quotas are per user/project, not per connection, so by default everything in the process shares these two!
+	 */
+	public static GoogleSheetsRateLimiter getProcessWideReadLimiter()
+	{
+		return ProcessWideReads;
+	}
+	
+	public static GoogleSheetsRateLimiter getProcessWideWriteLimiter()
+	{
+		return ProcessWideWrites;
+	}
+	
+	
+	
+	
+	protected double permitsPerSecond;
+	protected double maxBurst;
+	
+	protected double permits;  //negative means that many permits are already reserved by waiters
+	protected long lastRefillNanos;
+	
+	
+	
+	public GoogleSheetsRateLimiter(double permitsPerSecond, double maxBurst)
+	{
+		if (!(permitsPerSecond > 0))
+			throw new IllegalArgumentException("Rate must be positive: "+permitsPerSecond);
+		if (!(maxBurst >= 1))
+			throw new IllegalArgumentException("Burst must be at least one: "+maxBurst);
+		
+		this.permitsPerSecond = permitsPerSecond;
+		this.maxBurst = maxBurst;
+		this.permits = maxBurst;
+		this.lastRefillNanos = System.nanoTime();
+	}
+	
+	
+	public synchronized double getPermitsPerSecond()
+	{
+		return permitsPerSecond;
+	}
+	
+	/**
+	 * Eg, if your project's quota has been raised.
+	 */
+	public synchronized void setRate(double permitsPerSecond, double maxBurst)
+	{
+		refill();
+		this.permitsPerSecond = permitsPerSecond;
+		this.maxBurst = maxBurst;
+		this.permits = Math.min(permits, maxBurst);
+	}
+	
+	
+	
+	
+	/**
+	 * Blocks until a permit is available.
+	 * @return how many nanoseconds we had to wait (zero if we weren't throttled at all)
+	 */
+	public long acquire() throws InterruptedException
+	{
+		long waitNanos;
+		{
+			synchronized (this)
+			{
+				refill();
+				permits -= 1;
+				waitNanos = permits >= 0 ? 0 : (long)Math.ceil(-permits / permitsPerSecond * 1e9);
+			}
+		}
+		
+		if (waitNanos > 0)
+		{
+			try
+			{
+				Thread.sleep(waitNanos / 1_000_000, (int)(waitNanos % 1_000_000));
+			}
+			catch (InterruptedException exc)
+			{
+				synchronized (this)
+				{
+					permits += 1;  //give our reservation back
+				}
+				throw exc;
+			}
+		}
+		
+		return waitNanos;
+	}
+	
+	
+	protected void refill()
+	{
+		long now = System.nanoTime();
+		permits = Math.min(maxBurst, permits + (now - lastRefillNanos) / 1e9 * permitsPerSecond);
+		lastRefillNanos = now;
+	}
+}
@@ -0,0 +1,348 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import static java.util.Arrays.*;
+import static java.util.Collections.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nonnull;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.sheets.v4.Sheets;
+import com.google.api.services.sheets.v4.Sheets.Spreadsheets.Get;
+import com.google.api.services.sheets.v4.Sheets.Spreadsheets.Values;
+import com.google.api.services.sheets.v4.model.GridData;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.Spreadsheet;
+import com.google.api.services.sheets.v4.model.ValueRange;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * Plans the spreadsheets.get calls so we only download the one subsheet we're operating on, and only the parts of each cell that {@link RichsheetsConnectionForGoogleSheets#convertToRichsheets(Sheet, int, int)} actually looks at!
+ * (Without a fields mask Google sends every property of every cell of every tab: all the formats, hyperlinks, data validation, etc. XD )
+ */
+public class GoogleSheetsReadPlanner
+{
+	/**
+	 * Everything {@link RichsheetsConnectionForGoogleSheets#decodeCell(com.google.api.services.sheets.v4.model.CellData)} reads.
+	 */
+	public static final String CellFieldsMask = "formattedValue,textFormatRuns,effectiveFormat(backgroundColor,horizontalAlignment,wrapStrategy,textFormat(bold,italic,underline,strikethrough,foregroundColor),numberFormat/type)";  //the number format is just a hint for GoogleSheetsColumnTypes
+	
+	public static final String SheetPropertiesFieldsMask = "properties(sheetId,title,index,gridProperties(frozenRowCount,frozenColumnCount,rowCount,columnCount))";
+	
+	public static final String GridDataFieldsMask = "sheets("+SheetPropertiesFieldsMask+",data(startRow,startColumn,rowMetadata(pixelSize),columnMetadata(pixelSize),rowData(values("+CellFieldsMask+"))))";
+	
+	public static final String MetadataFieldsMask = "sheets("+SheetPropertiesFieldsMask+")";
+	
+	/**
+	 * Just the cells' number format types, for {@link GoogleSheetsColumnTypes} when all we have is the values (see {@link #readSubsheetNumberFormats(Sheets, String, int, String)})
+	 */
+	public static final String NumberFormatsFieldsMask = "sheets("+SheetPropertiesFieldsMask+",data(rowData(values(effectiveFormat/numberFormat/type))))";
+	
+	
+	
+	protected final GoogleSheetsApiCaller caller;
+	protected final Map<String, CachedSubsheets> subsheetsBySpreadsheetId = new ConcurrentHashMap<>();
+	
+	protected static class CachedSubsheets
+	{
+		protected final List<SheetProperties> subsheets;  //by index
+		protected final long fetchedAtNanos;
+		protected final boolean stale;  //we changed it since!
+		
+		public CachedSubsheets(List<SheetProperties> subsheets, long fetchedAtNanos, boolean stale)
+		{
+			this.subsheets = subsheets;
+			this.fetchedAtNanos = fetchedAtNanos;
+			this.stale = stale;
+		}
+		
+		public boolean isYoungerThan(long maxAgeMillis)
+		{
+			return maxAgeMillis == Long.MAX_VALUE || (!stale && System.nanoTime() - fetchedAtNanos <= maxAgeMillis * 1_000_000L);
+		}
+	}
+	
+	
+	
+	public GoogleSheetsReadPlanner(GoogleSheetsApiCaller caller)
+	{
+		this.caller = caller;
+	}
+	
+	
+	
+	
+	/**
+	 * @param rangeWithinSubsheet an A1 range without the sheet name, like "1:100", or null for the whole subsheet
+	 * @return the one {@link Sheet} with its grid data, masked down to what we decode
+	 */
+	public Sheet readSubsheet(Sheets service, String spreadsheetId, int subsheetIndex, @Nullable String rangeWithinSubsheet) throws IOException
+	{
+		return readSubsheets(service, spreadsheetId, new int[]{subsheetIndex}, rangeWithinSubsheet).get(0);
+	}
+	
+	/**
+	 * Several ranges of one subsheet in one request (eg, a few columns of a wide subsheet, like "C1:C" and "F1:H").
+	 * 
+	 * @param rangesWithinSubsheet A1 ranges without the sheet name, that don't overlap
+	 * @return the one {@link Sheet}, with one {@link GridData} per range (with its {@link GridData#getStartColumn() start column} and {@link GridData#getStartRow() start row}), masked down to what we decode
+	 */
+	public Sheet readSubsheet(Sheets service, String spreadsheetId, int subsheetIndex, List<String> rangesWithinSubsheet) throws IOException
+	{
+		return readSubsheets(service, spreadsheetId, new int[]{subsheetIndex}, rangesWithinSubsheet).get(0);
+	}
+	
+	
+	/**
+	 * Reads several subsheets in one request (one range per subsheet), instead of one request each.
+	 * 
+	 * @param subsheetIndices no duplicates, in any order
+	 * @param rangeWithinEachSubsheet an A1 range without the sheet name, like "1:100", or null for the whole subsheets
+	 * @return the {@link Sheet}s with their grid data, masked down to what we decode, in the same order as subsheetIndices
+	 */
+	public List<Sheet> readSubsheets(Sheets service, String spreadsheetId, int[] subsheetIndices, @Nullable String rangeWithinEachSubsheet) throws IOException
+	{
+		return readSubsheets(service, spreadsheetId, subsheetIndices, singletonList(rangeWithinEachSubsheet));
+	}
+	
+	/**
+	 * @param rangesWithinEachSubsheet A1 ranges without the sheet name (or a single null for the whole subsheets); each subsheet's {@link Sheet} has one {@link GridData} per range
+	 */
+	public List<Sheet> readSubsheets(Sheets service, String spreadsheetId, int[] subsheetIndices, List<String> rangesWithinEachSubsheet) throws IOException
+	{
+		return readSubsheets(service, spreadsheetId, subsheetIndices, rangesWithinEachSubsheet, GridDataFieldsMask);
+	}
+	
+	/**
+	 * @param fieldsMask what of each subsheet to download; it has to have at least the {@link #SheetPropertiesFieldsMask properties}, so we can tell which is which
+	 */
+	protected List<Sheet> readSubsheets(Sheets service, String spreadsheetId, int[] subsheetIndices, List<String> rangesWithinEachSubsheet, String fieldsMask) throws IOException
+	{
+		boolean fresh = false;
+		
+		while (true)
+		{
+			List<String> ranges = new ArrayList<>(subsheetIndices.length * rangesWithinEachSubsheet.size());
+			for (int subsheetIndex : subsheetIndices)
+			{
+				String title = getSubsheetProperties(service, spreadsheetId, subsheetIndex, fresh).getTitle();
+				for (String rangeWithinSubsheet : rangesWithinEachSubsheet)
+					ranges.add(sheetQualifiedRange(title, rangeWithinSubsheet));
+			}
+			
+			Get action = service.spreadsheets().get(spreadsheetId);
+			action.setIncludeGridData(true);
+			action.setRanges(ranges);
+			action.setFields(fieldsMask);
+			
+			Spreadsheet spreadsheet;
+			try
+			{
+				spreadsheet = caller.execute(action, false);
+			}
+			catch (GoogleJsonResponseException exc)
+			{
+				//Someone renamed/deleted a tab since we cached its title!  (So Google can't parse the range)
+				if (exc.getStatusCode() != 400 || fresh)
+					throw exc;
+				
+				forget(spreadsheetId);
+				fresh = true;
+				continue;
+			}
+			
+			List<Sheet> sheets = spreadsheet.getSheets();
+			
+			//They come back in the order of the tabs, not of the ranges
+			if (sheets != null && sheets.size() == subsheetIndices.length)
+			{
+				Map<Integer, Sheet> byIndex = new HashMap<>();
+				for (Sheet s : sheets)
+				{
+					Integer index = s.getProperties().getIndex();
+					byIndex.put(index == null ? 0 : index, s);
+				}
+				
+				List<Sheet> inOrder = new ArrayList<>(subsheetIndices.length);
+				for (int subsheetIndex : subsheetIndices)
+				{
+					Sheet s = byIndex.get(subsheetIndex);
+					if (s == null)
+						break;
+					inOrder.add(s);
+				}
+				
+				if (inOrder.size() == subsheetIndices.length)
+					return inOrder;
+			}
+			
+			//Someone renamed/reordered/deleted the tabs since we cached their titles!
+			forget(spreadsheetId);
+			
+			if (fresh)
+				throw new IOException("Subsheets "+Arrays.toString(subsheetIndices)+" of spreadsheet "+spreadsheetId+" changed out from under us while reading them (or don't exist).");
+			else
+				fresh = true;
+		}
+	}
+	
+	
+	
+	/**
+	 * Just the cells' values, as the text Google shows for them (no formats, no runs, no row/column metadata), through spreadsheets.values.get instead of spreadsheets.get, which is a fraction of the size to download and parse.
+	 * 
+	 * @param rangeWithinSubsheet an A1 range without the sheet name, like "1:100", or null for the whole subsheet
+	 * @return the rows (as Strings), with the blank cells on the ends of rows and the blank rows on the end left out, like Google does
+	 */
+	public List<List<Object>> readSubsheetValues(Sheets service, String spreadsheetId, int subsheetIndex, @Nullable String rangeWithinSubsheet) throws IOException
+	{
+		boolean fresh = false;
+		
+		while (true)
+		{
+			Values.Get action = service.spreadsheets().values().get(spreadsheetId, sheetQualifiedRange(getSubsheetProperties(service, spreadsheetId, subsheetIndex, fresh).getTitle(), rangeWithinSubsheet));
+			action.setValueRenderOption("FORMATTED_VALUE");  //what convertToRichsheets() decodes too
+			action.setMajorDimension("ROWS");
+			
+			try
+			{
+				List<List<Object>> values = caller.execute(action, false).getValues();
+				return values == null ? emptyList() : values;  //null if it's all blank
+			}
+			catch (GoogleJsonResponseException exc)
+			{
+				//Someone renamed/deleted the tab since we cached its title!  (So Google can't parse the range)
+				if (exc.getStatusCode() != 400 || fresh)
+					throw exc;
+				
+				forget(spreadsheetId);
+				fresh = true;
+			}
+		}
+	}
+	
+	
+	/**
+	 * The number format types of the cells, and nothing else about them, for when we only read their values but have to write some back (see {@link GoogleSheetsColumnTypes#infer(rebound.richsheets.api.model.RichsheetsTable, Sheet, java.util.concurrent.ForkJoinPool, int)}).
+	 * 
+	 * @param rangeWithinSubsheet an A1 range without the sheet name, like "1:100", or null for the whole subsheet
+	 * @return the one {@link Sheet} with its grid data, masked down to {@link #NumberFormatsFieldsMask}
+	 */
+	public Sheet readSubsheetNumberFormats(Sheets service, String spreadsheetId, int subsheetIndex, @Nullable String rangeWithinSubsheet) throws IOException
+	{
+		return readSubsheets(service, spreadsheetId, new int[]{subsheetIndex}, singletonList(rangeWithinSubsheet), NumberFormatsFieldsMask).get(0);
+	}
+	
+	
+	/**
+	 * This never downloads any cells, just the tabs' properties (cached after the first time).
+	 * The titles are all that matter for reading, and those are checked when they're used, so they're kept until they turn out wrong.
+	 */
+	public SheetProperties getSubsheetProperties(Sheets service, String spreadsheetId, int subsheetIndex, boolean forceRefresh) throws IOException
+	{
+		return getSubsheetProperties(service, spreadsheetId, subsheetIndex, forceRefresh ? 0 : Long.MAX_VALUE);
+	}
+	
+	/**
+	 * @param maxAgeMillis how old the cached properties can be before we ask Google again (eg, for row/column counts, which change all the time)
+	 */
+	public SheetProperties getSubsheetProperties(Sheets service, String spreadsheetId, int subsheetIndex, long maxAgeMillis) throws IOException
+	{
+		List<SheetProperties> subsheets = getAllSubsheetProperties(service, spreadsheetId, maxAgeMillis);
+		
+		if (subsheetIndex < 0 || subsheetIndex >= subsheets.size())
+			throw new IndexOutOfBoundsException("Subsheet #"+subsheetIndex+" of spreadsheet "+spreadsheetId+" (which has "+subsheets.size()+" subsheets)");
+		
+		return subsheets.get(subsheetIndex);
+	}
+	
+	public List<SheetProperties> getAllSubsheetProperties(Sheets service, String spreadsheetId, long maxAgeMillis) throws IOException
+	{
+		CachedSubsheets cached = subsheetsBySpreadsheetId.get(spreadsheetId);
+		
+		if (cached == null || !cached.isYoungerThan(maxAgeMillis))
+		{
+			cached = new CachedSubsheets(readSubsheetProperties(service, spreadsheetId), System.nanoTime(), false);
+			subsheetsBySpreadsheetId.put(spreadsheetId, cached);
+		}
+		
+		return cached.subsheets;
+	}
+	
+	
+	protected List<SheetProperties> readSubsheetProperties(Sheets service, String spreadsheetId) throws IOException
+	{
+		Get action = service.spreadsheets().get(spreadsheetId);
+		action.setIncludeGridData(false);
+		action.setFields(MetadataFieldsMask);
+		
+		List<Sheet> sheets = caller.execute(action, false).getSheets();
+		
+		if (sheets == null)
+			return emptyList();
+		
+		SheetProperties[] byIndex = new SheetProperties[sheets.size()];
+		
+		for (Sheet s : sheets)
+		{
+			Integer index = s.getProperties().getIndex();
+			byIndex[index == null ? 0 : index] = s.getProperties();
+		}
+		
+		return unmodifiableList(asList(byIndex));
+	}
+	
+	
+	public void forget(String spreadsheetId)
+	{
+		subsheetsBySpreadsheetId.remove(spreadsheetId);
+	}
+	
+	/**
+	 * Keeps the titles around for reading, but makes anything that wants fresh properties (like the row/column counts) fetch them again.
+	 * Call this after changing the size of a subsheet.
+	 */
+	public void markStale(String spreadsheetId)
+	{
+		subsheetsBySpreadsheetId.computeIfPresent(spreadsheetId, (k, c) -> new CachedSubsheets(c.subsheets, c.fetchedAtNanos, true));
+	}
+	
+	
+	
+	
+	
+	/**
+	 * @param rangeWithinSubsheet eg, "1:100" or "A1:C" or null for the whole subsheet
+	 */
+	public static String sheetQualifiedRange(@Nonnull String subsheetTitle, @Nullable String rangeWithinSubsheet)
+	{
+		String quoted = "'"+subsheetTitle.replace("'", "''")+"'";
+		return rangeWithinSubsheet == null ? quoted : quoted+"!"+rangeWithinSubsheet;
+	}
+	
+	/**
+	 * @return eg, "B3:D7" (the ends are exclusive, like everywhere else in the API, so that's (1, 2, 4, 7))
+	 */
+	public static String a1Range(int startColumnIndex, int startRowIndex, int endColumnIndex, int endRowIndex)
+	{
+		return a1Column(startColumnIndex)+(startRowIndex+1)+":"+a1Column(endColumnIndex-1)+endRowIndex;
+	}
+	
+	/**
+	 * @return "A" for 0, "Z" for 25, "AA" for 26, etc.
+	 */
+	public static String a1Column(int columnIndex)
+	{
+		StringBuilder b = new StringBuilder();
+		
+		for (int c = columnIndex + 1; c > 0; c = (c - 1) / 26)
+			b.append((char)('A' + (c - 1) % 26));
+		
+		return b.reverse().toString();
+	}
+}
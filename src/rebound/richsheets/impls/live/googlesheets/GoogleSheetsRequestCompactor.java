@@ -0,0 +1,316 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import com.google.api.services.sheets.v4.model.AutoResizeDimensionsRequest;
+import com.google.api.services.sheets.v4.model.DeleteDimensionRequest;
+import com.google.api.services.sheets.v4.model.DimensionProperties;
+import com.google.api.services.sheets.v4.model.DimensionRange;
+import com.google.api.services.sheets.v4.model.GridData;
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.InsertDimensionRequest;
+import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.UpdateDimensionPropertiesRequest;
+import com.google.api.services.sheets.v4.model.UpdateSheetPropertiesRequest;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * An optimizing pass over the {@link Request}s of a batchUpdate, run right before we send it :3
+ *
+ * + Drops row height / column width / frozen pane updates that just set what the sheet already had
+ * + Merges runs of adjacent rows/columns being set to the same size into one ranged request
+ * + Merges adjacent autoresized columns into one ranged request
+ * + Merges back-to-back frozen pane updates to the same subsheet
+ *
+ * It never reorders requests across different kinds, since order matters in a batchUpdate (eg, expanding the sheet must come before writing past the old end of it!)
+ */
+public class GoogleSheetsRequestCompactor
+{
+	/**
+	 * @param original the subsheet as we read it (with its row and column metadata), or null if we don't know it (then we can still merge, just not drop no-ops)
+	 * @return how many requests were removed from the list (the list is modified in place)
+	 */
+	public static int compact(List<Request> reqs, @Nullable Sheet original)
+	{
+		int before = reqs.size();
+		
+		List<Request> out = new ArrayList<>(before);
+		
+		List<DimensionProperties> originalRowMetadata = null;
+		List<DimensionProperties> originalColumnMetadata = null;
+		GridProperties originalGridProperties = null;
+		Integer originalSheetId = null;
+		{
+			if (original != null)
+			{
+				originalSheetId = original.getProperties().getSheetId();
+				originalGridProperties = original.getProperties().getGridProperties();
+				
+				List<GridData> gds = original.getData();
+				if (gds != null && gds.size() == 1)
+				{
+					originalRowMetadata = gds.get(0).getRowMetadata();
+					originalColumnMetadata = gds.get(0).getColumnMetadata();
+				}
+			}
+		}
+		
+		//Inserting/deleting rows or columns shifts everything after them, so past that point the original metadata doesn't line up anymore
+		int trustworthyRows = firstShiftedIndex(reqs, "ROWS", originalSheetId);
+		int trustworthyColumns = firstShiftedIndex(reqs, "COLUMNS", originalSheetId);
+		
+		
+		for (Request r : reqs)
+		{
+			Request previous = out.isEmpty() ? null : out.get(out.size() - 1);
+			
+			if (r.getUpdateDimensionProperties() != null)
+			{
+				UpdateDimensionPropertiesRequest req = r.getUpdateDimensionProperties();
+				DimensionRange range = req.getRange();
+				
+				if (Objects.equals(range.getSheetId(), originalSheetId))
+				{
+					boolean rows = "ROWS".equals(range.getDimension());
+					
+					if (isNoop(req, rows ? originalRowMetadata : originalColumnMetadata, rows ? trustworthyRows : trustworthyColumns))
+						continue;
+				}
+				
+				if (previous != null && previous.getUpdateDimensionProperties() != null)
+				{
+					UpdateDimensionPropertiesRequest prev = previous.getUpdateDimensionProperties();
+					DimensionRange prevRange = prev.getRange();
+					
+					if (sameDimension(prevRange, range) && Objects.equals(prevRange.getEndIndex(), range.getStartIndex()) && Objects.equals(prev.getFields(), req.getFields()) && Objects.equals(prev.getProperties(), req.getProperties()))
+					{
+						prevRange.setEndIndex(range.getEndIndex());
+						continue;
+					}
+				}
+			}
+			
+			else if (r.getUpdateSheetProperties() != null)
+			{
+				UpdateSheetPropertiesRequest req = r.getUpdateSheetProperties();
+				
+				if (Objects.equals(req.getProperties().getSheetId(), originalSheetId) && isNoopFrozenPanes(req, originalGridProperties))
+					continue;
+				
+				if (previous != null && previous.getUpdateSheetProperties() != null && mergeFrozenPanes(previous.getUpdateSheetProperties(), req))
+					continue;
+			}
+			
+			out.add(r);
+		}
+		
+		
+		//Autoresizes don't affect each other, so they can be merged even if they weren't given in order
+		sortAndMergeAutoresizes(out);
+		
+		
+		reqs.clear();
+		reqs.addAll(out);
+		
+		return before - reqs.size();
+	}
+	
+	
+	
+	
+	protected static boolean isNoop(UpdateDimensionPropertiesRequest req, @Nullable List<DimensionProperties> originalMetadata, int trustworthyUpTo)
+	{
+		if (originalMetadata == null)
+			return false;
+		
+		if (!"pixelSize".equals(req.getFields()))
+			return false;  //it's setting something we don't know the original of
+		
+		DimensionRange range = req.getRange();
+		int start = range.getStartIndex();
+		int end = range.getEndIndex();
+		
+		if (end > originalMetadata.size() || end > trustworthyUpTo)
+			return false;
+		
+		Integer pixelSize = req.getProperties().getPixelSize();
+		
+		for (int i = start; i < end; i++)
+			if (!Objects.equals(originalMetadata.get(i).getPixelSize(), pixelSize))
+				return false;
+		
+		return true;
+	}
+	
+	
+	protected static boolean isNoopFrozenPanes(UpdateSheetPropertiesRequest req, @Nullable GridProperties original)
+	{
+		if (original == null)
+			return false;
+		
+		GridProperties g = req.getProperties().getGridProperties();
+		
+		if (g == null || !isOnlyFrozenPanes(req.getFields()))
+			return false;
+		
+		if (g.getFrozenRowCount() != null && g.getFrozenRowCount() != orZero(original.getFrozenRowCount()))
+			return false;
+		
+		if (g.getFrozenColumnCount() != null && g.getFrozenColumnCount() != orZero(original.getFrozenColumnCount()))
+			return false;
+		
+		return true;
+	}
+	
+	
+	/**
+	 * @return true if the next one was merged into the previous one
+	 */
+	protected static boolean mergeFrozenPanes(UpdateSheetPropertiesRequest previous, UpdateSheetPropertiesRequest next)
+	{
+		SheetProperties p = previous.getProperties();
+		SheetProperties n = next.getProperties();
+		
+		if (!Objects.equals(p.getSheetId(), n.getSheetId()) || !isOnlyFrozenPanes(previous.getFields()) || !isOnlyFrozenPanes(next.getFields()))
+			return false;
+		
+		GridProperties pg = p.getGridProperties();
+		GridProperties ng = n.getGridProperties();
+		
+		if (ng.getFrozenRowCount() != null)
+			pg.setFrozenRowCount(ng.getFrozenRowCount());
+		
+		if (ng.getFrozenColumnCount() != null)
+			pg.setFrozenColumnCount(ng.getFrozenColumnCount());
+		
+		previous.setFields(frozenPanesFieldsMask(pg));
+		
+		return true;
+	}
+	
+	
+	public static String frozenPanesFieldsMask(GridProperties g)
+	{
+		if (g.getFrozenRowCount() != null && g.getFrozenColumnCount() != null)
+			return "gridProperties.frozenRowCount,gridProperties.frozenColumnCount";
+		else if (g.getFrozenRowCount() != null)
+			return "gridProperties.frozenRowCount";
+		else if (g.getFrozenColumnCount() != null)
+			return "gridProperties.frozenColumnCount";
+		else
+			throw new IllegalArgumentException("Not setting any frozen panes!");
+	}
+	
+	protected static boolean isOnlyFrozenPanes(String fields)
+	{
+		if (fields == null)
+			return false;
+		
+		for (String f : fields.split(","))
+			if (!f.equals("gridProperties.frozenRowCount") && !f.equals("gridProperties.frozenColumnCount"))
+				return false;
+		
+		return true;
+	}
+	
+	
+	
+	
+	/**
+	 * Within each unbroken stretch of autoresize requests, sort them and merge any that touch, since they don't depend on each other's order.
+	 */
+	protected static void sortAndMergeAutoresizes(List<Request> reqs)
+	{
+		int i = 0;
+		while (i < reqs.size())
+		{
+			if (reqs.get(i).getAutoResizeDimensions() == null)
+			{
+				i++;
+			}
+			else
+			{
+				int start = i;
+				while (i < reqs.size() && reqs.get(i).getAutoResizeDimensions() != null)
+					i++;
+				
+				List<Request> stretch = reqs.subList(start, i);
+				
+				if (stretch.size() > 1)
+				{
+					Collections.sort(stretch, (a, b) ->
+					{
+						DimensionRange x = a.getAutoResizeDimensions().getDimensions();
+						DimensionRange y = b.getAutoResizeDimensions().getDimensions();
+						
+						int c = Integer.compare(orZero(x.getSheetId()), orZero(y.getSheetId()));
+						if (c == 0)  c = String.valueOf(x.getDimension()).compareTo(String.valueOf(y.getDimension()));
+						if (c == 0)  c = Integer.compare(x.getStartIndex(), y.getStartIndex());
+						return c;
+					});
+					
+					List<Request> merged = new ArrayList<>(stretch.size());
+					
+					for (Request r : stretch)
+					{
+						if (!merged.isEmpty())
+						{
+							AutoResizeDimensionsRequest prev = merged.get(merged.size() - 1).getAutoResizeDimensions();
+							DimensionRange prevRange = prev.getDimensions();
+							DimensionRange range = r.getAutoResizeDimensions().getDimensions();
+							
+							if (sameDimension(prevRange, range) && range.getStartIndex() <= prevRange.getEndIndex())
+							{
+								prevRange.setEndIndex(Math.max(prevRange.getEndIndex(), range.getEndIndex()));
+								continue;
+							}
+						}
+						
+						merged.add(r);
+					}
+					
+					stretch.clear();
+					stretch.addAll(merged);
+					i = start + merged.size();
+				}
+			}
+		}
+	}
+	
+	
+	
+	
+	protected static int firstShiftedIndex(List<Request> reqs, String dimension, Integer sheetId)
+	{
+		int first = Integer.MAX_VALUE;
+		
+		for (Request r : reqs)
+		{
+			DimensionRange range;
+			{
+				InsertDimensionRequest i = r.getInsertDimension();
+				DeleteDimensionRequest d = r.getDeleteDimension();
+				range = i != null ? i.getRange() : (d != null ? d.getRange() : null);
+			}
+			
+			if (range != null && dimension.equals(range.getDimension()) && Objects.equals(range.getSheetId(), sheetId))
+				first = Math.min(first, range.getStartIndex());
+		}
+		
+		return first;
+	}
+	
+	protected static boolean sameDimension(DimensionRange a, DimensionRange b)
+	{
+		return Objects.equals(a.getSheetId(), b.getSheetId()) && Objects.equals(a.getDimension(), b.getDimension());
+	}
+	
+	protected static int orZero(Integer i)
+	{
+		return i == null ? 0 : i;
+	}
+}
@@ -0,0 +1,242 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import rebound.richsheets.api.model.RichsheetsRow;
+import com.google.api.services.sheets.v4.model.GridData;
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.RowData;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+
+/**
+ * Reads a subsheet a window of rows at a time (through successive A1 ranges like "1:1000", "1001:2000", ...) so huge sheets can be scanned/validated/exported without ever holding the whole thing in memory!
+ * At most one window is held (two if prefetching), and each row is only decoded when you ask for it.
+ *
+ * Get these from {@link RichsheetsConnectionForGoogleSheets#readRowWindows(String, int, int, boolean)} or {@link RichsheetsConnectionForGoogleSheets#streamRows(String, int, int, boolean)}
+ * Make sure to {@link #close()} it if you stop early and it's prefetching (so the prefetch thread goes away).
+ *
+ * This only reads; to change a window of rows, use {@link RichsheetsConnectionForGoogleSheets#getConnectionForRows(String, int, RichsheetsConnectionForGoogleSheets.WriteMode, int, int)}
+ */
+public class GoogleSheetsRowWindowReader
+	implements Iterator<RichsheetsRow>, Closeable
+{
+	protected final RichsheetsConnectionForGoogleSheets connection;
+	protected final String spreadsheetId;
+	protected final int subsheetIndex;
+	protected final int windowSize;
+	protected final ExecutorService prefetcher;  //null if not prefetching
+	
+	protected final int totalRows;  //as of when we started
+	protected final int frozenRows;
+	protected final int frozenColumns;
+	
+	protected int nextWindowStart = 0;  //row index (0-based) of the next window to fetch
+	
+	protected GridData currentWindow;
+	protected int currentWindowStart;
+	protected int currentWindowNumberOfRows;
+	protected int indexInCurrentWindow;
+	
+	protected CompletableFuture<GridData> nextWindow;  //only if prefetching
+	
+	
+	
+	public GoogleSheetsRowWindowReader(RichsheetsConnectionForGoogleSheets connection, String spreadsheetId, int subsheetIndex, int windowSize, boolean prefetch) throws IOException
+	{
+		if (windowSize < 1)
+			throw new IllegalArgumentException("Window size must be positive: "+windowSize);
+		
+		this.connection = connection;
+		this.spreadsheetId = spreadsheetId;
+		this.subsheetIndex = subsheetIndex;
+		this.windowSize = windowSize;
+		
+		SheetProperties props = connection.readPlanner.getSubsheetProperties(connection.service, spreadsheetId, subsheetIndex, true);  //fresh so the row count is up to date!
+		GridProperties g = props.getGridProperties();
+		this.totalRows = g.getRowCount() == null ? 0 : g.getRowCount();
+		this.frozenRows = g.getFrozenRowCount() == null ? 0 : g.getFrozenRowCount();
+		this.frozenColumns = g.getFrozenColumnCount() == null ? 0 : g.getFrozenColumnCount();
+		
+		if (prefetch)
+		{
+			this.prefetcher = Executors.newSingleThreadExecutor(r ->
+			{
+				Thread t = new Thread(r, "Google Sheets row window prefetcher for "+spreadsheetId);
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		else
+		{
+			this.prefetcher = null;
+		}
+	}
+	
+	
+	
+	
+	public int getWindowSize()
+	{
+		return windowSize;
+	}
+	
+	/**
+	 * @return the number of rows the subsheet had when we started (it won't read past this even if rows are added while it's going)
+	 */
+	public int getTotalRows()
+	{
+		return totalRows;
+	}
+	
+	public int getFrozenRows()
+	{
+		return frozenRows;
+	}
+	
+	public int getFrozenColumns()
+	{
+		return frozenColumns;
+	}
+	
+	/**
+	 * @return the row index (in the whole subsheet) of the row that {@link #next()} will return
+	 */
+	public int getNextRowIndex()
+	{
+		return currentWindow == null ? nextWindowStart : currentWindowStart + indexInCurrentWindow;
+	}
+	
+	
+	
+	
+	@Override
+	public boolean hasNext()
+	{
+		if (currentWindow != null && indexInCurrentWindow < currentWindowNumberOfRows)
+			return true;
+		
+		advanceWindow();
+		
+		return currentWindow != null;
+	}
+	
+	@Override
+	public RichsheetsRow next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+		
+		GridData gd = currentWindow;
+		int i = indexInCurrentWindow;
+		indexInCurrentWindow++;
+		
+		List<RowData> rowData = gd.getRowData();
+		RowData row = rowData == null || i >= rowData.size() ? null : rowData.get(i);  //trailing blank rows can be left out
+		
+		return RichsheetsConnectionForGoogleSheets.decodeRow(row, gd.getRowMetadata().get(i).getPixelSize(), gd.getColumnMetadata().size());
+	}
+	
+	
+	
+	
+	protected void advanceWindow()
+	{
+		currentWindow = null;  //let it be garbage collected before we get the next one!
+		
+		if (nextWindowStart >= totalRows)
+		{
+			close();
+			return;
+		}
+		
+		int start = nextWindowStart;
+		int end = Math.min(start + windowSize, totalRows);
+		
+		GridData gd;
+		{
+			if (nextWindow != null)
+			{
+				try
+				{
+					gd = nextWindow.join();
+				}
+				catch (CompletionException exc)
+				{
+					throw exc.getCause() instanceof UncheckedIOException ? (UncheckedIOException)exc.getCause() : exc;
+				}
+				nextWindow = null;
+			}
+			else
+			{
+				gd = fetchWindow(start, end);
+			}
+		}
+		
+		nextWindowStart = end;
+		
+		int n = gd.getRowMetadata() == null ? 0 : gd.getRowMetadata().size();
+		
+		if (n == 0)
+		{
+			//The sheet shrank while we were reading it!
+			nextWindowStart = totalRows;
+			close();
+			return;
+		}
+		
+		currentWindow = gd;
+		currentWindowStart = start;
+		currentWindowNumberOfRows = n;
+		indexInCurrentWindow = 0;
+		
+		if (prefetcher != null && nextWindowStart < totalRows)
+		{
+			int ps = nextWindowStart;
+			int pe = Math.min(ps + windowSize, totalRows);
+			nextWindow = CompletableFuture.supplyAsync(() -> fetchWindow(ps, pe), prefetcher);
+		}
+	}
+	
+	
+	/**
+	 * @param start inclusive 0-based row index
+	 * @param end exclusive 0-based row index
+	 */
+	protected GridData fetchWindow(int start, int end)
+	{
+		try
+		{
+			Sheet s = connection.readPlanner.readSubsheet(connection.service, spreadsheetId, subsheetIndex, (start+1)+":"+end);  //A1 rows are 1-based and inclusive on both ends
+			return RichsheetsConnectionForGoogleSheets.getGridData(s);
+		}
+		catch (IOException exc)
+		{
+			throw new UncheckedIOException(exc);
+		}
+	}
+	
+	
+	
+	
+	@Override
+	public void close()
+	{
+		if (nextWindow != null)
+		{
+			nextWindow.cancel(false);
+			nextWindow = null;
+		}
+		
+		if (prefetcher != null)
+			prefetcher.shutdownNow();
+	}
+}
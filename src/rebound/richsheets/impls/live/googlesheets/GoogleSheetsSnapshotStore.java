@@ -0,0 +1,512 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import rebound.richsheets.api.model.RichsheetsRow;
+import rebound.richsheets.api.model.RichsheetsTable;
+import rebound.richshets.model.cell.RichshetsCellContents;
+import rebound.richshets.model.cell.RichshetsCellContents.RichshetsJustification;
+import rebound.richshets.model.cell.RichshetsCellContents.RichshetsTextWrappingStrategy;
+import rebound.richshets.model.cell.RichshetsCellContentsRun;
+import rebound.richshets.model.cell.RichshetsCellContentsRun.RichshetsCellRunScriptLevel;
+import rebound.richshets.model.cell.RichshetsColor;
+import com.google.api.services.sheets.v4.model.DimensionProperties;
+import com.google.api.services.sheets.v4.model.GridData;
+import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.sun.istack.internal.Nullable;
+
+/**
+ * Decoded subsheets saved on disk (one file per subsheet, keyed by its spreadsheet's Drive modified time) so a freshly started process doesn't have to download and decode every sheet all over again when they haven't changed!
+ * The files are a compact binary encoding of the {@link RichsheetsTable} (cells' runs and formats, colors, row heights, column widths, frozen panes), memory-mapped to load.
+ *
+ * When the directory gets bigger than {@link #getMaxBytes()}, the least recently used snapshots are deleted.
+ * Anything wrong with a file (truncated, old format, someone else's) just counts as a miss; it's only a cache :3
+ *
+ * Set it with {@link RichsheetsConnectionForGoogleSheets#setSnapshotStore(GoogleSheetsSnapshotStore)}
+ */
+public class GoogleSheetsSnapshotStore
+{
+	protected static final int Magic = 0x52534E50;  //"RSNP"
+	protected static final int FormatVersion = 1;
+	protected static final String FileExtension = ".rsnap";
+	
+	protected static final int CellNotBlank = 1;
+	protected static final int CellHasBackgroundColor = 2;
+	
+	protected static final int RunBold = 1;
+	protected static final int RunUnderline = 2;
+	protected static final int RunItalic = 4;
+	protected static final int RunStrikethrough = 8;
+	protected static final int RunHasTextColor = 16;
+	
+	
+	
+	protected final File directory;
+	protected volatile long maxBytes;
+	
+	protected final AtomicLong hits = new AtomicLong();
+	protected final AtomicLong misses = new AtomicLong();
+	
+	
+	
+	public GoogleSheetsSnapshotStore(File directory, long maxBytes) throws IOException
+	{
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("Max size can't be negative: "+maxBytes);
+		
+		Files.createDirectories(directory.toPath());
+		
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+	
+	
+	
+	
+	public static class Snapshot
+	{
+		protected final int sheetId;
+		protected final RichsheetsTable table;
+		
+		public Snapshot(int sheetId, RichsheetsTable table)
+		{
+			this.sheetId = sheetId;
+			this.table = table;
+		}
+		
+		public int getSheetId()
+		{
+			return sheetId;
+		}
+		
+		/**
+		 * A new one decoded from the file each time, so it's fine to modify it.
+		 */
+		public RichsheetsTable getTable()
+		{
+			return table;
+		}
+		
+		/**
+		 * The subsheet's properties and row/column metadata as they were when the snapshot was taken, but no cells.
+		 * (For the things that want to know what the subsheet looked like before we change it, like {@link GoogleSheetsRequestCompactor})
+		 */
+		public Sheet toSheetWithoutCells()
+		{
+			List<DimensionProperties> rowMetadata = new ArrayList<>(table.getNumberOfRows());
+			for (RichsheetsRow row : table.getRows())
+				rowMetadata.add(new DimensionProperties().setPixelSize(row.getHeight()));
+			
+			List<DimensionProperties> columnMetadata = new ArrayList<>(table.getNumberOfColumns());
+			for (Integer width : table.getColumnWidths())
+				columnMetadata.add(new DimensionProperties().setPixelSize(width));
+			
+			GridData gd = new GridData();
+			gd.setRowMetadata(rowMetadata);
+			gd.setColumnMetadata(columnMetadata);
+			
+			GridProperties g = new GridProperties();
+			g.setRowCount(table.getNumberOfRows());
+			g.setColumnCount(table.getNumberOfColumns());
+			g.setFrozenRowCount(table.getFrozenRows());
+			g.setFrozenColumnCount(table.getFrozenColumns());
+			
+			SheetProperties p = new SheetProperties();
+			p.setSheetId(sheetId);
+			p.setGridProperties(g);
+			
+			Sheet s = new Sheet();
+			s.setProperties(p);
+			s.setData(Arrays.asList(gd));
+			return s;
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * @return null if we don't have one for exactly that modified time
+	 */
+	public @Nullable Snapshot load(String spreadsheetId, int subsheetIndex, Date modifiedTime)
+	{
+		File file = fileFor(spreadsheetId, subsheetIndex);
+		
+		Snapshot snapshot;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			snapshot = decode(buffer, spreadsheetId, subsheetIndex, modifiedTime.getTime());
+		}
+		catch (IOException | RuntimeException exc)
+		{
+			snapshot = null;  //not there, or unreadable (eg, truncated by a crash), or a format we don't know
+		}
+		
+		if (snapshot == null)
+		{
+			misses.incrementAndGet();
+			return null;
+		}
+		else
+		{
+			hits.incrementAndGet();
+			file.setLastModified(System.currentTimeMillis());  //for LRU eviction
+			return snapshot;
+		}
+	}
+	
+	
+	/**
+	 * Replaces any older snapshot of the subsheet.
+	 * This is written to a temp file first and then moved into place, so readers (even in other processes) never see half of one.
+	 * Make sure to call this before anything modifies the table!
+	 */
+	public void save(String spreadsheetId, int subsheetIndex, Date modifiedTime, int sheetId, RichsheetsTable table) throws IOException
+	{
+		File file = fileFor(spreadsheetId, subsheetIndex);
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		
+		try
+		{
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64*1024)))
+			{
+				encode(out, spreadsheetId, subsheetIndex, modifiedTime.getTime(), sheetId, table);
+			}
+			
+			try
+			{
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException exc)
+			{
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			temp.delete();  //if it's still there, something failed
+		}
+		
+		evict();
+	}
+	
+	
+	public void forget(String spreadsheetId, int subsheetIndex)
+	{
+		fileFor(spreadsheetId, subsheetIndex).delete();
+	}
+	
+	
+	/**
+	 * Deletes the least recently used snapshots until they all fit in {@link #getMaxBytes()}
+	 */
+	public synchronized void evict()
+	{
+		File[] files = directory.listFiles((d, name) -> name.endsWith(FileExtension));
+		
+		if (files == null)
+			return;
+		
+		long total = 0;
+		for (File f : files)
+			total += f.length();
+		
+		if (total <= maxBytes)
+			return;
+		
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		
+		for (File f : files)
+		{
+			if (total <= maxBytes)
+				break;
+			
+			long size = f.length();
+			
+			if (f.delete())
+				total -= size;
+		}
+	}
+	
+	
+	protected File fileFor(String spreadsheetId, int subsheetIndex)
+	{
+		//Spreadsheet id's are filename-safe in practice, but let's not bet the filesystem on it ^^'
+		byte[] hash;
+		try
+		{
+			hash = MessageDigest.getInstance("SHA-256").digest((spreadsheetId+"#"+subsheetIndex).getBytes(StandardCharsets.UTF_8));
+		}
+		catch (NoSuchAlgorithmException exc)
+		{
+			throw new AssertionError(exc);  //every JRE has to have SHA-256
+		}
+		
+		StringBuilder b = new StringBuilder(hash.length*2 + FileExtension.length());
+		for (int i = 0; i < 16; i++)
+			b.append(String.format("%02x", hash[i] & 0xFF));
+		b.append(FileExtension);
+		return new File(directory, b.toString());
+	}
+	
+	
+	
+	
+	public File getDirectory()
+	{
+		return directory;
+	}
+	
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+	
+	public void setMaxBytes(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+	
+	public long getNumberOfHits()
+	{
+		return hits.get();
+	}
+	
+	public long getNumberOfMisses()
+	{
+		return misses.get();
+	}
+	
+	
+	
+	
+	
+	
+	
+	/*
+	 * The format (all big-endian):
+	 *
+	 * 	int magic, int version
+	 * 	string spreadsheetId, int subsheetIndex, long modifiedTime  (to make sure it's really the one we want, since the file name is just a hash)
+	 * 	int sheetId, int frozenRows, int frozenColumns
+	 * 	int numberOfColumns, then that many column widths
+	 * 	int numberOfRows, then for each row: its height, then numberOfColumns cells
+	 *
+	 * Widths/heights are -1 for null.
+	 *
+	 * A cell is a flags byte, and if it's not blank: justification byte, wrapping byte, [background color], int numberOfRuns, then the runs
+	 * A run is a flags byte, script level byte, [text color], string
+	 * Colors are 0xRRGGBB ints, enums are ordinals (-1 for null), strings are an int length and that many UTF-8 bytes.
+	 */
+	
+	protected static void encode(DataOutputStream out, String spreadsheetId, int subsheetIndex, long modifiedTime, int sheetId, RichsheetsTable table) throws IOException
+	{
+		int numberOfColumns = table.getNumberOfColumns();
+		
+		out.writeInt(Magic);
+		out.writeInt(FormatVersion);
+		writeString(out, spreadsheetId);
+		out.writeInt(subsheetIndex);
+		out.writeLong(modifiedTime);
+		
+		out.writeInt(sheetId);
+		out.writeInt(table.getFrozenRows());
+		out.writeInt(table.getFrozenColumns());
+		
+		out.writeInt(numberOfColumns);
+		for (Integer width : table.getColumnWidths())
+			out.writeInt(width == null ? -1 : width);
+		
+		out.writeInt(table.getNumberOfRows());
+		for (RichsheetsRow row : table.getRows())
+		{
+			out.writeInt(row.getHeight() == null ? -1 : row.getHeight());
+			
+			List<RichshetsCellContents> cells = row.getCells();
+			for (int c = 0; c < numberOfColumns; c++)
+				encodeCell(out, c < cells.size() ? cells.get(c) : RichshetsCellContents.Blank);
+		}
+	}
+	
+	protected static void encodeCell(DataOutputStream out, RichshetsCellContents cell) throws IOException
+	{
+		if (cell == RichshetsCellContents.Blank)
+		{
+			out.writeByte(0);
+			return;
+		}
+		
+		RichshetsColor bg = cell.getBackgroundColor();
+		
+		out.writeByte(CellNotBlank | (bg != null ? CellHasBackgroundColor : 0));
+		out.writeByte(cell.getJustification() == null ? -1 : cell.getJustification().ordinal());
+		out.writeByte(cell.getWrappingStrategy() == null ? -1 : cell.getWrappingStrategy().ordinal());
+		if (bg != null)
+			out.writeInt(packColor(bg));
+		
+		List<RichshetsCellContentsRun> runs = cell.getContents();
+		out.writeInt(runs.size());
+		for (RichshetsCellContentsRun run : runs)
+		{
+			RichshetsColor color = run.getTextColor();
+			
+			out.writeByte((run.isBold() ? RunBold : 0) | (run.isUnderline() ? RunUnderline : 0) | (run.isItalic() ? RunItalic : 0) | (run.isStrikethrough() ? RunStrikethrough : 0) | (color != null ? RunHasTextColor : 0));
+			out.writeByte(run.getScriptLevel() == null ? -1 : run.getScriptLevel().ordinal());
+			if (color != null)
+				out.writeInt(packColor(color));
+			writeString(out, run.getContents());
+		}
+	}
+	
+	protected static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);  //not writeUTF(), that can only do 64KB and cells can be bigger!
+		out.writeInt(b.length);
+		out.write(b);
+	}
+	
+	protected static int packColor(RichshetsColor c)
+	{
+		return ((c.getR() & 0xFF) << 16) | ((c.getG() & 0xFF) << 8) | (c.getB() & 0xFF);
+	}
+	
+	
+	
+	
+	/**
+	 * @return null if it's not the snapshot we're looking for
+	 */
+	protected static @Nullable Snapshot decode(ByteBuffer in, String spreadsheetId, int subsheetIndex, long modifiedTime)
+	{
+		if (in.getInt() != Magic || in.getInt() != FormatVersion)
+			return null;
+		
+		if (!readString(in).equals(spreadsheetId) || in.getInt() != subsheetIndex || in.getLong() != modifiedTime)
+			return null;  //someone else's (hash collision!) or an older version of it
+		
+		int sheetId = in.getInt();
+		int frozenRows = in.getInt();
+		int frozenColumns = in.getInt();
+		
+		int numberOfColumns = readCount(in, 4);  //each has a width
+		List<Integer> columnWidths = new ArrayList<>(numberOfColumns);
+		for (int c = 0; c < numberOfColumns; c++)
+			columnWidths.add(readNullableSize(in));
+		
+		int numberOfRows = readCount(in, 4 + (long)numberOfColumns);  //each has a height and at least a byte per cell
+		List<RichsheetsRow> rows = new ArrayList<>(numberOfRows);
+		for (int r = 0; r < numberOfRows; r++)
+		{
+			Integer height = readNullableSize(in);
+			
+			List<RichshetsCellContents> cells = new ArrayList<>(numberOfColumns);
+			for (int c = 0; c < numberOfColumns; c++)
+				cells.add(decodeCell(in));
+			
+			rows.add(new RichsheetsRow(cells, height));
+		}
+		
+		if (in.hasRemaining())
+			return null;  //not what we wrote!
+		
+		RichsheetsTable table = new RichsheetsTable(rows);
+		table.setColumnWidths(columnWidths);
+		table.setFrozenRows(frozenRows);
+		table.setFrozenColumns(frozenColumns);
+		return new Snapshot(sheetId, table);
+	}
+	
+	protected static RichshetsCellContents decodeCell(ByteBuffer in)
+	{
+		GoogleSheetsInterner interner = GoogleSheetsInterner.getProcessWide();
+		
+		int flags = in.get();
+		
+		if ((flags & CellNotBlank) == 0)
+			return RichshetsCellContents.Blank;
+		
+		RichshetsJustification justification = readEnum(in, RichshetsJustification.values());
+		RichshetsTextWrappingStrategy wrapping = readEnum(in, RichshetsTextWrappingStrategy.values());
+		RichshetsColor bg = (flags & CellHasBackgroundColor) != 0 ? unpackColor(in.getInt()) : null;
+		
+		int numberOfRuns = readCount(in, 6);  //each has flags, a script level, and its text's length at least
+		List<RichshetsCellContentsRun> runs = new ArrayList<>(numberOfRuns);
+		for (int i = 0; i < numberOfRuns; i++)
+		{
+			int runFlags = in.get();
+			RichshetsCellRunScriptLevel scriptLevel = readEnum(in, RichshetsCellRunScriptLevel.values());
+			RichshetsColor color = (runFlags & RunHasTextColor) != 0 ? unpackColor(in.getInt()) : null;
+			String text = readString(in);
+			
+			runs.add(interner.run(text, (runFlags & RunBold) != 0, (runFlags & RunUnderline) != 0, (runFlags & RunItalic) != 0, (runFlags & RunStrikethrough) != 0, scriptLevel, color));
+		}
+		
+		return interner.cell(runs, justification, bg, wrapping);
+	}
+	
+	protected static String readString(ByteBuffer in)
+	{
+		int length = in.getInt();
+		
+		if (length < 0 || length > in.remaining())
+			throw new IllegalStateException("Corrupt snapshot");
+		
+		byte[] b = new byte[length];
+		in.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * For counts we're about to allocate lists for, so a corrupt (or not ours) file with a huge count is just a miss, not an OutOfMemoryError!
+	 * 
+	 * @param minBytesEach the fewest bytes each of them can take up in the file (so there can't be more than what's left divided by that)
+	 */
+	protected static int readCount(ByteBuffer in, long minBytesEach)
+	{
+		int count = in.getInt();
+		
+		if (count < 0 || count * Math.max(1, minBytesEach) > in.remaining())
+			throw new IllegalStateException("Corrupt snapshot");
+		
+		return count;
+	}
+	
+	protected static @Nullable Integer readNullableSize(ByteBuffer in)
+	{
+		int i = in.getInt();
+		return i == -1 ? null : i;
+	}
+	
+	protected static <E extends Enum<E>> E readEnum(ByteBuffer in, E[] values)
+	{
+		int i = in.get();
+		return i == -1 ? null : values[i];
+	}
+	
+	protected static RichshetsColor unpackColor(int rgb)
+	{
+		return GoogleSheetsInterner.getProcessWide().color((rgb >>> 16) & 0xFF, (rgb >>> 8) & 0xFF, rgb & 0xFF);
+	}
+}
@@ -0,0 +1,181 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import rebound.richsheets.api.model.RichsheetsRow;
+import rebound.richsheets.api.model.RichsheetsTable;
+import rebound.richshets.model.cell.RichshetsCellContents;
+import rebound.richshets.model.cell.RichshetsCellContentsRun;
+import rebound.richshets.model.cell.RichshetsColor;
+
+/**
+ * How much memory a decoded table's cells take, and how much they'd take if nothing were shared (ie, without {@link GoogleSheetsInterner}), so we can see what interning is actually saving on big tables.
+ *
+ * The byte counts are estimates for a 64-bit JVM with compressed oops (12 byte headers, 4 byte references, everything padded to 8), and count the cells/runs/colors/strings/lists, not the rows and table themselves (those are the same either way).
+ * For the real thing, compare {@link #usedHeapBytes()} before and after decoding (after a GC).
+ */
+public class GoogleSheetsTableHeapReport
+{
+	protected static final int CellBytes = align(12 + 4*4);  //runs, justification, background color, wrapping
+	protected static final int RunBytes = align(12 + 4 + 4*1 + 4 + 4);  //text, four booleans, script level, color
+	protected static final int ColorBytes = align(12 + 3*4);
+	protected static final int ListBytes = align(12 + 4 + 4) + align(16);  //an ArrayList, and its (mostly small) array
+	protected static final int StringBytes = align(12 + 4 + 4);  //plus its char/byte array
+	
+	
+	
+	protected long cells, distinctCells;
+	protected long runs, distinctRuns;
+	protected long colors, distinctColors;
+	protected long bytesAsIs, bytesIfUnshared;
+	
+	
+	
+	public static GoogleSheetsTableHeapReport of(RichsheetsTable table)
+	{
+		GoogleSheetsTableHeapReport r = new GoogleSheetsTableHeapReport();
+		
+		Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		
+		for (RichsheetsRow row : table.getRows())
+		{
+			for (RichshetsCellContents cell : row.getCells())
+			{
+				if (cell == RichshetsCellContents.Blank)
+					continue;  //always shared, so it's not interesting
+				
+				long cellBytes = CellBytes + ListBytes;
+				boolean newCell = seen.add(cell);
+				
+				r.cells++;
+				if (newCell)
+					r.distinctCells++;
+				
+				List<RichshetsCellContentsRun> runs = cell.getContents();
+				for (RichshetsCellContentsRun run : runs)
+				{
+					long runBytes = RunBytes + stringBytes(run.getContents());
+					boolean newRun = seen.add(run);
+					
+					r.runs++;
+					if (newRun)
+					{
+						r.distinctRuns++;
+						r.bytesAsIs += runBytes;
+					}
+					
+					cellBytes += runBytes + r.countColor(run.getTextColor(), seen);
+				}
+				
+				cellBytes += r.countColor(cell.getBackgroundColor(), seen);
+				
+				r.bytesIfUnshared += cellBytes;
+				if (newCell)
+					r.bytesAsIs += CellBytes + ListBytes;
+			}
+		}
+		
+		return r;
+	}
+	
+	
+	/**
+	 * @return the bytes it takes if it's not shared
+	 */
+	protected long countColor(RichshetsColor color, Set<Object> seen)
+	{
+		if (color == null)
+			return 0;
+		
+		colors++;
+		
+		if (seen.add(color))
+		{
+			distinctColors++;
+			bytesAsIs += ColorBytes;
+		}
+		
+		return ColorBytes;
+	}
+	
+	protected static long stringBytes(String s)
+	{
+		return StringBytes + align(16 + s.length());  //Latin-1 compact strings; double it for Java 8's char arrays
+	}
+	
+	protected static int align(int bytes)
+	{
+		return (bytes + 7) & ~7;
+	}
+	
+	
+	public static long usedHeapBytes()
+	{
+		Runtime r = Runtime.getRuntime();
+		return r.totalMemory() - r.freeMemory();
+	}
+	
+	
+	
+	
+	/**
+	 * @return how many non-blank cells there are
+	 */
+	public long getNumberOfCells()
+	{
+		return cells;
+	}
+	
+	/**
+	 * @return how many different cell objects there are (with interning, less than {@link #getNumberOfCells()})
+	 */
+	public long getNumberOfDistinctCells()
+	{
+		return distinctCells;
+	}
+	
+	public long getNumberOfRuns()
+	{
+		return runs;
+	}
+	
+	public long getNumberOfDistinctRuns()
+	{
+		return distinctRuns;
+	}
+	
+	public long getNumberOfColors()
+	{
+		return colors;
+	}
+	
+	public long getNumberOfDistinctColors()
+	{
+		return distinctColors;
+	}
+	
+	/**
+	 * @return the estimated bytes the cells actually take
+	 */
+	public long getEstimatedBytes()
+	{
+		return bytesAsIs;
+	}
+	
+	/**
+	 * @return the estimated bytes the cells would take if no two cells shared anything
+	 */
+	public long getEstimatedBytesIfUnshared()
+	{
+		return bytesIfUnshared;
+	}
+	
+	
+	@Override
+	public String toString()
+	{
+		return "cells="+cells+" (distinct "+distinctCells+"), runs="+runs+" (distinct "+distinctRuns+"), colors="+colors+" (distinct "+distinctColors+"), estimated bytes="+bytesAsIs+" (unshared "+bytesIfUnshared+", saved "+(bytesIfUnshared - bytesAsIs)+")";
+	}
+}
@@ -0,0 +1,107 @@
+package rebound.richsheets.impls.live.googlesheets;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpTransport;
+
+/**
+ * How {@link RichsheetsConnectionForGoogleSheets} talks HTTP to Google.
+ * One transport (and one {@link com.google.api.services.sheets.v4.Sheets} client on top of it) is made per {@link RichsheetsConnectionForGoogleSheets} and shared by all of its connections and threads, so connections get reused instead of paying for TLS handshakes on every operation :3
+ */
+public class GoogleSheetsTransportConfig
+{
+	public static enum TransportKind
+	{
+		/**
+		 * The JDK's HttpURLConnection (what we always used before).
+		 * It keeps connections alive by itself, but the pool size and keep-alive time can only be set by the JVM-wide "http.maxConnections" and "http.keepAlive" system properties, not by this config.
+		 */
+		JavaNet,
+		
+		/**
+		 * Whatever {@link #setCustomTransport(HttpTransport)} was given (eg, a MockHttpTransport for benchmarking/testing without Google!)
+		 */
+		Custom,
+	}
+	
+	
+	
+	protected TransportKind transportKind = TransportKind.JavaNet;
+	protected int connectTimeoutMillis = 20_000;
+	protected int readTimeoutMillis = 60_000;
+	protected boolean gzip = true;
+	protected HttpTransport customTransport = null;
+	
+	
+	
+	public TransportKind getTransportKind()
+	{
+		return transportKind;
+	}
+	
+	public void setTransportKind(TransportKind transportKind)
+	{
+		this.transportKind = transportKind;
+	}
+	
+	public int getConnectTimeoutMillis()
+	{
+		return connectTimeoutMillis;
+	}
+	
+	public void setConnectTimeoutMillis(int connectTimeoutMillis)
+	{
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+	
+	public int getReadTimeoutMillis()
+	{
+		return readTimeoutMillis;
+	}
+	
+	public void setReadTimeoutMillis(int readTimeoutMillis)
+	{
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+	
+	/**
+	 * Gzip our request bodies (those batchUpdates get big!) and ask Google to gzip its responses.
+	 */
+	public boolean isGzip()
+	{
+		return gzip;
+	}
+	
+	public void setGzip(boolean gzip)
+	{
+		this.gzip = gzip;
+	}
+	
+	public HttpTransport getCustomTransport()
+	{
+		return customTransport;
+	}
+	
+	/**
+	 * Also sets the transport kind to {@link TransportKind#Custom}
+	 */
+	public void setCustomTransport(HttpTransport customTransport)
+	{
+		this.customTransport = customTransport;
+		this.transportKind = TransportKind.Custom;
+	}
+	
+	
+	
+	
+	public HttpTransport newTransport() throws IOException, GeneralSecurityException
+	{
+		if (transportKind == TransportKind.JavaNet)
+			return GoogleNetHttpTransport.newTrustedTransport();
+		else if (transportKind == TransportKind.Custom)
+			return customTransport;
+		else
+			throw new IllegalStateException("Unknown transport kind: "+transportKind);
+	}
+}
@@ -1,27 +1,44 @@
 package rebound.richsheets.impls.live.googlesheets;
 
+import static java.util.Arrays.*;
 import static java.util.Collections.*;
 import static rebound.testing.WidespreadTestingUtilities.*;
 import static rebound.text.StringUtilities.*;
 import static rebound.util.collections.CollectionUtilities.*;
-import java.io.File;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.annotation.Nonnull;
 import rebound.exceptions.ImPrettySureThisNeverActuallyHappensRuntimeException;
-import rebound.exceptions.NotYetImplementedException;
-import rebound.exceptions.UnexpectedHardcodedEnumValueException;
+import rebound.richsheets.impls.live.googlesheets.GoogleSheetsObserver.Phase;
 import rebound.richsheets.api.model.RichsheetsRow;
 import rebound.richsheets.api.model.RichsheetsTable;
 import rebound.richsheets.api.operation.RichsheetsConnection;
 import rebound.richsheets.api.operation.RichsheetsOperation;
 import rebound.richsheets.api.operation.RichsheetsOperation.RichsheetsOperationWithDataTimestamp;
-import rebound.richsheets.api.operation.RichsheetsUnencodableFormatException;
 import rebound.richsheets.api.operation.RichsheetsWriteData;
 import rebound.richshets.model.cell.RichshetsCellContents;
 import rebound.richshets.model.cell.RichshetsCellContents.RichshetsJustification;
@@ -30,51 +47,83 @@ import rebound.richshets.model.cell.RichshetsCellContentsRun;
 import rebound.richshets.model.cell.RichshetsCellContentsRun.RichshetsCellRunScriptLevel;
 import rebound.richshets.model.cell.RichshetsColor;
 import com.google.api.client.auth.oauth2.Credential;
-import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
-import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
-import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
-import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
-import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.GenericJson;
 import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonString;
 import com.google.api.client.json.jackson2.JacksonFactory;
-import com.google.api.client.util.store.FileDataStoreFactory;
+import com.google.api.client.util.DateTime;
+import com.google.api.client.util.Key;
 import com.google.api.services.sheets.v4.Sheets;
-import com.google.api.services.sheets.v4.Sheets.Spreadsheets.Get;
 import com.google.api.services.sheets.v4.SheetsScopes;
+import com.google.api.services.sheets.v4.model.AppendCellsRequest;
 import com.google.api.services.sheets.v4.model.AppendDimensionRequest;
 import com.google.api.services.sheets.v4.model.AutoResizeDimensionsRequest;
-import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
+import com.google.api.services.sheets.v4.model.BatchUpdateValuesRequest;
 import com.google.api.services.sheets.v4.model.CellData;
 import com.google.api.services.sheets.v4.model.CellFormat;
 import com.google.api.services.sheets.v4.model.Color;
+import com.google.api.services.sheets.v4.model.DeleteDimensionRequest;
 import com.google.api.services.sheets.v4.model.DimensionProperties;
 import com.google.api.services.sheets.v4.model.DimensionRange;
 import com.google.api.services.sheets.v4.model.ExtendedValue;
 import com.google.api.services.sheets.v4.model.GridCoordinate;
 import com.google.api.services.sheets.v4.model.GridData;
 import com.google.api.services.sheets.v4.model.GridProperties;
+import com.google.api.services.sheets.v4.model.GridRange;
 import com.google.api.services.sheets.v4.model.InsertDimensionRequest;
 import com.google.api.services.sheets.v4.model.Request;
 import com.google.api.services.sheets.v4.model.RowData;
 import com.google.api.services.sheets.v4.model.Sheet;
 import com.google.api.services.sheets.v4.model.SheetProperties;
-import com.google.api.services.sheets.v4.model.Spreadsheet;
 import com.google.api.services.sheets.v4.model.TextFormat;
 import com.google.api.services.sheets.v4.model.TextFormatRun;
 import com.google.api.services.sheets.v4.model.UpdateCellsRequest;
 import com.google.api.services.sheets.v4.model.UpdateDimensionPropertiesRequest;
 import com.google.api.services.sheets.v4.model.UpdateSheetPropertiesRequest;
+import com.google.api.services.sheets.v4.model.ValueRange;
 import com.sun.istack.internal.Nullable;
 
-//TODO warnings observer!
-
 public class RichsheetsConnectionForGoogleSheets
+	implements Closeable
 {
-	protected Credential auth;
+	protected final GoogleSheetsCredentialProvider credentialProvider;  //shared, maybe
+	protected final boolean ownCredentialProvider;  //so close() closes it
 	protected String applicationName;
 	
-	protected NetHttpTransport httpTransport;
+	protected final GoogleSheetsTransportConfig transportConfig;
+	protected final HttpTransport httpTransport;  //wrapped in a GoogleSheetsByteCountingTransport, for the observer
+	protected final Sheets service;  //thread-safe, so one for all the connections!
+	protected final HttpRequestFactory driveRequestFactory;  //there's no Drive client library in lib/, and we only need one tiny call, so we just do it raw :3
+	
+	protected final GoogleSheetsApiCaller caller;
+	
+	protected final GoogleSheetsReadPlanner readPlanner;
+	
+	protected final AtomicLong requestsCompactedAway = new AtomicLong();
+	
+	protected final GoogleSheetsChunkedWriter chunkedWriter;
+	
+	protected volatile long dimensionsMaxAgeMillis = 10_000;
+	
+	protected final Map<String, Date> lastProcessedModifiedTimes = new ConcurrentHashMap<>();  //by "spreadsheetId#subsheetIndex"
+	protected volatile boolean conditionalPerformsUsed = false;  //so only then do we ask Drive again after writing (see rememberProcessed)
+	
+	protected volatile GoogleSheetsSnapshotStore snapshotStore = null;
+	
+	protected volatile ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();  //for decoding and column type inference
+	protected volatile int parallelDecodeThresholdRows = 2048;
+	protected volatile int parallelDecodeChunkRows = 512;
+	
+	protected volatile GoogleSheetsObserver observer = GoogleSheetsObserver.None;
+	
+	protected volatile Executor asyncExecutor = null;  //for the network parts of async operations; made when it's first needed if it's not set
+	protected ExecutorService ownAsyncExecutor = null;  //the one we made, so close() can shut it down
 	
 	
 	
@@ -85,442 +134,2310 @@ public class RichsheetsConnectionForGoogleSheets
 	
 	public RichsheetsConnectionForGoogleSheets(SimpleGoogleOAuthConfig auth, String applicationName) throws IOException, GeneralSecurityException
 	{
-		httpTransport = GoogleNetHttpTransport.newTrustedTransport();
-		this.auth = getCredentials(auth.getSecretsFile(), auth.getTokenCacheFile(), singletonList(SheetsScopes.SPREADSHEETS));
+		this(auth, applicationName, new GoogleSheetsTransportConfig());
+	}
+	
+	public RichsheetsConnectionForGoogleSheets(SimpleGoogleOAuthConfig auth, String applicationName, GoogleSheetsTransportConfig transportConfig) throws IOException, GeneralSecurityException
+	{
+		this(auth, applicationName, transportConfig, new GoogleSheetsApiCaller());
+	}
+	
+	/**
+	 * This doesn't log in until the first request (see {@link GoogleSheetsCredentialProvider#forInstalledApp(SimpleGoogleOAuthConfig)}).
+	 * 
+	 * @param caller this is what does the rate limiting and retrying; by default they all share the process-wide {@link GoogleSheetsRateLimiter}s
+	 */
+	public RichsheetsConnectionForGoogleSheets(SimpleGoogleOAuthConfig auth, String applicationName, GoogleSheetsTransportConfig transportConfig, GoogleSheetsApiCaller caller) throws IOException, GeneralSecurityException
+	{
+		this(GoogleSheetsCredentialProvider.forInstalledApp(auth), true, applicationName, transportConfig, caller);
+	}
+	
+	/**
+	 * For credentials you got some other way, or fake ones for benchmarking against a fake transport (see {@link GoogleSheetsTransportConfig#setCustomTransport(HttpTransport)})
+	 * 
+	 * @param credential needs the {@link #Scopes}
+	 */
+	public RichsheetsConnectionForGoogleSheets(Credential credential, String applicationName, GoogleSheetsTransportConfig transportConfig, GoogleSheetsApiCaller caller) throws IOException, GeneralSecurityException
+	{
+		this(GoogleSheetsCredentialProvider.forCredential(credential), true, applicationName, transportConfig, caller);
+	}
+	
+	public RichsheetsConnectionForGoogleSheets(GoogleSheetsCredentialProvider credentialProvider) throws IOException, GeneralSecurityException
+	{
+		this(credentialProvider, "Richsheets", new GoogleSheetsTransportConfig(), new GoogleSheetsApiCaller());
+	}
+	
+	/**
+	 * @param credentialProvider can be shared with other connections (which is better than each having their own, since they'll all share one access token); it's not closed when this is
+	 */
+	public RichsheetsConnectionForGoogleSheets(GoogleSheetsCredentialProvider credentialProvider, String applicationName, GoogleSheetsTransportConfig transportConfig, GoogleSheetsApiCaller caller) throws IOException, GeneralSecurityException
+	{
+		this(credentialProvider, false, applicationName, transportConfig, caller);
+	}
+	
+	protected RichsheetsConnectionForGoogleSheets(GoogleSheetsCredentialProvider credentialProvider, boolean ownCredentialProvider, String applicationName, GoogleSheetsTransportConfig transportConfig, GoogleSheetsApiCaller caller) throws IOException, GeneralSecurityException
+	{
+		this.caller = caller;
+		this.readPlanner = new GoogleSheetsReadPlanner(caller);
+		this.chunkedWriter = new GoogleSheetsChunkedWriter(caller);
+		this.transportConfig = transportConfig;
+		this.httpTransport = new GoogleSheetsByteCountingTransport(transportConfig.newTransport(), () -> this.observer);
+		this.credentialProvider = credentialProvider;
+		this.ownCredentialProvider = ownCredentialProvider;
 		this.applicationName = applicationName;
+		this.service = newSheetsClient();
+		this.driveRequestFactory = httpTransport.createRequestFactory(newRequestInitializer());
+	}
+	
+	
+	protected Sheets newSheetsClient()
+	{
+		GoogleSheetsTransportConfig config = transportConfig;
+		
+		return new Sheets.Builder(httpTransport, JsonFactory, newRequestInitializer())
+		.setApplicationName(config.isGzip() ? applicationName+" (gzip)" : applicationName)  //Google only gzips responses if the User-Agent says "gzip" in it!
+		.setGoogleClientRequestInitializer(request -> request.setDisableGZipContent(!config.isGzip()))
+		.build();
+	}
+	
+	/**
+	 * Authorization, timeouts, and compression, for every request we make (Sheets or otherwise).
+	 */
+	protected HttpRequestInitializer newRequestInitializer()
+	{
+		GoogleSheetsTransportConfig config = transportConfig;
+		
+		return request ->
+		{
+			credentialProvider.getCredential().initialize(request);  //the first request makes it; after that it's always fresh
+			request.setConnectTimeout(config.getConnectTimeoutMillis());
+			request.setReadTimeout(config.getReadTimeoutMillis());
+			
+			if (!config.isGzip())
+				request.getHeaders().setAcceptEncoding(null);  //it asks for gzip by default
+			
+			//(The observer's told about each exchange by the transport, which is the only place that sees the response bytes before they're un-gzipped)
+		};
+	}
+	
+	
+	/**
+	 * Closes the pooled connections to Google.  Don't use this or any of its connections after this!
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		chunkedWriter.close();
+		
+		synchronized (this)
+		{
+			if (ownAsyncExecutor != null)
+				ownAsyncExecutor.shutdown();
+		}
+		
+		if (ownCredentialProvider)
+			credentialProvider.close();
+		
+		httpTransport.shutdown();
+	}
+	
+	
+	/**
+	 * For the throttling/retry counters, and tuning the retries.
+	 */
+	public GoogleSheetsApiCaller getCaller()
+	{
+		return caller;
+	}
+	
+	public GoogleSheetsCredentialProvider getCredentialProvider()
+	{
+		return credentialProvider;
+	}
+	
+	/**
+	 * For tuning how big writes get split up :3
+	 */
+	public GoogleSheetsChunkedWriter getChunkedWriter()
+	{
+		return chunkedWriter;
+	}
+	
+	
+	
+	
+	public static enum WriteMode
+	{
+		/**
+		 * Re-encode every row of the table and send the whole grid starting at A1.
+		 */
+		RewriteEverything,
+		
+		/**
+		 * Diff the table the operation returns against the one we decoded and only send the rectangles of cells that actually changed (with {@link UpdateCellsRequest#setFields(String) fields masks} for just the parts of them that changed!)
+		 * If nothing changed at all, we don't even call batchUpdate :3
+		 */
+		OnlyChangedCells,
+	}
+	
+	
+	
+	public SubsheetConnection getConnectionFor(String spreadsheetId, int subsheetIndex)
+	{
+		return getConnectionFor(spreadsheetId, subsheetIndex, WriteMode.RewriteEverything);
+	}
+	
+	public SubsheetConnection getConnectionFor(String spreadsheetId, int subsheetIndex, @Nonnull WriteMode writeMode)
+	{
+		return new SubsheetConnection(spreadsheetId, subsheetIndex, writeMode);
+	}
+	
+	/**
+	 * For operations that only care about the text in the cells: see {@link ValuesOnlySubsheetConnection}
+	 */
+	public ValuesOnlySubsheetConnection getValuesOnlyConnectionFor(String spreadsheetId, int subsheetIndex)
+	{
+		return new ValuesOnlySubsheetConnection(spreadsheetId, subsheetIndex);
+	}
+	
+	/**
+	 * For operations on just a few columns of a wide subsheet: see {@link ProjectedSubsheetConnection}
+	 */
+	public ProjectedSubsheetConnection getConnectionFor(String spreadsheetId, int subsheetIndex, @Nonnull WriteMode writeMode, @Nonnull GoogleSheetsColumnProjection projection)
+	{
+		return new ProjectedSubsheetConnection(spreadsheetId, subsheetIndex, writeMode, projection);
+	}
+	
+	/**
+	 * @param columnIndices zero-based (so A is 0), in the order the operation gets them
+	 */
+	public ProjectedSubsheetConnection getConnectionForColumns(String spreadsheetId, int subsheetIndex, @Nonnull WriteMode writeMode, int... columnIndices)
+	{
+		return getConnectionFor(spreadsheetId, subsheetIndex, writeMode, GoogleSheetsColumnProjection.ofColumns(columnIndices));
+	}
+	
+	/**
+	 * @param headers the text in the frozen rows of the columns, in the order the operation gets them
+	 */
+	public ProjectedSubsheetConnection getConnectionForHeaders(String spreadsheetId, int subsheetIndex, @Nonnull WriteMode writeMode, String... headers)
+	{
+		return getConnectionFor(spreadsheetId, subsheetIndex, writeMode, GoogleSheetsColumnProjection.ofHeaders(headers));
+	}
+	
+	/**
+	 * For operating on a slice of a long subsheet: see {@link RowWindowSubsheetConnection}
+	 * 
+	 * @param startRow zero-based, inclusive
+	 * @param endRow zero-based, exclusive
+	 */
+	public RowWindowSubsheetConnection getConnectionForRows(String spreadsheetId, int subsheetIndex, @Nonnull WriteMode writeMode, int startRow, int endRow)
+	{
+		return new RowWindowSubsheetConnection(spreadsheetId, subsheetIndex, writeMode, startRow, endRow);
+	}
+	
+	/**
+	 * For operating on several subsheets at once, with one read and one write for all of them.
+	 */
+	public MultiSubsheetConnection getConnectionForSubsheets(String spreadsheetId, int... subsheetIndices)
+	{
+		return getConnectionForSubsheets(spreadsheetId, WriteMode.RewriteEverything, subsheetIndices);
 	}
 	
+	public MultiSubsheetConnection getConnectionForSubsheets(String spreadsheetId, @Nonnull WriteMode writeMode, int... subsheetIndices)
+	{
+		return new MultiSubsheetConnection(spreadsheetId, subsheetIndices, writeMode);
+	}
 	
 	
 	
-	public RichsheetsConnection getConnectionFor(String spreadsheetId, int subsheetIndex)
+	
+	/**
+	 * A {@link RichsheetsConnection} to one subsheet (tab) of one spreadsheet, through this {@link RichsheetsConnectionForGoogleSheets} (sharing its client, caches, and quotas).
+	 */
+	public class SubsheetConnection
+		implements RichsheetsConnection
 	{
-		return new RichsheetsConnection()
+		protected final String spreadsheetId;
+		protected final int subsheetIndex;
+		protected final WriteMode writeMode;
+		
+		public SubsheetConnection(String spreadsheetId, int subsheetIndex, @Nonnull WriteMode writeMode)
+		{
+			this.spreadsheetId = spreadsheetId;
+			this.subsheetIndex = subsheetIndex;
+			this.writeMode = writeMode;
+		}
+		
+		public String getSpreadsheetId()
+		{
+			return spreadsheetId;
+		}
+		
+		public int getSubsheetIndex()
+		{
+			return subsheetIndex;
+		}
+		
+		public WriteMode getWriteMode()
+		{
+			return writeMode;
+		}
+		
+		/**
+		 * @see ValuesOnlySubsheetConnection
+		 */
+		public boolean isValuesOnly()
+		{
+			return false;
+		}
+		
+		
+		
+		@Override
+		public boolean isCapableOfAutoresizingColumns()
+		{
+			return true;
+		}
+		
+		@Override
+		public Date getCurrentLastModifiedTimestamp() throws IOException
+		{
+			return getLastModifiedTime(spreadsheetId);
+		}
+		
+		@Override
+		public void perform(Integer maxRowsToRead, RichsheetsOperation operation) throws IOException
+		{
+			//Before reading, so if it changes while we're reading, the timestamp is older than the data (and so conditional performs won't miss the change!)
+			perform(maxRowsToRead, operation, getDriveModifiedTime(spreadsheetId));
+		}
+		
+		
+		/**
+		 * Like {@link #perform(Integer, RichsheetsOperation)}, but first asks Drive when the spreadsheet was last modified (a tiny request), and if that's not after <code>lastProcessed</code>, skips everything: no grid download, no operation, no writing!
+		 * 
+		 * @param lastProcessed the modified time of the data we last ran on (eg, from {@link #getLastProcessedModifiedTime()}), or null to always perform
+		 * @return true if it performed, false if it skipped because nothing changed
+		 */
+		public boolean performIfChangedSince(@Nullable Date lastProcessed, Integer maxRowsToRead, RichsheetsOperation operation) throws IOException
+		{
+			conditionalPerformsUsed = true;
+			
+			DriveFileModifiedTime modified = getDriveModifiedTime(spreadsheetId);
+			
+			if (lastProcessed != null && modified != null && modified.getModifiedDate() != null && !modified.getModifiedDate().after(lastProcessed))
+				return false;
+			
+			perform(maxRowsToRead, operation, modified);
+			return true;
+		}
+		
+		/**
+		 * {@link #performIfChangedSince(Date, Integer, RichsheetsOperation)} with the modified time of the data the last perform on this subsheet (through this {@link RichsheetsConnectionForGoogleSheets}) ran on, or of its own write if it wrote anything (so our own writes don't count as changes, and running this over and over on a spreadsheet nobody else touches only performs the first time).
+		 * 
+		 * To know our write's modified time, it asks Drive again after writing, but it only believes the answer if Drive's version of the file moved by exactly the number of batchUpdates we sent since we first asked (before reading).
+		 * If anyone else changed it anywhere in between (while we were reading, operating, writing, or just after), or Google counted our write as more than one change, it keeps the time from before the read instead.
+		 * So it never skips a change nobody's read; the worst that happens is one perform more than was needed :3
+		 * 
+		 * (That extra request after writing is only made once conditional performs have been used on this {@link RichsheetsConnectionForGoogleSheets}, so plain performs don't pay for it.)
+		 */
+		public boolean performIfChanged(Integer maxRowsToRead, RichsheetsOperation operation) throws IOException
+		{
+			return performIfChangedSince(getLastProcessedModifiedTime(), maxRowsToRead, operation);
+		}
+		
+		/**
+		 * @return the modified time (from Drive) of the data the last perform on this subsheet ran on (or of its write, if it wrote anything), or null if there hasn't been one (or we couldn't get the modified time)
+		 */
+		public @Nullable Date getLastProcessedModifiedTime()
+		{
+			conditionalPerformsUsed = true;  //it's going to be used for one!
+			return lastProcessedModifiedTimes.get(spreadsheetId+"#"+subsheetIndex);
+		}
+		
+		
+		/**
+		 * @param original what Drive said before we read, or null if we couldn't ask
+		 */
+		protected void perform(Integer maxRowsToRead, RichsheetsOperation operation, @Nullable DriveFileModifiedTime original) throws IOException
+		{
+			PerformState st = new PerformState(maxRowsToRead, operation);
+			st.setOriginal(original);
+			
+			read(st);
+			operate(st);
+			write(st);
+		}
+		
+		
+		
+		
+		/**
+		 * Like {@link #perform(Integer, RichsheetsOperation)}, but without blocking the caller.
+		 * The network parts (reading, writing) and the operation itself run on {@link #getAsyncExecutor()}, and decoding and encoding run on {@link #getForkJoinPool()}, so lots of these can be going at once without the downloads and the decoding holding each other up.
+		 * (The operation is your code, which might block or take ages, so it doesn't get to tie up the fork/join pool, which is the common pool unless you've set one!)
+		 * 
+		 * Cancelling the future (or it timing out) stops it before the next step, so if it's cancelled before it writes, it never writes.  (Once it's writing though, the write finishes, since a batchUpdate can't be taken back.)
+		 * 
+		 * @return completes when it's all written (or with the exception that stopped it; IOExceptions are passed through as-is, not wrapped)
+		 */
+		public CompletableFuture<Void> performAsync(Integer maxRowsToRead, RichsheetsOperation operation)
+		{
+			return performAsync(maxRowsToRead, operation, new CompletableFuture<>());
+		}
+		
+		/**
+		 * @param stepsFinished completed (the same way as the returned future) only once the steps have really stopped, which if the returned future was cancelled can be a while after it!  (a read or write that was already going keeps going until it's done)
+		 */
+		protected CompletableFuture<Void> performAsync(Integer maxRowsToRead, RichsheetsOperation operation, CompletableFuture<Void> stepsFinished)
+		{
+			CompletableFuture<Void> result = new CompletableFuture<>();
+			PerformState st = new PerformState(maxRowsToRead, operation);
+			
+			Executor io = getAsyncExecutor();
+			Executor cpu = forkJoinPool;
+			
+			CompletableFuture
+			.runAsync(() -> step(result, () ->
+			{
+				st.setOriginal(getDriveModifiedTime(spreadsheetId));
+				read(st);
+			}), io)
+			.thenRunAsync(() -> step(result, () -> st.ri = st.operation == null ? null : decode(st)), cpu)
+			.thenRunAsync(() -> step(result, () -> st.ro = performOperation(st, st.ri)), io)
+			.thenRunAsync(() -> step(result, () -> plan(st, st.ri, st.ro)), cpu)
+			.thenRunAsync(() -> step(result, () -> write(st)), io)
+			.whenComplete((r, exc) ->
+			{
+				if (exc == null)
+				{
+					result.complete(null);
+					stepsFinished.complete(null);
+				}
+				else
+				{
+					Throwable t = unwrapAsyncException(exc);
+					result.completeExceptionally(t);
+					stepsFinished.completeExceptionally(t);
+				}
+			});
+			
+			return result;
+		}
+		
+		/**
+		 * {@link #performAsync(Integer, RichsheetsOperation)} that fails with a {@link java.util.concurrent.TimeoutException} if it's not done in time.
+		 */
+		public CompletableFuture<Void> performAsync(Integer maxRowsToRead, RichsheetsOperation operation, long timeout, TimeUnit unit)
+		{
+			return GoogleSheetsExecutors.withTimeout(performAsync(maxRowsToRead, operation), timeout, unit);
+		}
+		
+		
+		
+		
+		/**
+		 * Everything that's passed from one step of a perform to the next.
+		 */
+		protected class PerformState
+		{
+			protected final Integer maxRowsToRead;
+			protected final RichsheetsOperation operation;
+			
+			protected Date lastModifiedTimestampOfOriginalData;
+			protected Long versionOfOriginalData;  //Drive's, at the same time
+			protected GoogleSheetsSnapshotStore snapshots;
+			protected Sheet s;
+			protected RichsheetsTable fromSnapshot;
+			protected List<Request> reqs;
+			
+			protected RichsheetsTable ri;  //just for async performs, between decoding and the operation and planning (which run on different executors)
+			protected RichsheetsWriteData ro;
+			
+			protected List<List<Object>> values;  //just for values-only connections
+			protected List<GoogleSheetsCellDiff.ChangedRegion> valueWrites;  //just for values-only connections: the cells of ro's table to write (encoded only once we know their number formats)
+			
+			protected int[] columns;  //just for projected connections: the subsheet's column index for each of the table's columns
+			protected int windowStart;  //just for row window connections: the subsheet's row index of the table's first row after the frozen ones
+			
+			public PerformState(Integer maxRowsToRead, RichsheetsOperation operation)
+			{
+				this.maxRowsToRead = maxRowsToRead;
+				this.operation = operation;
+			}
+			
+			public void setOriginal(@Nullable DriveFileModifiedTime original)
+			{
+				this.lastModifiedTimestampOfOriginalData = original == null ? null : original.getModifiedDate();
+				this.versionOfOriginalData = original == null ? null : original.version;
+			}
+		}
+		
+		
+		/**
+		 * Network!
+		 */
+		protected void read(PerformState st) throws IOException
+		{
+			refreshPinnedComments(spreadsheetId);
+			
+			
+			//Read!  (just our subsheet, and just the parts of the cells we decode)
+			//Or if we've already decoded exactly this version of it before, even in a previous run, don't read it at all! :D
+			st.snapshots = st.maxRowsToRead == null && st.lastModifiedTimestampOfOriginalData != null && st.operation != null ? snapshotStore : null;  //only whole subsheets are snapshotted
+			
+			long start = startPhase();
+			
+			GoogleSheetsSnapshotStore.Snapshot snapshot = st.snapshots == null ? null : st.snapshots.load(spreadsheetId, subsheetIndex, st.lastModifiedTimestampOfOriginalData);
+			
+			if (snapshot != null)
+			{
+				st.s = snapshot.toSheetWithoutCells();
+				st.fromSnapshot = snapshot.getTable();
+			}
+			else
+			{
+				//If there are less than N rows, this won't fail, it'll just use a least() function and return as many as it can (in this case of max=2, 0 or 1)  I tested this just now.  —Sean @ 2022-05-14 07:41:40 z
+				st.s = readPlanner.readSubsheet(service, spreadsheetId, subsheetIndex, st.maxRowsToRead == null ? null : "1:"+st.maxRowsToRead);
+				st.fromSnapshot = null;
+			}
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Read, start);
+		}
+		
+		
+		/**
+		 * CPU!  (decode, operate, and work out what to write; {@link #performAsync(Integer, RichsheetsOperation)} does these as separate steps, see there)
+		 */
+		protected void operate(PerformState st)
+		{
+			RichsheetsTable ri = st.operation == null ? null : decode(st);
+			RichsheetsWriteData ro = performOperation(st, ri);
+			plan(st, ri, ro);
+		}
+		
+		/**
+		 * The user's operation, on the decoded table.
+		 * @return null if there's no operation
+		 */
+		protected @Nullable RichsheetsWriteData performOperation(PerformState st, RichsheetsTable ri)
+		{
+			if (st.operation == null)
+				return null;
+			
+			long start = startPhase();
+			
+			RichsheetsWriteData ro = st.operation instanceof RichsheetsOperationWithDataTimestamp ? ((RichsheetsOperationWithDataTimestamp)st.operation).performInMemory(ri, st.lastModifiedTimestampOfOriginalData) : st.operation.performInMemory(ri);
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Operation, start);
+			
+			return ro;
+		}
+		
+		protected RichsheetsTable decode(PerformState st)
+		{
+			return decode(st.s, st.fromSnapshot, st.snapshots, st.lastModifiedTimestampOfOriginalData);
+		}
+		
+		protected void plan(PerformState st, RichsheetsTable ri, @Nullable RichsheetsWriteData ro)
+		{
+			st.reqs = planWrites(st.s, st.fromSnapshot == null, ri, ro, st.maxRowsToRead);
+		}
+		
+		
+		/**
+		 * Network!
+		 */
+		protected void write(PerformState st) throws IOException
+		{
+			List<Request> reqs = st.reqs;
+			int sent = 0;
+			
+			if (reqs != null)
+			{
+				long start = startPhase();
+				
+				//One batchUpdate if it's not too big, or chunks of it after the sheet's been expanded if it is!
+				//And if nothing changed, no need to bother Google at all! :D
+				sent = chunkedWriter.write(service, spreadsheetId, reqs);
+				
+				if (!reqs.isEmpty())
+					readPlanner.markStale(spreadsheetId);  //the size might have changed!
+				
+				finishPhase(spreadsheetId, subsheetIndex, Phase.Write, start);
+			}
+			
+			
+			rememberProcessed(spreadsheetId, new int[]{subsheetIndex}, st.lastModifiedTimestampOfOriginalData, st.versionOfOriginalData, sent);
+		}
+		
+		
+		
+		
+		/**
+		 * The fast way to add rows to the end of a log-like subsheet: it only reads the frozen (header) rows, never the body, and only encodes and sends the new rows (with an AppendCellsRequest, which Google puts after the last row with anything in it).
+		 * So it takes the same time whether the subsheet has ten rows or a million :D
+		 * 
+		 * Row heights of the new rows are ignored (they get the default), since we don't know which rows they'll end up being without reading the body.
+		 * 
+		 * @return how many rows were appended
+		 */
+		public int performAppend(AppendOperation operation) throws IOException
+		{
+			long start = startPhase();
+			
+			//Read!  (just the properties, and the header if there is one)
+			SheetProperties props = readPlanner.getSubsheetProperties(service, spreadsheetId, subsheetIndex, dimensionsMaxAgeMillis);
+			GridProperties g = props.getGridProperties();
+			int frozenRows = g.getFrozenRowCount() == null ? 0 : g.getFrozenRowCount();
+			int frozenColumns = g.getFrozenColumnCount() == null ? 0 : g.getFrozenColumnCount();
+			int currentColumns = g.getColumnCount() == null ? 0 : g.getColumnCount();
+			
+			RichsheetsTable header;
+			{
+				if (frozenRows > 0)
+				{
+					header = convertToRichsheets(readPlanner.readSubsheet(service, spreadsheetId, subsheetIndex, "1:"+frozenRows), frozenColumns, frozenRows);
+				}
+				else
+				{
+					header = new RichsheetsTable(new ArrayList<>());
+					header.setFrozenColumns(frozenColumns);
+				}
+			}
+			
+			
+			start = finishPhase(spreadsheetId, subsheetIndex, Phase.Read, start);
+			
+			//Operate!
+			List<RichsheetsRow> newRows = operation.rowsToAppend(header);
+			
+			start = finishPhase(spreadsheetId, subsheetIndex, Phase.Operation, start);
+			
+			if (newRows == null || newRows.isEmpty())
+				return 0;
+			
+			
+			//Encode just the new rows!
+			int newColumns = 0;
+			List<RowData> encoded = new ArrayList<>(newRows.size());
+			{
+				RichsheetsTable t = new RichsheetsTable(newRows);
+				t.setFrozenColumns(frozenColumns);
+				GoogleSheetsColumnTypes columnTypes = GoogleSheetsColumnTypes.infer(t, null, forkJoinPool, GoogleSheetsColumnTypes.DefaultParallelThresholdCells);
+				
+				GoogleSheetsCellEncoder encoder = new GoogleSheetsCellEncoder();
+				
+				for (RichsheetsRow row : newRows)
+				{
+					List<RichshetsCellContents> cells = row.getCells();
+					newColumns = Math.max(newColumns, cells.size());
+					encoded.add(encoder.encodeRow(cells, 0, cells.size(), columnTypes));
+				}
+			}
+			
+			
+			start = finishPhase(spreadsheetId, subsheetIndex, Phase.Encode, start);
+			
+			
+			//Write!
+			//AppendCells adds rows as needed, but not columns
+			if (newColumns > currentColumns)
+			{
+				AppendDimensionRequest req = new AppendDimensionRequest();
+				req.setSheetId(props.getSheetId());
+				req.setDimension("COLUMNS");
+				req.setLength(newColumns - currentColumns);
+				
+				Request r = new Request();
+				r.setAppendDimension(req);
+				chunkedWriter.write(service, spreadsheetId, singletonList(r));
+			}
+			
+			//In order, so batches of them go one after another (not in parallel like UpdateCells)
+			long maxBytes = chunkedWriter.getBatchBytes();
+			int first = 0;
+			while (first < encoded.size())
+			{
+				long bytes = 0;
+				int end = first;
+				while (end < encoded.size() && (end == first || bytes + GoogleSheetsChunkedWriter.estimateBytes(encoded.get(end)) <= maxBytes))
+				{
+					bytes += GoogleSheetsChunkedWriter.estimateBytes(encoded.get(end));
+					end++;
+				}
+				
+				AppendCellsRequest req = new AppendCellsRequest();
+				req.setSheetId(props.getSheetId());
+				req.setRows(new ArrayList<>(encoded.subList(first, end)));
+				req.setFields(GoogleSheetsCellEncoder.getFieldsMask(GoogleSheetsCellDiff.ChangedEverything));
+				
+				Request r = new Request();
+				r.setAppendCells(req);
+				chunkedWriter.write(service, spreadsheetId, singletonList(r));
+				
+				first = end;
+			}
+			
+			readPlanner.markStale(spreadsheetId);  //it's bigger now!
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Write, start);
+			
+			return newRows.size();
+		}
+		
+		
+		
+		
+		/**
+		 * The table the operation gets: from the snapshot if we have one, otherwise decoded from what we read (and snapshotted, if we're doing that).
+		 */
+		protected RichsheetsTable decode(Sheet s, @Nullable RichsheetsTable fromSnapshot, @Nullable GoogleSheetsSnapshotStore snapshots, @Nullable Date lastModifiedTimestampOfOriginalData)
+		{
+			if (fromSnapshot != null)
+				return fromSnapshot;
+			
+			GridProperties g = s.getProperties().getGridProperties();
+			Integer fr = g.getFrozenRowCount();
+			Integer fc = g.getFrozenColumnCount();
+			
+			GoogleSheetsObserver observer = RichsheetsConnectionForGoogleSheets.this.observer;
+			long start = startPhase();
+			
+			RichsheetsTable ri = convertToRichsheets(s, fc == null ? 0 : fc, fr == null ? 0 : fr);
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Decode, start);
+			if (observer.isEnabled())
+				observer.decoded(spreadsheetId, subsheetIndex, ri.getNumberOfRows(), (long)ri.getNumberOfRows() * ri.getNumberOfColumns());
+			
+			if (snapshots != null && lastModifiedTimestampOfOriginalData != null)
+			{
+				try
+				{
+					snapshots.save(spreadsheetId, subsheetIndex, lastModifiedTimestampOfOriginalData, s.getProperties().getSheetId(), ri);  //before the operation can modify it!
+				}
+				catch (IOException exc)
+				{
+					//It's only a cache; we just won't have a snapshot next time
+					if (observer.isEnabled())
+						observer.warning(spreadsheetId, "Couldn't save a snapshot of subsheet "+subsheetIndex, exc);
+				}
+			}
+			
+			return ri;
+		}
+		
+		
+		/**
+		 * Everything that needs sending to Google to make the subsheet look like what the operation returned (already compacted), in order.
+		 * 
+		 * @param s the subsheet as we read it (or its properties and metadata from a snapshot)
+		 * @param sheetHasCells false if s came from a snapshot (so there's no formatting to go on)
+		 * @param ri the table we gave the operation
+		 * @param ro what the operation returned
+		 * @return null if there's nothing to write at all (the operation returned null), or empty if it turns out nothing changed
+		 */
+		protected @Nullable List<Request> planWrites(Sheet s, boolean sheetHasCells, RichsheetsTable ri, @Nullable RichsheetsWriteData ro, Integer maxRowsToRead)
+		{
+			GoogleSheetsObserver observer = RichsheetsConnectionForGoogleSheets.this.observer;
+			long start = startPhase();
+			
+			//Work out what to change!
+			final boolean readonly;
+			final int columnsToAdd;
+			final int rowsToAdd;
+			final Integer setFrozenColumnsToThisOrDoNothingIfNull;
+			final Integer setFrozenRowsToThisOrDoNothingIfNull;
+			final Collection<Integer> columnsToAutoResize;
+			final List<RowData> dataaaaaaaaaaaToWrite;
+			final List<Request> changedCellsToWrite;
+			final List<Integer> columnWidths;
+			final List<Integer> rowHeights;
+			final int sheetId;
+			{
+				sheetId = s.getProperties().getSheetId();
+				
+				final int originalFrozenRowsCount;
+				final int originalFrozenColumnsCount;
+				{
+					GridProperties g = s.getProperties().getGridProperties();
+					Integer fr = g.getFrozenRowCount();
+					Integer fc = g.getFrozenColumnCount();
+					originalFrozenRowsCount = fr == null ? 0 : fr;
+					originalFrozenColumnsCount = fc == null ? 0 : fc;
+				}
+				
+				
+				
+				
+				if (ro == null)
+				{
+					readonly = true;
+					columnsToAdd = 0;
+					rowsToAdd = 0;
+					setFrozenColumnsToThisOrDoNothingIfNull = null;
+					setFrozenRowsToThisOrDoNothingIfNull = null;
+					columnsToAutoResize = emptyList();
+					dataaaaaaaaaaaToWrite = null;
+					changedCellsToWrite = null;
+					rowHeights = null;
+					columnWidths = null;
+				}
+				else if (ro.getTable() == null)
+				{
+					readonly = false;
+					columnsToAdd = 0;
+					rowsToAdd = 0;
+					setFrozenColumnsToThisOrDoNothingIfNull = null;
+					setFrozenRowsToThisOrDoNothingIfNull = null;
+					columnsToAutoResize = ro.getColumnsToAutoresize();
+					dataaaaaaaaaaaToWrite = null;
+					changedCellsToWrite = null;
+					rowHeights = null;
+					columnWidths = null;
+				}
+				else if (isValuesOnly())
+				{
+					//Just its shape; the values themselves are written separately (see ValuesOnlySubsheetConnection), and the formatting not at all
+					readonly = false;
+					columnsToAdd = ro.getTable().getNumberOfColumns() - getNumberOfColumns(s);
+					rowsToAdd = ro.getTable().getNumberOfRows() - getNumberOfRows(s);
+					setFrozenColumnsToThisOrDoNothingIfNull = ro.getTable().getFrozenColumns() == originalFrozenColumnsCount ? null : ro.getTable().getFrozenColumns();
+					setFrozenRowsToThisOrDoNothingIfNull = ro.getTable().getFrozenRows() == originalFrozenRowsCount ? null : ro.getTable().getFrozenRows();
+					columnsToAutoResize = ro.getColumnsToAutoresize();
+					dataaaaaaaaaaaToWrite = null;
+					changedCellsToWrite = null;
+					rowHeights = null;
+					columnWidths = null;
+				}
+				else
+				{
+					readonly = false;
+					columnsToAdd = ro.getTable().getNumberOfColumns() - getNumberOfColumns(s);
+					rowsToAdd = ro.getTable().getNumberOfRows() - getNumberOfRows(s);
+					setFrozenColumnsToThisOrDoNothingIfNull = ro.getTable().getFrozenColumns() == originalFrozenColumnsCount ? null : ro.getTable().getFrozenColumns();
+					setFrozenRowsToThisOrDoNothingIfNull = ro.getTable().getFrozenRows() == originalFrozenRowsCount ? null : ro.getTable().getFrozenRows();
+					columnsToAutoResize = ro.getColumnsToAutoresize();
+					
+					
+					
+					
+					int newFrozenRowsCount = ro.getTable().getFrozenRows();
+					int newNumberOfColumns = ro.getTable().getNumberOfColumns();
+					int newNumberOfRows = ro.getTable().getNumberOfRows();
+					
+					
+					//What's in each column (booleans, numbers, dates, or just text) so they're written as those, not all as strings
+					GoogleSheetsColumnTypes columnTypes = GoogleSheetsColumnTypes.infer(ro.getTable(), sheetHasCells ? s : null, forkJoinPool, GoogleSheetsColumnTypes.DefaultParallelThresholdCells);
+					
+					
+					
+					
+					rowHeights = new ArrayList<>();
+					columnWidths = ro.getTable().getColumnWidths();
+					
+					for (RichsheetsRow ourRow : ro.getTable().getRows())
+						rowHeights.add(ourRow.getHeight());
+					
+					
+					GoogleSheetsCellEncoder encoder = new GoogleSheetsCellEncoder();
+					
+					if (writeMode == WriteMode.OnlyChangedCells)
+					{
+						dataaaaaaaaaaaToWrite = null;
+						changedCellsToWrite = new ArrayList<>();
+						
+						for (GoogleSheetsCellDiff.ChangedRegion region : GoogleSheetsCellDiff.diff(ri, ro.getTable()))
+							addRegionWrites(changedCellsToWrite, sheetId, ro.getTable(), region, null, null, newFrozenRowsCount, columnTypes, encoder);
+					}
+					else
+					{
+						dataaaaaaaaaaaToWrite = new ArrayList<>();
+						changedCellsToWrite = null;
+						
+						for (int r = 0; r < newNumberOfRows; r++)
+							dataaaaaaaaaaaToWrite.add(encoder.encodeRow(ro.getTable().getRows().get(r).getCells(), 0, newNumberOfColumns, r < newFrozenRowsCount ? null : columnTypes));  //headers are always text
+					}
+				}
+			}
+			
+			
+			
+			
+			
+			
+			
+			
+			
+			
+			
+			
+			if (readonly)
+				return null;
+			
+			
+			// https://googleapis.dev/java/google-api-services-sheets/latest/com/google/api/services/sheets/v4/model/Request.html
+			// https://developers.google.com/sheets/api/reference/rest/v4/spreadsheets/request
+			List<Request> reqs;
+			{
+				reqs = new ArrayList<>();
+				
+				//Expanding the sheet must come before everything else!
+				addExpandRequests(reqs, sheetId, columnsToAdd, rowsToAdd, maxRowsToRead);
+				
+				//Set frozen columns/rows
+				addFrozenPanesRequest(reqs, sheetId, setFrozenColumnsToThisOrDoNothingIfNull, setFrozenRowsToThisOrDoNothingIfNull);
+				
+				
+				
+				
+				
+				//Set! The! Dataaaaaaaaaaaa!  \:D/
+				if (dataaaaaaaaaaaToWrite != null)
+					reqs.add(newUpdateCellsRequest(sheetId, 0, 0, columnWidths.size(), dataaaaaaaaaaaToWrite, GoogleSheetsCellDiff.ChangedEverything));  //(there's a width for every column)
+				
+				//Or just the bits that changed!
+				if (changedCellsToWrite != null)
+					reqs.addAll(changedCellsToWrite);
+				
+				
+				
+				
+				//Set the row heights!
+				if (rowHeights != null)
+				{
+					int n = rowHeights.size();
+					
+					for (int rowIndex = 0; rowIndex < n; rowIndex++)  //contiguous ranges get merged by the compactor
+						reqs.add(newPixelSizeRequest(sheetId, "ROWS", rowIndex, rowHeights.get(rowIndex), DefaultGoogleSheetsRowHeight));
+				}
+				
+				
+				
+				
+				
+				//Set the column widths!
+				if (columnWidths != null)
+				{
+					int n = columnWidths.size();
+					
+					for (int columnIndex = 0; columnIndex < n; columnIndex++)  //contiguous ranges get merged by the compactor
+						reqs.add(newPixelSizeRequest(sheetId, "COLUMNS", columnIndex, columnWidths.get(columnIndex), DefaultGoogleSheetsColumnWidth));
+				}
+				
+				
+				
+				
+				//Resizing columns (afterrrrrrr setting data and column widths if we do that! :D )
+				addAutoResizeRequests(reqs, sheetId, columnsToAutoResize);
+				
+				
+				
+				
+				//Don't send things that don't do anything, and merge the things that can be merged!
+				requestsCompactedAway.addAndGet(GoogleSheetsRequestCompactor.compact(reqs, s));
+			}
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Encode, start);
+			if (observer.isEnabled())
+				observer.encoded(spreadsheetId, subsheetIndex, reqs, countCells(reqs));
+			
+			return reqs;
+		}
+		
+		
+		
+		/**
+		 * Growing the grid (which must come before everything else!)
+		 * 
+		 * @param maxRowsToRead if the rows were only read up to here, new rows are inserted here instead of appended to the end (so they don't end up after the rows we didn't read)
+		 */
+		protected void addExpandRequests(List<Request> reqs, int sheetId, int columnsToAdd, int rowsToAdd, Integer maxRowsToRead)
+		{
+			if (columnsToAdd > 0)
+			{
+				AppendDimensionRequest req = new AppendDimensionRequest();
+				req.setDimension("COLUMNS");
+				req.setSheetId(sheetId);
+				req.setLength(columnsToAdd);
+				
+				Request r = new Request();  //note that these can only hold one typed request!
+				r.setAppendDimension(req);
+				reqs.add(r);
+			}
+			
+			
+			if (rowsToAdd > 0)
+			{
+				if (maxRowsToRead == null)
+				{
+					AppendDimensionRequest req = new AppendDimensionRequest();
+					req.setDimension("ROWS");
+					req.setSheetId(sheetId);
+					req.setLength(rowsToAdd);
+					
+					Request r = new Request();  //note that these can only hold one typed request!
+					r.setAppendDimension(req);
+					reqs.add(r);
+				}
+				else
+				{
+					InsertDimensionRequest req = new InsertDimensionRequest();
+					
+					DimensionRange range = new DimensionRange();
+					range.setDimension("ROWS");
+					range.setSheetId(sheetId);
+					range.setStartIndex(maxRowsToRead);
+					range.setEndIndex(maxRowsToRead + rowsToAdd);
+					
+					req.setRange(range);
+					
+					Request r = new Request();  //note that these can only hold one typed request!
+					r.setInsertDimension(req);
+					reqs.add(r);
+				}
+			}
+		}
+		
+		/**
+		 * Does nothing if they're both null
+		 */
+		protected void addFrozenPanesRequest(List<Request> reqs, int sheetId, @Nullable Integer setFrozenColumnsToThisOrDoNothingIfNull, @Nullable Integer setFrozenRowsToThisOrDoNothingIfNull)
+		{
+			if (setFrozenColumnsToThisOrDoNothingIfNull != null || setFrozenRowsToThisOrDoNothingIfNull != null)
+			{
+				GridProperties gp = new GridProperties();
+				
+				if (setFrozenColumnsToThisOrDoNothingIfNull != null)
+					gp.setFrozenColumnCount(setFrozenColumnsToThisOrDoNothingIfNull);
+				
+				if (setFrozenRowsToThisOrDoNothingIfNull != null)
+					gp.setFrozenRowCount(setFrozenRowsToThisOrDoNothingIfNull);
+				
+				SheetProperties props = new SheetProperties();
+				props.setSheetId(sheetId);
+				props.setGridProperties(gp);
+				
+				UpdateSheetPropertiesRequest req = new UpdateSheetPropertiesRequest();
+				req.setProperties(props);
+				req.setFields(GoogleSheetsRequestCompactor.frozenPanesFieldsMask(gp));
+				
+				Request r = new Request();  //note that these can only hold one typed request!
+				r.setUpdateSheetProperties(req);
+				reqs.add(r);
+			}
+		}
+		
+		/**
+		 * Writes the table's cells in the region to wherever they go on the subsheet: one UpdateCells for each piece of it that's contiguous there.
+		 * 
+		 * @param columns the subsheet's column index for each of the table's columns, or null if they're the same
+		 * @param rows the subsheet's row index for each of the table's rows, or null if they're the same
+		 * @param columnTypes null to write everything as text
+		 */
+		protected void addRegionWrites(List<Request> reqs, int sheetId, RichsheetsTable t, GoogleSheetsCellDiff.ChangedRegion region, @Nullable int[] columns, @Nullable int[] rows, int frozenRows, @Nullable GoogleSheetsColumnTypes columnTypes, GoogleSheetsCellEncoder encoder)
+		{
+			int r0 = region.getStartRowIndex();
+			while (r0 < region.getEndRowIndex())
+			{
+				int r1 = r0 + 1;
+				while (r1 < region.getEndRowIndex() && (rows == null || rows[r1] == rows[r1-1] + 1))
+					r1++;
+				
+				int c0 = region.getStartColumnIndex();
+				while (c0 < region.getEndColumnIndex())
+				{
+					int c1 = c0 + 1;
+					while (c1 < region.getEndColumnIndex() && (columns == null || columns[c1] == columns[c1-1] + 1))
+						c1++;
+					
+					List<RowData> data = new ArrayList<>(r1 - r0);
+					for (int r = r0; r < r1; r++)
+						data.add(encoder.encodeRow(t.getRows().get(r).getCells(), c0, c1, r < frozenRows ? null : columnTypes));  //headers are always text
+					
+					reqs.add(newUpdateCellsRequest(sheetId, columns == null ? c0 : columns[c0], rows == null ? r0 : rows[r0], c1 - c0, data, region.getChanges()));
+					
+					c0 = c1;
+				}
+				
+				r0 = r1;
+			}
+		}
+		
+		/**
+		 * @param changes the {@link GoogleSheetsCellDiff} Changed* constants for what to overwrite
+		 */
+		protected Request newUpdateCellsRequest(int sheetId, int startColumn, int startRow, int numberOfColumns, List<RowData> rows, int changes)
+		{
+			//A range, not just a starting corner, so the blank cells the encoder leaves off the ends of rows get cleared
+			GridRange range = new GridRange();
+			range.setSheetId(sheetId);
+			range.setStartColumnIndex(startColumn);  //inclusive
+			range.setEndColumnIndex(startColumn + numberOfColumns);  //exclusive
+			range.setStartRowIndex(startRow);  //inclusive
+			range.setEndRowIndex(startRow + rows.size());  //exclusive
+			
+			UpdateCellsRequest req = new UpdateCellsRequest();
+			req.setRange(range);
+			req.setRows(rows);
+			req.setFields(GoogleSheetsCellEncoder.getFieldsMask(changes));
+			
+			Request r = new Request();  //note that these can only hold one typed request!
+			r.setUpdateCells(req);
+			return r;
+		}
+		
+		/**
+		 * One row's height or one column's width (contiguous ones get merged by the compactor)
+		 * 
+		 * @param dimension "ROWS" or "COLUMNS"
+		 * @param size null for the default
+		 */
+		protected Request newPixelSizeRequest(int sheetId, String dimension, int index, @Nullable Integer size, int defaultSize)
+		{
+			DimensionRange range = new DimensionRange();
+			range.setSheetId(sheetId);
+			range.setDimension(dimension);
+			range.setStartIndex(index);  //inclusive
+			range.setEndIndex(index+1);  //exclusive
+			
+			DimensionProperties props = new DimensionProperties();
+			props.setPixelSize(size == null ? defaultSize : size);
+			
+			UpdateDimensionPropertiesRequest req = new UpdateDimensionPropertiesRequest();
+			req.setProperties(props);
+			req.setRange(range);
+			req.setFields("pixelSize");
+			
+			Request r = new Request();  //note that these can only hold one typed request!
+			r.setUpdateDimensionProperties(req);
+			return r;
+		}
+		
+		/**
+		 * Afterrrrrrr setting data and column widths if we do that! :D
+		 */
+		protected void addAutoResizeRequests(List<Request> reqs, int sheetId, Collection<Integer> columnsToAutoResize)
+		{
+			for (int columnIndex : columnsToAutoResize)  //contiguous ranges get merged by the compactor
+			{
+				DimensionRange dims = new DimensionRange();
+				dims.setSheetId(sheetId);
+				dims.setDimension("COLUMNS");
+				dims.setStartIndex(columnIndex);  //inclusive
+				dims.setEndIndex(columnIndex+1);  //exclusive
+				
+				AutoResizeDimensionsRequest req = new AutoResizeDimensionsRequest();
+				req.setDimensions(dims);
+				
+				Request r = new Request();  //note that these can only hold one typed request!
+				r.setAutoResizeDimensions(req);
+				reqs.add(r);
+			}
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * A {@link SubsheetConnection} for operations that only care about the text in the cells: it reads through spreadsheets.values.get (just the formatted values, no formats or runs or row/column metadata, so several times less to download and parse) and writes through spreadsheets.values.batchUpdate, so the formatting on Google's side is never touched.
+	 * 
+	 * The operation gets a table of plain, default-formatted text (and null row heights and column widths), and any formatting it sets is ignored.
+	 * Only the cells whose text changed are written (there's no formatting to rewrite), so there's no {@link WriteMode}.
+	 * Values are written "RAW" with the same types {@link GoogleSheetsColumnTypes} works out for full writes (so text is never parsed as formulas or dates, and number/boolean columns stay numbers/booleans).
+	 * For that it needs the cells' number formats (a "12%" is 0.12, a "2024-01-05" is a date, etc.), which are downloaded (just those, no values) only when there's something to write.
+	 * 
+	 * Growing the grid, frozen rows/columns, and autoresizing columns still work (through the usual batchUpdate).
+	 * Snapshots aren't used (they have formatting in them!), nor is {@link #performAppend(AppendOperation)} any different.
+	 */
+	public class ValuesOnlySubsheetConnection
+		extends SubsheetConnection
+	{
+		public ValuesOnlySubsheetConnection(String spreadsheetId, int subsheetIndex)
+		{
+			super(spreadsheetId, subsheetIndex, WriteMode.OnlyChangedCells);
+		}
+		
+		@Override
+		public boolean isValuesOnly()
+		{
+			return true;
+		}
+		
+		
+		
+		@Override
+		protected void read(PerformState st) throws IOException
+		{
+			refreshPinnedComments(spreadsheetId);
+			
+			long start = startPhase();
+			
+			st.snapshots = null;
+			st.fromSnapshot = null;
+			st.values = readPlanner.readSubsheetValues(service, spreadsheetId, subsheetIndex, st.maxRowsToRead == null ? null : "1:"+st.maxRowsToRead);
+			
+			//The values don't say how big the grid is (they leave off blanks), so that comes from the (cached) properties
+			SheetProperties props = readPlanner.getSubsheetProperties(service, spreadsheetId, subsheetIndex, dimensionsMaxAgeMillis);
+			GridProperties g = props.getGridProperties();
+			
+			int rows = g.getRowCount() == null ? 0 : g.getRowCount();
+			if (st.maxRowsToRead != null)
+				rows = Math.min(rows, st.maxRowsToRead);
+			rows = Math.max(rows, st.values.size());
+			
+			int columns = g.getColumnCount() == null ? 0 : g.getColumnCount();
+			for (List<Object> row : st.values)
+				columns = Math.max(columns, row.size());
+			
+			//A Sheet with no cells, just the shape, for planWrites() and the compactor
+			List<DimensionProperties> rowMetadata = new ArrayList<>(rows);
+			for (int i = 0; i < rows; i++)
+				rowMetadata.add(new DimensionProperties());
+			
+			List<DimensionProperties> columnMetadata = new ArrayList<>(columns);
+			for (int i = 0; i < columns; i++)
+				columnMetadata.add(new DimensionProperties());
+			
+			GridData gd = new GridData();
+			gd.setRowMetadata(rowMetadata);
+			gd.setColumnMetadata(columnMetadata);
+			
+			st.s = new Sheet();
+			st.s.setProperties(props);
+			st.s.setData(singletonList(gd));
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Read, start);
+		}
+		
+		
+		@Override
+		protected RichsheetsTable decode(PerformState st)
+		{
+			GoogleSheetsObserver observer = RichsheetsConnectionForGoogleSheets.this.observer;
+			long start = startPhase();
+			
+			GridProperties g = st.s.getProperties().getGridProperties();
+			int numberOfRows = getNumberOfRows(st.s);
+			int numberOfColumns = getNumberOfColumns(st.s);
+			
+			GoogleSheetsInterner interner = GoogleSheetsInterner.getProcessWide();
+			
+			List<RichsheetsRow> rows = new ArrayList<>(numberOfRows);
+			for (int r = 0; r < numberOfRows; r++)
+			{
+				List<Object> values = r < st.values.size() ? st.values.get(r) : emptyList();
+				List<RichshetsCellContents> cells = new ArrayList<>(numberOfColumns);
+				
+				for (Object v : values)
+					cells.add(decodePlainCell(v == null ? "" : v.toString(), interner));
+				
+				for (int i = cells.size(); i < numberOfColumns; i++)
+					cells.add(RichshetsCellContents.Blank);
+				
+				rows.add(new RichsheetsRow(cells, null));
+			}
+			
+			RichsheetsTable ri = new RichsheetsTable(rows);
+			ri.setColumnWidths(new ArrayList<>(nCopies(numberOfColumns, (Integer)null)));
+			ri.setFrozenColumns(g.getFrozenColumnCount() == null ? 0 : g.getFrozenColumnCount());
+			ri.setFrozenRows(g.getFrozenRowCount() == null ? 0 : g.getFrozenRowCount());
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Decode, start);
+			if (observer.isEnabled())
+				observer.decoded(spreadsheetId, subsheetIndex, numberOfRows, (long)numberOfRows * numberOfColumns);
+			
+			return ri;
+		}
+		
+		
+		@Override
+		protected void plan(PerformState st, RichsheetsTable ri, @Nullable RichsheetsWriteData ro)
+		{
+			super.plan(st, ri, ro);  //just the shape (since we're values-only)
+			
+			st.ro = ro;  //(a synchronous perform doesn't keep it) for encodeValueWrites()
+			st.valueWrites = ro == null || ro.getTable() == null ? null : planValueWrites(ri, ro.getTable());
+		}
+		
+		
+		/**
+		 * Each row split up into runs of the cells whose text changed (so the unchanged ones between them are left alone!), with runs in the same columns of consecutive rows merged, like {@link GoogleSheetsCellDiff#diff(RichsheetsTable, RichsheetsTable)} does.
+		 * Cells that were there before but aren't now are cleared.
+		 * 
+		 * @return the regions in row-major order, which don't overlap
+		 */
+		protected List<GoogleSheetsCellDiff.ChangedRegion> planValueWrites(RichsheetsTable ri, RichsheetsTable ro)
+		{
+			List<GoogleSheetsCellDiff.ChangedRegion> closed = new ArrayList<>();
+			Map<Long, GoogleSheetsCellDiff.ChangedRegion> open = new HashMap<>();  //keyed by (startColumn, endColumn); a region is open if it extends all the way down to the previous row
+			
+			int n = Math.max(ri.getNumberOfRows(), ro.getNumberOfRows());
+			
+			for (int r = 0; r < n; r++)
+			{
+				List<RichshetsCellContents> before = r < ri.getNumberOfRows() ? ri.getRows().get(r).getCells() : emptyList();
+				List<RichshetsCellContents> after = r < ro.getNumberOfRows() ? ro.getRows().get(r).getCells() : emptyList();
+				int numberOfColumns = Math.max(before.size(), after.size());
+				
+				Map<Long, GoogleSheetsCellDiff.ChangedRegion> stillOpen = new HashMap<>();
+				
+				int c = 0;
+				while (c < numberOfColumns)
+				{
+					if (justText(before, c).equals(justText(after, c)))
+					{
+						c++;
+					}
+					else
+					{
+						int start = c;
+						while (c < numberOfColumns && !justText(before, c).equals(justText(after, c)))
+							c++;
+						
+						Long key = (((long)start) << 32) | c;
+						
+						GoogleSheetsCellDiff.ChangedRegion region = open.remove(key);
+						
+						if (region == null)
+							region = new GoogleSheetsCellDiff.ChangedRegion(start, r, c, r+1, GoogleSheetsCellDiff.ChangedValue);
+						else
+							region.endRowIndex = r+1;
+						
+						stillOpen.put(key, region);
+					}
+				}
+				
+				//Anything that didn't continue onto this row is done!
+				closed.addAll(open.values());
+				open = stillOpen;
+			}
+			
+			closed.addAll(open.values());
+			
+			closed.sort((a, b) -> a.startRowIndex != b.startRowIndex ? Integer.compare(a.startRowIndex, b.startRowIndex) : Integer.compare(a.startColumnIndex, b.startColumnIndex));
+			
+			return closed;
+		}
+		
+		
+		/**
+		 * Only now that we know there's something to write do we download the number formats, so the values can be written as the same types they were read as.
+		 * (The formats themselves aren't touched by a values write, so each cell keeps its own!)
+		 */
+		protected List<ValueRange> encodeValueWrites(PerformState st, RichsheetsTable ro) throws IOException
+		{
+			Sheet formats = readPlanner.readSubsheetNumberFormats(service, spreadsheetId, subsheetIndex, st.maxRowsToRead == null ? null : "1:"+st.maxRowsToRead);
+			
+			GoogleSheetsColumnTypes columnTypes = GoogleSheetsColumnTypes.infer(ro, formats, forkJoinPool, GoogleSheetsColumnTypes.DefaultParallelThresholdCells);
+			int frozenRows = ro.getFrozenRows();
+			String title = st.s.getProperties().getTitle();
+			
+			List<ValueRange> writes = new ArrayList<>(st.valueWrites.size());
+			
+			for (GoogleSheetsCellDiff.ChangedRegion region : st.valueWrites)
+			{
+				List<List<Object>> rows = new ArrayList<>(region.getEndRowIndex() - region.getStartRowIndex());
+				
+				for (int r = region.getStartRowIndex(); r < region.getEndRowIndex(); r++)
+				{
+					List<RichshetsCellContents> after = r < ro.getNumberOfRows() ? ro.getRows().get(r).getCells() : emptyList();
+					
+					List<Object> values = new ArrayList<>(region.getEndColumnIndex() - region.getStartColumnIndex());
+					for (int c = region.getStartColumnIndex(); c < region.getEndColumnIndex(); c++)
+						values.add(encodePlainValue(justText(after, c), r < frozenRows ? null : columnTypes, c));  //headers are always text
+					
+					rows.add(values);
+				}
+				
+				writes.add(new ValueRange().setRange(GoogleSheetsReadPlanner.sheetQualifiedRange(title, GoogleSheetsReadPlanner.a1Range(region.getStartColumnIndex(), region.getStartRowIndex(), region.getEndColumnIndex(), region.getEndRowIndex()))).setValues(rows));
+			}
+			
+			return writes;
+		}
+		
+		
+		@Override
+		protected void write(PerformState st) throws IOException
+		{
+			int sent = 0;
+			
+			if (st.reqs != null)
+			{
+				long start = startPhase();
+				
+				//Growing the grid and freezing before the values, autoresizing after (so it's to fit them!)
+				List<Request> before = new ArrayList<>();
+				List<Request> after = new ArrayList<>();
+				for (Request r : st.reqs)
+					(r.getAutoResizeDimensions() != null ? after : before).add(r);
+				
+				sent += chunkedWriter.write(service, spreadsheetId, before);
+				
+				if (st.valueWrites != null && !st.valueWrites.isEmpty())
+					sent += writeValues(encodeValueWrites(st, st.ro.getTable()));
+				
+				sent += chunkedWriter.write(service, spreadsheetId, after);
+				
+				if (!before.isEmpty())
+					readPlanner.markStale(spreadsheetId);  //the size might have changed!
+				
+				finishPhase(spreadsheetId, subsheetIndex, Phase.Write, start);
+			}
+			
+			
+			rememberProcessed(spreadsheetId, new int[]{subsheetIndex}, st.lastModifiedTimestampOfOriginalData, st.versionOfOriginalData, sent);
+		}
+		
+		/**
+		 * In as few values.batchUpdates as fit in {@link GoogleSheetsChunkedWriter#getBatchBytes()} each, one after another
+		 * 
+		 * @return how many values.batchUpdates it sent
+		 */
+		protected int writeValues(List<ValueRange> valueWrites) throws IOException
+		{
+			long maxBytes = chunkedWriter.getBatchBytes();
+			int first = 0;
+			int sent = 0;
+			
+			while (first < valueWrites.size())
+			{
+				long bytes = 0;
+				int end = first;
+				while (end < valueWrites.size() && (end == first || bytes + estimateBytes(valueWrites.get(end)) <= maxBytes))
+				{
+					bytes += estimateBytes(valueWrites.get(end));
+					end++;
+				}
+				
+				BatchUpdateValuesRequest b = new BatchUpdateValuesRequest();
+				b.setValueInputOption("RAW");
+				b.setData(new ArrayList<>(valueWrites.subList(first, end)));
+				
+				caller.execute(service.spreadsheets().values().batchUpdate(spreadsheetId, b), true);
+				sent++;
+				
+				first = end;
+			}
+			
+			return sent;
+		}
+	}
+	
+	
+	/**
+	 * Roughly how big a ValueRange is as JSON (a little over, to be safe)
+	 */
+	protected static long estimateBytes(ValueRange v)
+	{
+		long bytes = 32 + v.getRange().length();
+		
+		for (List<Object> row : v.getValues())
+			for (Object o : row)
+				bytes += 4 + (o instanceof String ? ((String)o).length() * 2 : 24);  //*2 for escapes, which are rare, but quotes and backslashes happen
+		
+		return bytes;
+	}
+	
+	protected static String justText(List<RichshetsCellContents> cells, int columnIndex)
+	{
+		return columnIndex < cells.size() ? cells.get(columnIndex).justText() : "";
+	}
+	
+	/**
+	 * @param columnTypes null to write it as text
+	 * @return what to put in a ValueRange for it ("" clears a cell)
+	 */
+	protected static Object encodePlainValue(String text, @Nullable GoogleSheetsColumnTypes columnTypes, int columnIndex)
+	{
+		if (text.isEmpty() || columnTypes == null)
+			return text;
+		
+		ExtendedValue v = columnTypes.toValue(columnIndex, text);
+		
+		if (v.getBoolValue() != null)
+			return v.getBoolValue();
+		else if (v.getNumberValue() != null)
+			return v.getNumberValue();
+		else
+			return v.getStringValue();
+	}
+	
+	
+	
+	
+	/**
+	 * A {@link SubsheetConnection} to just some of the columns of a subsheet (see {@link GoogleSheetsColumnProjection}), for wide subsheets where the operation only needs a few of them.
+	 * It reads only those columns (one range per run of adjacent ones, all in one request), gives the operation a table of just those columns (in the projection's order), and writes back only those columns, so the others are never downloaded, and never touched.
+	 * 
+	 * The operation can change the cells, column widths, row heights, and frozen rows, add rows (which are whole rows of course, so they're blank in the other columns), and autoresize its columns.
+	 * It can't add or remove columns though (that's an {@link IllegalStateException}), and changing the frozen columns does nothing (the table's frozen columns are just the projected ones that are frozen on the subsheet, so it wouldn't mean the same thing there).
+	 * 
+	 * Snapshots aren't used (they're of whole subsheets), and projecting by header costs one more (small) request every perform, for the frozen rows' values.
+	 */
+	public class ProjectedSubsheetConnection
+		extends SubsheetConnection
+	{
+		protected final GoogleSheetsColumnProjection projection;
+		
+		public ProjectedSubsheetConnection(String spreadsheetId, int subsheetIndex, @Nonnull WriteMode writeMode, @Nonnull GoogleSheetsColumnProjection projection)
+		{
+			super(spreadsheetId, subsheetIndex, writeMode);
+			this.projection = projection;
+		}
+		
+		public GoogleSheetsColumnProjection getProjection()
+		{
+			return projection;
+		}
+		
+		
+		
+		@Override
+		protected void read(PerformState st) throws IOException
+		{
+			refreshPinnedComments(spreadsheetId);
+			
+			long start = startPhase();
+			
+			st.snapshots = null;
+			st.fromSnapshot = null;
+			
+			//Which columns they are now (the headers might have moved since last time!)
+			SheetProperties props = readPlanner.getSubsheetProperties(service, spreadsheetId, subsheetIndex, dimensionsMaxAgeMillis);
+			Integer frozenRows = props.getGridProperties().getFrozenRowCount();
+			
+			st.columns = projection.resolve(projection.isByHeader() && frozenRows != null && frozenRows > 0 ? readPlanner.readSubsheetValues(service, spreadsheetId, subsheetIndex, "1:"+frozenRows) : null);
+			
+			int lastColumn = 0;
+			for (int c : st.columns)
+				lastColumn = Math.max(lastColumn, c);
+			
+			Integer columnCount = props.getGridProperties().getColumnCount();
+			if (lastColumn >= (columnCount == null ? 0 : columnCount))
+			{
+				props = readPlanner.getSubsheetProperties(service, spreadsheetId, subsheetIndex, true);  //maybe it's grown since we cached it
+				columnCount = props.getGridProperties().getColumnCount();
+				
+				if (lastColumn >= (columnCount == null ? 0 : columnCount))
+					throw new IndexOutOfBoundsException("Column "+GoogleSheetsReadPlanner.a1Column(lastColumn)+" of subsheet #"+subsheetIndex+" of spreadsheet "+spreadsheetId+" (which has "+(columnCount == null ? 0 : columnCount)+" columns)");
+			}
+			
+			
+			//Read!  (just our columns)
+			List<int[]> runs = GoogleSheetsColumnProjection.runs(st.columns);
+			
+			List<String> ranges = new ArrayList<>(runs.size());
+			for (int[] run : runs)
+				ranges.add(GoogleSheetsReadPlanner.a1Column(st.columns[run[0]])+"1:"+GoogleSheetsReadPlanner.a1Column(st.columns[run[1]-1])+(st.maxRowsToRead == null ? "" : st.maxRowsToRead));  //like "C1:E" (to the last row) or "C1:E100"
+			
+			st.s = joinColumns(readPlanner.readSubsheet(service, spreadsheetId, subsheetIndex, ranges), st.columns);
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Read, start);
+		}
+		
+		
+		/**
+		 * Puts the ranges we read (one per run of adjacent columns) side by side in the projection's order, as one {@link Sheet} that looks like a subsheet with just those columns, so it decodes like any other.
+		 */
+		protected Sheet joinColumns(Sheet read, int[] columns) throws IOException
+		{
+			List<GridData> blocks = read.getData() == null ? emptyList() : read.getData();
+			
+			Map<Integer, GridData> byStartColumn = new HashMap<>();
+			int numberOfRows = 0;
+			for (GridData gd : blocks)
+			{
+				byStartColumn.put(gd.getStartColumn() == null ? 0 : gd.getStartColumn(), gd);
+				numberOfRows = Math.max(numberOfRows, Math.max(gd.getRowMetadata() == null ? 0 : gd.getRowMetadata().size(), gd.getRowData() == null ? 0 : gd.getRowData().size()));
+			}
+			
+			List<RowData> rowData = new ArrayList<>(numberOfRows);
+			for (int r = 0; r < numberOfRows; r++)
+				rowData.add(new RowData().setValues(new ArrayList<>(columns.length)));
+			
+			List<DimensionProperties> rowMetadata = null;
+			List<DimensionProperties> columnMetadata = new ArrayList<>(columns.length);
+			
+			for (int[] run : GoogleSheetsColumnProjection.runs(columns))
+			{
+				GridData gd = byStartColumn.get(columns[run[0]]);
+				
+				if (gd == null)
+					throw new IOException("Google didn't send back column "+GoogleSheetsReadPlanner.a1Column(columns[run[0]])+" of subsheet #"+subsheetIndex+" of spreadsheet "+spreadsheetId);
+				
+				int width = run[1] - run[0];
+				
+				List<DimensionProperties> cm = gd.getColumnMetadata() == null ? emptyList() : gd.getColumnMetadata();
+				for (int i = 0; i < width; i++)
+					columnMetadata.add(i < cm.size() ? cm.get(i) : new DimensionProperties());
+				
+				if (rowMetadata == null || (gd.getRowMetadata() != null && gd.getRowMetadata().size() > rowMetadata.size()))
+					rowMetadata = gd.getRowMetadata();
+				
+				List<RowData> rows = gd.getRowData() == null ? emptyList() : gd.getRowData();
+				for (int r = 0; r < numberOfRows; r++)
+				{
+					List<CellData> cells = r < rows.size() && rows.get(r).getValues() != null ? rows.get(r).getValues() : emptyList();
+					List<CellData> joined = rowData.get(r).getValues();
+					
+					for (int i = 0; i < width; i++)
+						joined.add(i < cells.size() ? cells.get(i) : new CellData());  //Google leaves the blanks off the ends of rows, but these aren't the ends anymore
+				}
+			}
+			
+			rowMetadata = rowMetadata == null ? new ArrayList<>() : new ArrayList<>(rowMetadata);
+			while (rowMetadata.size() < numberOfRows)
+				rowMetadata.add(new DimensionProperties());
+			
+			GridData gd = new GridData();
+			gd.setRowData(rowData);
+			gd.setRowMetadata(rowMetadata);
+			gd.setColumnMetadata(columnMetadata);
+			
+			
+			//The frozen columns are whichever of ours are frozen (as long as they're first)
+			GridProperties g = read.getProperties().getGridProperties().clone();
+			int frozenColumns = g.getFrozenColumnCount() == null ? 0 : g.getFrozenColumnCount();
+			int projectedFrozenColumns = 0;
+			while (projectedFrozenColumns < columns.length && columns[projectedFrozenColumns] < frozenColumns)
+				projectedFrozenColumns++;
+			
+			g.setColumnCount(columns.length);
+			g.setFrozenColumnCount(projectedFrozenColumns);
+			
+			SheetProperties props = read.getProperties().clone();
+			props.setGridProperties(g);
+			
+			Sheet s = new Sheet();
+			s.setProperties(props);
+			s.setData(singletonList(gd));
+			return s;
+		}
+		
+		/**
+		 * The shape of the subsheet as far as we know it, with our columns back where they came from (and the others unknown, so nothing setting them is dropped), for the compactor.
+		 */
+		protected Sheet unjoinColumns(Sheet s, int[] columns)
+		{
+			GridData joined = getGridData(s);
+			
+			int width = 0;
+			for (int c : columns)
+				width = Math.max(width, c + 1);
+			
+			List<DimensionProperties> columnMetadata = new ArrayList<>(nCopies(width, new DimensionProperties()));
+			for (int i = 0; i < columns.length; i++)
+				columnMetadata.set(columns[i], joined.getColumnMetadata().get(i));
+			
+			GridData gd = new GridData();
+			gd.setRowMetadata(joined.getRowMetadata());
+			gd.setColumnMetadata(columnMetadata);
+			
+			Sheet u = new Sheet();
+			u.setProperties(s.getProperties());
+			u.setData(singletonList(gd));
+			return u;
+		}
+		
+		
+		
+		@Override
+		protected void plan(PerformState st, RichsheetsTable ri, @Nullable RichsheetsWriteData ro)
+		{
+			st.reqs = planProjectedWrites(st.s, st.columns, ri, ro, st.maxRowsToRead);
+		}
+		
+		/**
+		 * Like {@link #planWrites(Sheet, boolean, RichsheetsTable, RichsheetsWriteData, Integer)}, but with the table's columns put back where they came from: one range per run of adjacent columns in each changed region (or in the whole table, for {@link WriteMode#RewriteEverything}).
+		 * 
+		 * @param s the joined columns we read
+		 * @param columns the subsheet's column index for each of the table's columns
+		 */
+		protected @Nullable List<Request> planProjectedWrites(Sheet s, int[] columns, RichsheetsTable ri, @Nullable RichsheetsWriteData ro, Integer maxRowsToRead)
+		{
+			if (ro == null)
+				return null;
+			
+			GoogleSheetsObserver observer = RichsheetsConnectionForGoogleSheets.this.observer;
+			long start = startPhase();
+			
+			int sheetId = s.getProperties().getSheetId();
+			List<Request> reqs = new ArrayList<>();
+			
+			RichsheetsTable t = ro.getTable();
+			
+			if (t != null)
+			{
+				if (t.getNumberOfColumns() != columns.length)
+					throw new IllegalStateException("The operation returned a table with "+t.getNumberOfColumns()+" columns, but a projection of "+columns.length+" can't add or remove columns ("+projection+")");
+				
+				Integer fr = s.getProperties().getGridProperties().getFrozenRowCount();
+				int frozenRows = t.getFrozenRows();
+				
+				addExpandRequests(reqs, sheetId, 0, t.getNumberOfRows() - getNumberOfRows(s), maxRowsToRead);
+				addFrozenPanesRequest(reqs, sheetId, null, frozenRows == (fr == null ? 0 : fr) ? null : frozenRows);  //not the frozen columns!
+				
+				
+				//Set! The! (projected!) Dataaaaaaaaaaaa!
+				GoogleSheetsColumnTypes columnTypes = GoogleSheetsColumnTypes.infer(t, s, forkJoinPool, GoogleSheetsColumnTypes.DefaultParallelThresholdCells);
+				GoogleSheetsCellEncoder encoder = new GoogleSheetsCellEncoder();
+				
+				List<GoogleSheetsCellDiff.ChangedRegion> regions;
+				{
+					if (writeMode == WriteMode.OnlyChangedCells)
+						regions = GoogleSheetsCellDiff.diff(ri, t);
+					else if (t.getNumberOfRows() == 0)
+						regions = emptyList();
+					else
+						regions = singletonList(new GoogleSheetsCellDiff.ChangedRegion(0, 0, columns.length, t.getNumberOfRows(), GoogleSheetsCellDiff.ChangedEverything));
+				}
+				
+				for (GoogleSheetsCellDiff.ChangedRegion region : regions)
+					addRegionWrites(reqs, sheetId, t, region, columns, null, frozenRows, columnTypes, encoder);  //split wherever the columns aren't adjacent on the subsheet
+				
+				
+				//Row heights (rows are rows, projected or not), and our columns' widths
+				for (int r = 0; r < t.getNumberOfRows(); r++)
+					reqs.add(newPixelSizeRequest(sheetId, "ROWS", r, t.getRows().get(r).getHeight(), DefaultGoogleSheetsRowHeight));
+				
+				List<Integer> columnWidths = t.getColumnWidths();
+				for (int c = 0; c < columns.length; c++)
+					reqs.add(newPixelSizeRequest(sheetId, "COLUMNS", columns[c], c < columnWidths.size() ? columnWidths.get(c) : null, DefaultGoogleSheetsColumnWidth));
+			}
+			
+			
+			List<Integer> columnsToAutoResize = new ArrayList<>();
+			for (int c : ro.getColumnsToAutoresize())
+				columnsToAutoResize.add(columns[c]);
+			
+			addAutoResizeRequests(reqs, sheetId, columnsToAutoResize);
+			
+			
+			//Don't send things that don't do anything, and merge the things that can be merged!
+			requestsCompactedAway.addAndGet(GoogleSheetsRequestCompactor.compact(reqs, unjoinColumns(s, columns)));
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Encode, start);
+			if (observer.isEnabled())
+				observer.encoded(spreadsheetId, subsheetIndex, reqs, countCells(reqs));
+			
+			return reqs;
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * A {@link SubsheetConnection} to a window of rows of a subsheet, [startRow, endRow), plus its frozen (header) rows, so a huge subsheet can be worked through a slice at a time without ever holding the whole thing (like {@link GoogleSheetsRowWindowReader}, but for operations that write too).
+	 * It reads the frozen rows and the window in one request, gives the operation a table of the frozen rows followed by the window's rows, and writes back only those rows, wherever they are on the subsheet.
+	 * 
+	 * If the operation returns more or fewer rows than it was given, rows are inserted or deleted at the end of the window, so the rows below it move up or down with it and nothing outside the window is overwritten.
+	 * (So windows further down that were worked out beforehand are off by that many rows!  If you're doing windows in parallel and the row counts change, go from the bottom up, or work out each window's start after the one above it's done.)
+	 * 
+	 * The operation can change the cells, column widths, row heights, and frozen columns, and add columns and autoresize them.
+	 * Changing the frozen rows does nothing though (which rows are the header and which are the window would get mixed up), and the frozen rows can't be added or removed, just changed.
+	 * 
+	 * maxRowsToRead is ignored (the window is the limit), and snapshots aren't used (they're of whole subsheets).
+	 */
+	public class RowWindowSubsheetConnection
+		extends SubsheetConnection
+	{
+		protected final int startRow;
+		protected final int endRow;
+		
+		public RowWindowSubsheetConnection(String spreadsheetId, int subsheetIndex, @Nonnull WriteMode writeMode, int startRow, int endRow)
+		{
+			super(spreadsheetId, subsheetIndex, writeMode);
+			
+			if (startRow < 0 || endRow <= startRow)
+				throw new IllegalArgumentException("Not a window of rows: ["+startRow+", "+endRow+")");
+			
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+		
+		/**
+		 * @return zero-based, inclusive
+		 */
+		public int getStartRow()
+		{
+			return startRow;
+		}
+		
+		/**
+		 * @return zero-based, exclusive
+		 */
+		public int getEndRow()
+		{
+			return endRow;
+		}
+		
+		
+		
+		@Override
+		protected void read(PerformState st) throws IOException
+		{
+			refreshPinnedComments(spreadsheetId);
+			
+			long start = startPhase();
+			
+			st.snapshots = null;
+			st.fromSnapshot = null;
+			
+			SheetProperties props = readPlanner.getSubsheetProperties(service, spreadsheetId, subsheetIndex, dimensionsMaxAgeMillis);
+			
+			Integer cachedRowCount = props.getGridProperties().getRowCount();
+			if (windowStartIn(props) >= Math.min(endRow, cachedRowCount == null ? 0 : cachedRowCount))
+				props = readPlanner.getSubsheetProperties(service, spreadsheetId, subsheetIndex, true);  //maybe it's grown since we cached it
+			
+			GridProperties g = props.getGridProperties();
+			int frozenRows = g.getFrozenRowCount() == null ? 0 : g.getFrozenRowCount();
+			int rowCount = g.getRowCount() == null ? 0 : g.getRowCount();
+			
+			//The window starts after the frozen rows (they're always in the table anyway), and never after the end (so rows added to an empty window go at the end)
+			st.windowStart = windowStartIn(props);
+			
+			List<String> ranges = new ArrayList<>(2);
+			if (frozenRows > 0)
+				ranges.add("1:"+frozenRows);
+			if (st.windowStart < Math.min(endRow, rowCount))
+				ranges.add((st.windowStart+1)+":"+endRow);  //A1 rows are 1-based and inclusive on both ends (and like "1:N", it's fine if it goes past the end)
+			
+			//Read!  (just the header and our window)
+			Sheet read;
+			{
+				if (ranges.isEmpty())
+				{
+					read = new Sheet();
+					read.setProperties(props);
+					read.setData(emptyList());
+				}
+				else
+				{
+					read = readPlanner.readSubsheet(service, spreadsheetId, subsheetIndex, ranges);
+				}
+			}
+			
+			st.s = joinRows(read);
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Read, start);
+		}
+		
+		protected int windowStartIn(SheetProperties props)
+		{
+			GridProperties g = props.getGridProperties();
+			int frozenRows = g.getFrozenRowCount() == null ? 0 : g.getFrozenRowCount();
+			int rowCount = g.getRowCount() == null ? 0 : g.getRowCount();
+			return Math.min(Math.max(startRow, frozenRows), rowCount);
+		}
+		
+		
+		/**
+		 * Puts the header rows and the window's rows one after the other, as one {@link Sheet} that decodes like any other.
+		 */
+		protected Sheet joinRows(Sheet read)
 		{
-			@Override
-			public boolean isCapableOfAutoresizingColumns()
+			List<GridData> blocks = new ArrayList<>(read.getData() == null ? emptyList() : read.getData());
+			blocks.sort((a, b) -> Integer.compare(a.getStartRow() == null ? 0 : a.getStartRow(), b.getStartRow() == null ? 0 : b.getStartRow()));  //the header first
+			
+			List<RowData> rowData = new ArrayList<>();
+			List<DimensionProperties> rowMetadata = new ArrayList<>();
+			List<DimensionProperties> columnMetadata = null;
+			
+			for (GridData gd : blocks)
 			{
-				return true;
+				List<DimensionProperties> rm = gd.getRowMetadata() == null ? emptyList() : gd.getRowMetadata();
+				List<RowData> rows = gd.getRowData() == null ? emptyList() : gd.getRowData();
+				
+				for (int r = 0; r < rm.size(); r++)
+					rowData.add(r < rows.size() ? rows.get(r) : new RowData());  //Google leaves the blank rows off the end, but it's not the end anymore if the window's after it
+				
+				rowMetadata.addAll(rm);
+				
+				if (columnMetadata == null || (gd.getColumnMetadata() != null && gd.getColumnMetadata().size() > columnMetadata.size()))
+					columnMetadata = gd.getColumnMetadata();
 			}
 			
-			@Override
-			public Date getCurrentLastModifiedTimestamp() throws IOException
+			if (columnMetadata == null)
 			{
-				return getLastModifiedTime(spreadsheetId);
+				//Nothing to read!  But the operation still gets the right number of columns
+				Integer columnCount = read.getProperties().getGridProperties().getColumnCount();
+				columnMetadata = new ArrayList<>(nCopies(columnCount == null ? 0 : columnCount, new DimensionProperties()));
 			}
 			
-			@Override
-			public void perform(Integer maxRowsToRead, RichsheetsOperation operation) throws IOException
+			GridData gd = new GridData();
+			gd.setRowData(rowData);
+			gd.setRowMetadata(rowMetadata);
+			gd.setColumnMetadata(columnMetadata);
+			
+			Sheet s = new Sheet();
+			s.setProperties(read.getProperties());
+			s.setData(singletonList(gd));
+			return s;
+		}
+		
+		
+		
+		@Override
+		protected void plan(PerformState st, RichsheetsTable ri, @Nullable RichsheetsWriteData ro)
+		{
+			st.reqs = planWindowWrites(st.s, st.windowStart, ri, ro);
+		}
+		
+		/**
+		 * Like {@link #planWrites(Sheet, boolean, RichsheetsTable, RichsheetsWriteData, Integer)}, but with the table's rows after the frozen ones put back in the window, and the window grown or shrunk to fit them.
+		 * Since we don't have the whole subsheet for the compactor to compare against, row heights and column widths are only sent if they're different from what the operation was given.
+		 * 
+		 * @param s the joined rows we read
+		 * @param windowStart the subsheet's row index of the table's first row after the frozen ones
+		 */
+		protected @Nullable List<Request> planWindowWrites(Sheet s, int windowStart, RichsheetsTable ri, @Nullable RichsheetsWriteData ro)
+		{
+			if (ro == null)
+				return null;
+			
+			GoogleSheetsObserver observer = RichsheetsConnectionForGoogleSheets.this.observer;
+			long start = startPhase();
+			
+			int sheetId = s.getProperties().getSheetId();
+			List<Request> reqs = new ArrayList<>();
+			
+			RichsheetsTable t = ro.getTable();
+			
+			if (t != null)
 			{
-				Sheets service = new Sheets.Builder(httpTransport, JsonFactory, auth).setApplicationName(applicationName).build();
+				GridProperties g = s.getProperties().getGridProperties();
+				int frozenRows = g.getFrozenRowCount() == null ? 0 : g.getFrozenRowCount();
+				int frozenColumns = g.getFrozenColumnCount() == null ? 0 : g.getFrozenColumnCount();
+				int rowCount = g.getRowCount() == null ? 0 : g.getRowCount();
 				
+				int originalWindowRows = Math.max(0, ri.getNumberOfRows() - frozenRows);
+				int newWindowRows = Math.max(0, t.getNumberOfRows() - frozenRows);
 				
 				
-				refreshPinnedComments(spreadsheetId);
+				//Growing/shrinking the window (at its end, so everything below it moves with it) must come before everything else!
+				int windowEnd = windowStart + originalWindowRows;
 				
-				
-				
-				//Read!
-				Spreadsheet spreadsheet;
+				if (newWindowRows > originalWindowRows)
 				{
-					Get action = service.spreadsheets().get(spreadsheetId);
-					action.setIncludeGridData(true);
-					
-					if (maxRowsToRead != null)
-						action.setRanges(singletonList("1:"+maxRowsToRead));  //If there are less than N rows, this won't fail, it'll just use a least() function and return as many as it can (in this case of max=2, 0 or 1)  I tested this just now.  —Sean @ 2022-05-14 07:41:40 z
-					
-					spreadsheet = action.execute();
+					addExpandRequests(reqs, sheetId, t.getNumberOfColumns() - getNumberOfColumns(s), newWindowRows - originalWindowRows, windowEnd >= rowCount ? null : windowEnd);  //appended if the window's at the end, otherwise inserted
 				}
-				
-				
-				
-				Date lastModifiedTimestampOfOriginalData;
+				else
 				{
-					lastModifiedTimestampOfOriginalData = getLastModifiedTime(spreadsheetId);
+					addExpandRequests(reqs, sheetId, t.getNumberOfColumns() - getNumberOfColumns(s), 0, null);
+					
+					if (newWindowRows < originalWindowRows)
+					{
+						DimensionRange range = new DimensionRange();
+						range.setSheetId(sheetId);
+						range.setDimension("ROWS");
+						range.setStartIndex(windowStart + newWindowRows);  //inclusive
+						range.setEndIndex(windowEnd);  //exclusive
+						
+						DeleteDimensionRequest req = new DeleteDimensionRequest();
+						req.setRange(range);
+						
+						Request r = new Request();  //note that these can only hold one typed request!
+						r.setDeleteDimension(req);
+						reqs.add(r);
+					}
 				}
 				
+				addFrozenPanesRequest(reqs, sheetId, t.getFrozenColumns() == frozenColumns ? null : t.getFrozenColumns(), null);  //not the frozen rows!
+				
 				
+				//Set! The! (windowed!) Dataaaaaaaaaaaa!
+				GoogleSheetsColumnTypes columnTypes = GoogleSheetsColumnTypes.infer(t, s, forkJoinPool, GoogleSheetsColumnTypes.DefaultParallelThresholdCells);
+				GoogleSheetsCellEncoder encoder = new GoogleSheetsCellEncoder();
 				
-				//Operate!
-				final boolean readonly;
-				final int columnsToAdd;
-				final int rowsToAdd;
-				final Integer setFrozenColumnsToThisOrDoNothingIfNull;
-				final Integer setFrozenRowsToThisOrDoNothingIfNull;
-				final Collection<Integer> columnsToAutoResize;
-				final List<RowData> dataaaaaaaaaaaToWrite;
-				final List<Integer> columnWidths;
-				final List<Integer> rowHeights;
+				List<GoogleSheetsCellDiff.ChangedRegion> regions;
 				{
-					Sheet s = spreadsheet.getSheets().get(subsheetIndex);
-					
-					final int originalFrozenRowsCount;
-					final int originalFrozenColumnsCount;
-					{
-						GridProperties g = s.getProperties().getGridProperties();
-						Integer fr = g.getFrozenRowCount();
-						Integer fc = g.getFrozenColumnCount();
-						originalFrozenRowsCount = fr == null ? 0 : fr;
-						originalFrozenColumnsCount = fc == null ? 0 : fc;
-					}
-					
-					
-					
-					
-					RichsheetsWriteData ro;
-					
-					//Do ittttttt!
-					{
-						if (operation != null)
-						{
-							RichsheetsTable ri = convertToRichsheets(s, originalFrozenColumnsCount, originalFrozenRowsCount);
-							ro = operation instanceof RichsheetsOperationWithDataTimestamp ? ((RichsheetsOperationWithDataTimestamp)operation).performInMemory(ri, lastModifiedTimestampOfOriginalData) : operation.performInMemory(ri);
-						}
-						else
-						{
-							ro = null;
-						}
-					}
-					
-					
-					if (ro == null)
-					{
-						readonly = true;
-						columnsToAdd = 0;
-						rowsToAdd = 0;
-						setFrozenColumnsToThisOrDoNothingIfNull = null;
-						setFrozenRowsToThisOrDoNothingIfNull = null;
-						columnsToAutoResize = emptyList();
-						dataaaaaaaaaaaToWrite = null;
-						rowHeights = null;
-						columnWidths = null;
-					}
-					else if (ro.getTable() == null)
+					if (writeMode == WriteMode.OnlyChangedCells)
 					{
-						readonly = false;
-						columnsToAdd = 0;
-						rowsToAdd = 0;
-						setFrozenColumnsToThisOrDoNothingIfNull = null;
-						setFrozenRowsToThisOrDoNothingIfNull = null;
-						columnsToAutoResize = ro.getColumnsToAutoresize();
-						dataaaaaaaaaaaToWrite = null;
-						rowHeights = null;
-						columnWidths = null;
+						regions = GoogleSheetsCellDiff.diff(ri, t);
 					}
 					else
 					{
-						readonly = false;
-						columnsToAdd = ro.getTable().getNumberOfColumns() - getNumberOfColumns(s);
-						rowsToAdd = ro.getTable().getNumberOfRows() - getNumberOfRows(s);
-						setFrozenColumnsToThisOrDoNothingIfNull = ro.getTable().getFrozenColumns() == originalFrozenColumnsCount ? null : ro.getTable().getFrozenColumns();
-						setFrozenRowsToThisOrDoNothingIfNull = ro.getTable().getFrozenRows() == originalFrozenRowsCount ? null : ro.getTable().getFrozenRows();
-						columnsToAutoResize = ro.getColumnsToAutoresize();
-						
-						
-						
-						
-						int newFrozenColumnsCount = ro.getTable().getFrozenColumns();
-						int newFrozenRowsCount = ro.getTable().getFrozenRows();
-						int newNumberOfColumns = ro.getTable().getNumberOfColumns();
-						int newNumberOfRows = ro.getTable().getNumberOfRows();
-						
-						
-						boolean[] booleanColumnsByNewIndex;  //columnIndexes in the intermediate form, not including frozen columns
-						{
-							if (maxRowsToRead != null)
-							{
-								booleanColumnsByNewIndex = null;
-							}
-							else
-							{
-								booleanColumnsByNewIndex = new boolean[newNumberOfColumns];
-								
-								for (int newColumnIndex = newFrozenColumnsCount; newColumnIndex < newNumberOfColumns; newColumnIndex++)
-								{
-									boolean booleanColumn;
-									
-									boolean atLeastOneActuallyBooleanable = false;
-									for (int r = newFrozenRowsCount; r < newNumberOfRows; r++)
-									{
-										RichshetsCellContents ourCell = ro.getTable().getCell(newColumnIndex, r);
-										String v = ourCell.justText();
-										atLeastOneActuallyBooleanable |= v.equals("FALSE") || v.equals("TRUE");
-									}
-									
-									if (atLeastOneActuallyBooleanable)
-									{
-										boolean atLeastOneDisqualifying = false;
-										for (int r = newFrozenRowsCount; r < newNumberOfRows; r++)
-										{
-											RichshetsCellContents ourCell = ro.getTable().getCell(newColumnIndex, r);
-											
-											boolean isEmpty = ourCell.isEmptyText();
-											
-											if (!isEmpty)
-											{
-												String v = ourCell.justText();
-												
-												if (!v.equalsIgnoreCase("false") && !v.equalsIgnoreCase("true"))
-												{
-													atLeastOneDisqualifying = true;
-													break;  //no point in going on!
-												}
-											}
-										}
-										
-										//booleanColumn = atLeastOneActuallyBooleanable && !atLeastOneDisqualifying;
-										booleanColumn = !atLeastOneDisqualifying;
-									}
-									else
-									{
-										booleanColumn = false;
-									}
-									
-									
-									booleanColumnsByNewIndex[newColumnIndex] = booleanColumn;
-								}
-							}
-						}
-						
-						
-						
-						
-						dataaaaaaaaaaaToWrite = new ArrayList<>();
-						rowHeights = new ArrayList<>();
-						columnWidths = ro.getTable().getColumnWidths();
-						
-						for (RichsheetsRow ourRow : ro.getTable().getRows())
-						{
-							RowData theirRow;
-							{
-								theirRow = new RowData();
-								
-								theirRow.setValues(mapToList(i -> encodeCell(ourRow.getCells().get(i), booleanColumnsByNewIndex == null ? false : booleanColumnsByNewIndex[i]), intervalIntegersList(0, newNumberOfColumns)));
-							}
-							
-							dataaaaaaaaaaaToWrite.add(theirRow);
-							rowHeights.add(ourRow.getHeight());
-						}
+						regions = new ArrayList<>(1);
+						if (t.getNumberOfRows() > 0 && t.getNumberOfColumns() > 0)
+							regions.add(new GoogleSheetsCellDiff.ChangedRegion(0, 0, t.getNumberOfColumns(), t.getNumberOfRows(), GoogleSheetsCellDiff.ChangedEverything));
 					}
 				}
 				
+				//The header's rows and the window's rows are in different places on the subsheet (unless the window's right after the header)
+				int[] rows = new int[t.getNumberOfRows()];
+				for (int r = 0; r < rows.length; r++)
+					rows[r] = r < frozenRows ? r : r - frozenRows + windowStart;
 				
+				for (GoogleSheetsCellDiff.ChangedRegion region : regions)
+					addRegionWrites(reqs, sheetId, t, region, null, rows, frozenRows, columnTypes, encoder);
 				
 				
+				//Row heights and column widths, just where they changed (or are new)
+				for (int r = 0; r < t.getNumberOfRows(); r++)
+				{
+					Integer h = t.getRows().get(r).getHeight();
+					
+					if (r >= ri.getNumberOfRows() || !Objects.equals(h, ri.getRows().get(r).getHeight()))
+						reqs.add(newPixelSizeRequest(sheetId, "ROWS", r < frozenRows ? r : r - frozenRows + windowStart, h, DefaultGoogleSheetsRowHeight));
+				}
 				
+				List<Integer> originalColumnWidths = ri.getColumnWidths();
+				List<Integer> columnWidths = t.getColumnWidths();
+				for (int c = 0; c < columnWidths.size(); c++)
+				{
+					if (c >= originalColumnWidths.size() || !Objects.equals(columnWidths.get(c), originalColumnWidths.get(c)))
+						reqs.add(newPixelSizeRequest(sheetId, "COLUMNS", c, columnWidths.get(c), DefaultGoogleSheetsColumnWidth));
+				}
+			}
+			
+			
+			addAutoResizeRequests(reqs, sheetId, ro.getColumnsToAutoresize());
+			
+			
+			//Merge the things that can be merged!  (the no-ops were never added)
+			requestsCompactedAway.addAndGet(GoogleSheetsRequestCompactor.compact(reqs, null));
+			
+			finishPhase(spreadsheetId, subsheetIndex, Phase.Encode, start);
+			if (observer.isEnabled())
+				observer.encoded(spreadsheetId, subsheetIndex, reqs, countCells(reqs));
+			
+			return reqs;
+		}
+	}
+	
+	
+	
+	
+	/**
+	 * Does several subsheets (tabs) of one spreadsheet together, as one transaction-ish thing: one request to read them all, and everything they write in one batchUpdate (which Google applies atomically), instead of a read and a write per tab.
+	 * (If the writes are too big for one batchUpdate, {@link GoogleSheetsChunkedWriter} still splits them though, and then it's not atomic anymore.)
+	 */
+	public class MultiSubsheetConnection
+	{
+		protected final String spreadsheetId;
+		protected final int[] subsheetIndices;
+		protected final SubsheetConnection[] subsheets;
+		
+		public MultiSubsheetConnection(String spreadsheetId, int[] subsheetIndices, @Nonnull WriteMode writeMode)
+		{
+			for (int i = 0; i < subsheetIndices.length; i++)
+				for (int j = 0; j < i; j++)
+					if (subsheetIndices[i] == subsheetIndices[j])
+						throw new IllegalArgumentException("Subsheet "+subsheetIndices[i]+" is in there more than once!");
+			
+			this.spreadsheetId = spreadsheetId;
+			this.subsheetIndices = subsheetIndices.clone();
+			
+			this.subsheets = new SubsheetConnection[subsheetIndices.length];
+			for (int i = 0; i < subsheetIndices.length; i++)
+				this.subsheets[i] = new SubsheetConnection(spreadsheetId, subsheetIndices[i], writeMode);
+		}
+		
+		public String getSpreadsheetId()
+		{
+			return spreadsheetId;
+		}
+		
+		public int[] getSubsheetIndices()
+		{
+			return subsheetIndices.clone();
+		}
+		
+		public SubsheetConnection getSubsheet(int i)
+		{
+			return subsheets[i];
+		}
+		
+		
+		
+		/**
+		 * One operation per subsheet, each only seeing its own!
+		 * 
+		 * @param operations in the same order as the subsheet indices; null elements just read (nothing is done with that subsheet)
+		 */
+		public void perform(Integer maxRowsToRead, List<? extends RichsheetsOperation> operations) throws IOException
+		{
+			if (operations.size() != subsheets.length)
+				throw new IllegalArgumentException("There are "+subsheets.length+" subsheets but "+operations.size()+" operations");
+			
+			perform(maxRowsToRead, (tables, lastModifiedTimestampOfOriginalData) ->
+			{
+				List<RichsheetsWriteData> r = new ArrayList<>(tables.size());
 				
+				for (int i = 0; i < tables.size(); i++)
+				{
+					RichsheetsOperation operation = operations.get(i);
+					
+					if (operation == null)
+						r.add(null);
+					else if (operation instanceof RichsheetsOperationWithDataTimestamp)
+						r.add(((RichsheetsOperationWithDataTimestamp)operation).performInMemory(tables.get(i), lastModifiedTimestampOfOriginalData));
+					else
+						r.add(operation.performInMemory(tables.get(i)));
+				}
 				
+				return r;
+			});
+		}
+		
+		
+		/**
+		 * One operation that sees all of the subsheets at once (eg, to move rows from one tab to another without them ever being in both or neither!)
+		 */
+		public void perform(Integer maxRowsToRead, MultiSubsheetOperation operation) throws IOException
+		{
+			//Before reading, same as SubsheetConnection
+			DriveFileModifiedTime original = getDriveModifiedTime(spreadsheetId);
+			Date lastModifiedTimestampOfOriginalData = original == null ? null : original.getModifiedDate();
+			
+			refreshPinnedComments(spreadsheetId);
+			
+			
+			
+			//Read!  (whichever we don't have snapshots of, all in one request)
+			final GoogleSheetsSnapshotStore snapshots = maxRowsToRead == null && lastModifiedTimestampOfOriginalData != null ? snapshotStore : null;
+			
+			Sheet[] sheets = new Sheet[subsheets.length];
+			RichsheetsTable[] fromSnapshots = new RichsheetsTable[subsheets.length];
+			{
+				int[] toRead = new int[subsheets.length];
+				int n = 0;
 				
-				
-				
-				
-				
-				//Write!
-				if (!readonly)
+				for (int i = 0; i < subsheets.length; i++)
 				{
-					// https://googleapis.dev/java/google-api-services-sheets/latest/com/google/api/services/sheets/v4/model/Request.html
-					// https://developers.google.com/sheets/api/reference/rest/v4/spreadsheets/request
-					List<Request> reqs;
+					GoogleSheetsSnapshotStore.Snapshot snapshot = snapshots == null ? null : snapshots.load(spreadsheetId, subsheetIndices[i], lastModifiedTimestampOfOriginalData);
+					
+					if (snapshot != null)
 					{
-						reqs = new ArrayList<>();
-						
-						//Expanding the sheet must come before everything else!
-						{
-							if (columnsToAdd > 0)
-							{
-								AppendDimensionRequest req = new AppendDimensionRequest();
-								req.setDimension("COLUMNS");
-								req.setSheetId(subsheetIndex);
-								req.setLength(rowsToAdd);
-								
-								Request r = new Request();  //note that these can only hold one typed request!
-								r.setAppendDimension(req);
-								reqs.add(r);
-							}
-							
-							
-							if (rowsToAdd > 0)
-							{
-								if (maxRowsToRead == null)
-								{
-									AppendDimensionRequest req = new AppendDimensionRequest();
-									req.setDimension("ROWS");
-									req.setSheetId(subsheetIndex);
-									req.setLength(rowsToAdd);
-									
-									Request r = new Request();  //note that these can only hold one typed request!
-									r.setAppendDimension(req);
-									reqs.add(r);
-								}
-								else
-								{
-									InsertDimensionRequest req = new InsertDimensionRequest();
-									
-									DimensionRange range = new DimensionRange();
-									range.setDimension("ROWS");
-									range.setSheetId(subsheetIndex);
-									range.setStartIndex(maxRowsToRead);
-									range.setEndIndex(maxRowsToRead + rowsToAdd);
-									
-									req.setRange(range);
-									
-									Request r = new Request();  //note that these can only hold one typed request!
-									r.setInsertDimension(req);
-									reqs.add(r);
-								}
-							}
-						}
-						
-						
-						
-						//Set frozen columns/rows
-						if (setFrozenColumnsToThisOrDoNothingIfNull != null || setFrozenRowsToThisOrDoNothingIfNull != null)
-						{
-							GridProperties gp = new GridProperties();
-							
-							if (setFrozenColumnsToThisOrDoNothingIfNull != null)
-								gp.setFrozenColumnCount(setFrozenColumnsToThisOrDoNothingIfNull);
-							
-							if (setFrozenRowsToThisOrDoNothingIfNull != null)
-								gp.setFrozenRowCount(setFrozenRowsToThisOrDoNothingIfNull);
-							
-							SheetProperties props = new SheetProperties();
-							props.setGridProperties(gp);
-							
-							UpdateSheetPropertiesRequest req = new UpdateSheetPropertiesRequest();
-							req.setProperties(props);
-							
-							Request r = new Request();  //note that these can only hold one typed request!
-							r.setUpdateSheetProperties(req);
-							reqs.add(r);
-						}
-						
-						
-						
-						
-						
-						//Set! The! Dataaaaaaaaaaaa!  \:D/
-						if (dataaaaaaaaaaaToWrite != null)
-						{
-							GridCoordinate origin = new GridCoordinate();
-							origin.setColumnIndex(0);
-							origin.setRowIndex(0);
-							
-							UpdateCellsRequest req = new UpdateCellsRequest();
-							req.setStart(origin);
-							req.setRows(dataaaaaaaaaaaToWrite);
-							
-							Request r = new Request();  //note that these can only hold one typed request!
-							r.setUpdateCells(req);
-							reqs.add(r);
-						}
-						
-						
-						
-						
-						//Set the row heights!
-						if (rowHeights != null)
-						{
-							int n = rowHeights.size();
-							
-							for (int rowIndex = 0; rowIndex < n; rowIndex++)  //Todo find contiguous ranges for a minor optimization ^^'
-							{
-								Integer h = rowHeights.get(rowIndex);
-								
-								DimensionRange range = new DimensionRange();
-								range.setSheetId(subsheetIndex);
-								range.setDimension("ROWS");
-								range.setStartIndex(rowIndex);  //inclusive
-								range.setEndIndex(rowIndex+1);  //exclusive
-								
-								DimensionProperties props = new DimensionProperties();
-								props.setPixelSize(h == null ? DefaultGoogleSheetsRowHeight : h);
-								
-								UpdateDimensionPropertiesRequest req = new UpdateDimensionPropertiesRequest();
-								req.setProperties(props);
-								req.setRange(range);
-								
-								Request r = new Request();  //note that these can only hold one typed request!
-								r.setUpdateDimensionProperties(req);
-								reqs.add(r);
-							}
-						}
-						
-						
-						
-						
-						
-						//Set the column widths!
-						if (columnWidths != null)
-						{
-							int n = columnWidths.size();
-							
-							for (int columnIndex = 0; columnIndex < n; columnIndex++)  //Todo find contiguous ranges for a minor optimization ^^'
-							{
-								Integer h = columnWidths.get(columnIndex);
-								
-								DimensionRange range = new DimensionRange();
-								range.setSheetId(subsheetIndex);
-								range.setDimension("COLUMNS");
-								range.setStartIndex(columnIndex);  //inclusive
-								range.setEndIndex(columnIndex+1);  //exclusive
-								
-								DimensionProperties props = new DimensionProperties();
-								props.setPixelSize(h == null ? DefaultGoogleSheetsColumnWidth : h);
-								
-								UpdateDimensionPropertiesRequest req = new UpdateDimensionPropertiesRequest();
-								req.setProperties(props);
-								req.setRange(range);
-								
-								Request r = new Request();  //note that these can only hold one typed request!
-								r.setUpdateDimensionProperties(req);
-								reqs.add(r);
-							}
-						}
-						
-						
-						
-						
-						//Resizing columns (afterrrrrrr setting data and column widths if we do that! :D )
-						for (int columnIndex : columnsToAutoResize)  //Todo find contiguous ranges for a minor optimization ^^'
-						{
-							DimensionRange dims = new DimensionRange();
-							dims.setSheetId(subsheetIndex);
-							dims.setDimension("COLUMNS");
-							dims.setStartIndex(columnIndex);  //inclusive
-							dims.setEndIndex(columnIndex+1);  //exclusive
-							
-							AutoResizeDimensionsRequest req = new AutoResizeDimensionsRequest();
-							req.setDimensions(dims);
-							
-							Request r = new Request();  //note that these can only hold one typed request!
-							r.setAutoResizeDimensions(req);
-							reqs.add(r);
-						}
+						sheets[i] = snapshot.toSheetWithoutCells();
+						fromSnapshots[i] = snapshot.getTable();
+					}
+					else
+					{
+						toRead[n++] = i;
 					}
+				}
+				
+				if (n > 0)
+				{
+					int[] indices = new int[n];
+					for (int k = 0; k < n; k++)
+						indices[k] = subsheetIndices[toRead[k]];
 					
+					List<Sheet> read = readPlanner.readSubsheets(service, spreadsheetId, indices, maxRowsToRead == null ? null : "1:"+maxRowsToRead);
 					
-					BatchUpdateSpreadsheetRequest mainreq = new BatchUpdateSpreadsheetRequest();
-					mainreq.setIncludeSpreadsheetInResponse(false);
-					mainreq.setResponseIncludeGridData(false);
-					mainreq.setRequests(reqs);
+					for (int k = 0; k < n; k++)
+						sheets[toRead[k]] = read.get(k);
+				}
+			}
+			
+			
+			
+			//Decode and operate!
+			List<RichsheetsTable> ri = new ArrayList<>(subsheets.length);
+			for (int i = 0; i < subsheets.length; i++)
+				ri.add(subsheets[i].decode(sheets[i], fromSnapshots[i], snapshots, lastModifiedTimestampOfOriginalData));
+			
+			List<RichsheetsWriteData> ro = operation.performInMemory(unmodifiableList(ri), lastModifiedTimestampOfOriginalData);
+			
+			if (ro != null && ro.size() != subsheets.length)
+				throw new IllegalStateException("The operation returned "+ro.size()+" tables for "+subsheets.length+" subsheets!");
+			
+			
+			
+			//Write!  (all of them in one go :D )
+			int sent = 0;
+			if (ro != null)
+			{
+				List<Request> reqs = new ArrayList<>();
+				
+				for (int i = 0; i < subsheets.length; i++)
+				{
+					List<Request> r = subsheets[i].planWrites(sheets[i], fromSnapshots[i] == null, ri.get(i), ro.get(i), maxRowsToRead);
 					
-					service.spreadsheets().batchUpdate(spreadsheetId, mainreq).execute();
+					if (r != null)
+						reqs.addAll(r);
 				}
+				
+				sent = chunkedWriter.write(service, spreadsheetId, reqs);
+				
+				if (!reqs.isEmpty())
+					readPlanner.markStale(spreadsheetId);
 			}
-		};
+			
+			
+			rememberProcessed(spreadsheetId, subsheetIndices, lastModifiedTimestampOfOriginalData, original == null ? null : original.version, sent);
+		}
+	}
+	
+	
+	
+	/**
+	 * For {@link SubsheetConnection#performAppend(AppendOperation)}
+	 */
+	@FunctionalInterface
+	public static interface AppendOperation
+	{
+		/**
+		 * @param header just the frozen rows (so you can find the columns by their names), or no rows if nothing's frozen
+		 * @return the rows to add to the end (null or empty for none)
+		 */
+		public @Nullable List<RichsheetsRow> rowsToAppend(RichsheetsTable header);
 	}
 	
 	
 	
+	@FunctionalInterface
+	public static interface MultiSubsheetOperation
+	{
+		/**
+		 * @param tables the subsheets, in the order of the {@link MultiSubsheetConnection}'s subsheet indices
+		 * @param lastModifiedTimestampOfOriginalData when Drive says the spreadsheet was last modified, before we read it (or null if we couldn't find out)
+		 * @return what to write to each subsheet (null elements to leave that one alone), or null to not write anything at all
+		 */
+		public @Nullable List<RichsheetsWriteData> performInMemory(List<RichsheetsTable> tables, @Nullable Date lastModifiedTimestampOfOriginalData);
+	}
 	
-	protected RichsheetsTable convertToRichsheets(Sheet s, int frozenColumnsCount, int frozenRowsCount)
+	
+	
+	
+	protected static long countCells(List<Request> reqs)
 	{
-		List<GridData> gds = s.getData();
+		long cells = 0;
 		
-		if (gds.size() != 1)
-			throw new RuntimeException("What does it meeeeeeean to have multiple GridData's?!");  //Todo figure out what it means XD   (it's not more than one even when there are multiple (sub)sheets in my testing!  —Sean @ 2022-05-14 07 z)
-		GridData gd = gds.get(0);
+		for (Request r : reqs)
+		{
+			if (r.getUpdateCells() != null)
+				cells += GoogleSheetsChunkedWriter.countCells(r.getUpdateCells());
+			else if (r.getAppendCells() != null && r.getAppendCells().getRows() != null)
+				for (RowData row : r.getAppendCells().getRows())
+					cells += row.getValues() == null ? 0 : row.getValues().size();
+		}
+		
+		return cells;
+	}
+	
+	
+	
+	
+	protected static final long NotTiming = Long.MIN_VALUE;  //(System.nanoTime() can be anything, even 0 or negative, but not this in practice!)
+	
+	/**
+	 * For timing a phase for the {@link #getObserver() observer}, without even asking the clock if it's off.
+	 * @return what to give {@link #finishPhase(String, int, Phase, long)}
+	 */
+	protected long startPhase()
+	{
+		return observer.isEnabled() ? System.nanoTime() : NotTiming;
+	}
+	
+	/**
+	 * @param start from {@link #startPhase()} (or the last finishPhase)
+	 * @return the start of the next phase, if it follows right on from this one
+	 */
+	protected long finishPhase(String spreadsheetId, int subsheetIndex, Phase phase, long start)
+	{
+		if (start == NotTiming)
+			return NotTiming;
+		
+		long now = System.nanoTime();
+		
+		GoogleSheetsObserver observer = this.observer;
+		if (observer.isEnabled())
+			observer.phaseFinished(spreadsheetId, subsheetIndex, phase, now - start);
+		
+		return now;
+	}
+	
+	
+	
+	
+	@FunctionalInterface
+	protected static interface IOStep
+	{
+		public void run() throws IOException;
+	}
+	
+	/**
+	 * Runs one step of an async operation, unless it's been cancelled (or timed out, or failed) already.
+	 */
+	protected static void step(CompletableFuture<?> result, IOStep step)
+	{
+		if (result.isDone())
+			throw new CancellationException();
+		
+		try
+		{
+			step.run();
+		}
+		catch (IOException exc)
+		{
+			throw new AsyncStepIOException(exc);
+		}
+	}
+	
+	/**
+	 * Just what {@link #step(CompletableFuture, IOStep)} wraps IOExceptions in, so {@link #unwrapAsyncException(Throwable)} can tell them apart from anything the operation itself throws (which is passed on as-is, even if it's an {@link UncheckedIOException}!)
+	 */
+	protected static class AsyncStepIOException
+	extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+		
+		protected AsyncStepIOException(IOException cause)
+		{
+			super(cause);
+		}
+	}
+	
+	protected static Throwable unwrapAsyncException(Throwable exc)
+	{
+		if (exc instanceof CompletionException && exc.getCause() != null)
+			exc = exc.getCause();
+		if (exc instanceof AsyncStepIOException)
+			exc = exc.getCause();
+		return exc;
+	}
+	
+	
+	
+	
+	/**
+	 * Remembers what the last perform on these subsheets ran on, for {@link SubsheetConnection#performIfChanged(Integer, RichsheetsOperation)}.
+	 * If it wrote anything, Drive counts that as a change, so (if conditional performs are being used at all) we ask Drive again, and remember that instead, but only if its version moved by exactly our batchUpdates since before we read.
+	 * Otherwise someone else changed it too (maybe after we read it!), and taking the new time would mean skipping their change, so we keep the time from before the read and the next conditional perform just runs again.
+	 * 
+	 * @param lastModifiedTimestampOfOriginalData null if we couldn't get it (so there's nothing to remember)
+	 * @param versionOfOriginalData Drive's version of the file at the same time, or null if it didn't say
+	 * @param batchUpdatesSent how many (values or regular) batchUpdates our write sent; 0 if it didn't write anything
+	 */
+	protected void rememberProcessed(String spreadsheetId, int[] subsheetIndices, @Nullable Date lastModifiedTimestampOfOriginalData, @Nullable Long versionOfOriginalData, int batchUpdatesSent) throws IOException
+	{
+		if (lastModifiedTimestampOfOriginalData == null)
+			return;
+		
+		Date processed = lastModifiedTimestampOfOriginalData;
+		
+		if (batchUpdatesSent > 0 && conditionalPerformsUsed && versionOfOriginalData != null)
+		{
+			DriveFileModifiedTime afterWrite = getDriveModifiedTime(spreadsheetId);
+			
+			if (afterWrite != null && afterWrite.getModifiedDate() != null && afterWrite.version != null && afterWrite.version == versionOfOriginalData + batchUpdatesSent)
+				processed = afterWrite.getModifiedDate();
+		}
+		
+		for (int subsheetIndex : subsheetIndices)
+			lastProcessedModifiedTimes.put(spreadsheetId+"#"+subsheetIndex, processed);
+	}
+	
+	
+	
+	protected RichsheetsTable convertToRichsheets(Sheet s, int frozenColumnsCount, int frozenRowsCount)
+	{
+		GridData gd = getGridData(s);
 		
 		
 		int numberOfColumns = gd.getColumnMetadata().size();
@@ -543,21 +2460,20 @@ public class RichsheetsConnectionForGoogleSheets
 		List<Integer> columnWidths = mapToList(columnIndex -> gd.getColumnMetadata().get(columnIndex).getPixelSize(), intervalIntegersList(0, numberOfColumns));
 		
 		
-		List<RichsheetsRow> rows = mapToList(rowIndex ->
+		List<RichsheetsRow> rows;
 		{
-			List<RichshetsCellContents> cells = new ArrayList<>(numberOfColumns);
-			
-			for (CellData gsc : googleSheetsRows.get(rowIndex).getValues())
-				cells.add(decodeCell(gsc));
-			
-			for (int i = cells.size(); i < numberOfColumns; i++)
-				cells.add(RichshetsCellContents.Blank);
-			
-			Integer rowHeight = gd.getRowMetadata().get(rowIndex).getPixelSize();
-			
-			return new RichsheetsRow(cells, rowHeight);
-			
-		}, intervalIntegersList(0, numberOfRows));
+			if (numberOfRows < parallelDecodeThresholdRows)
+			{
+				rows = mapToList(rowIndex -> decodeRow(googleSheetsRows.get(rowIndex), gd.getRowMetadata().get(rowIndex).getPixelSize(), numberOfColumns), intervalIntegersList(0, numberOfRows));
+			}
+			else
+			{
+				//Big ones get decoded in chunks of rows on all the cores!  (each chunk fills in its own part of the array, so they come out in order)
+				RichsheetsRow[] decoded = new RichsheetsRow[numberOfRows];
+				forkJoinPool.invoke(new DecodeRows(googleSheetsRows, gd.getRowMetadata(), numberOfColumns, decoded, 0, numberOfRows, Math.max(1, parallelDecodeChunkRows)));
+				rows = new ArrayList<>(Arrays.asList(decoded));
+			}
+		}
 		
 		
 		
@@ -574,29 +2490,87 @@ public class RichsheetsConnectionForGoogleSheets
 	
 	
 	
-	protected static int getNumberOfColumns(Sheet s)
+	protected static class DecodeRows
+		extends RecursiveAction
 	{
-		List<GridData> gds = s.getData();
+		private static final long serialVersionUID = 1L;
 		
-		if (gds.size() != 1)
-			throw new RuntimeException("What does it meeeeeeean to have multiple GridData's?!");  //Todo figure out what it means XD   (it's not more than one even when there are multiple (sub)sheets in my testing!  —Sean @ 2022-05-14 07 z)
-		GridData gd = gds.get(0);
+		protected final List<RowData> googleSheetsRows;
+		protected final List<DimensionProperties> rowMetadata;
+		protected final int numberOfColumns;
+		protected final RichsheetsRow[] decoded;
+		protected final int start, end;
+		protected final int chunkRows;
 		
+		public DecodeRows(List<RowData> googleSheetsRows, List<DimensionProperties> rowMetadata, int numberOfColumns, RichsheetsRow[] decoded, int start, int end, int chunkRows)
+		{
+			this.googleSheetsRows = googleSheetsRows;
+			this.rowMetadata = rowMetadata;
+			this.numberOfColumns = numberOfColumns;
+			this.decoded = decoded;
+			this.start = start;
+			this.end = end;
+			this.chunkRows = chunkRows;
+		}
 		
-		return gd.getColumnMetadata().size();
+		@Override
+		protected void compute()
+		{
+			if (end - start > chunkRows)
+			{
+				int mid = (start + end) >>> 1;
+				invokeAll(new DecodeRows(googleSheetsRows, rowMetadata, numberOfColumns, decoded, start, mid, chunkRows), new DecodeRows(googleSheetsRows, rowMetadata, numberOfColumns, decoded, mid, end, chunkRows));
+			}
+			else
+			{
+				for (int rowIndex = start; rowIndex < end; rowIndex++)
+					decoded[rowIndex] = decodeRow(googleSheetsRows.get(rowIndex), rowMetadata.get(rowIndex).getPixelSize(), numberOfColumns);
+			}
+		}
 	}
 	
 	
-	protected static int getNumberOfRows(Sheet s)
+	/**
+	 * @param googleSheetsRow null is treated as an entirely blank row
+	 */
+	protected static RichsheetsRow decodeRow(@Nullable RowData googleSheetsRow, Integer rowHeight, int numberOfColumns)
+	{
+		List<RichshetsCellContents> cells = new ArrayList<>(numberOfColumns);
+		
+		List<CellData> gscs = googleSheetsRow == null ? null : googleSheetsRow.getValues();
+		
+		if (gscs != null)  //entirely blank rows come back as {} with no values at all, especially with a fields mask!
+			for (CellData gsc : gscs)
+				cells.add(decodeCell(gsc));
+		
+		for (int i = cells.size(); i < numberOfColumns; i++)
+			cells.add(RichshetsCellContents.Blank);
+		
+		return new RichsheetsRow(cells, rowHeight);
+	}
+	
+	
+	
+	
+	protected static GridData getGridData(Sheet s)
 	{
 		List<GridData> gds = s.getData();
 		
 		if (gds.size() != 1)
 			throw new RuntimeException("What does it meeeeeeean to have multiple GridData's?!");  //Todo figure out what it means XD   (it's not more than one even when there are multiple (sub)sheets in my testing!  —Sean @ 2022-05-14 07 z)
-		GridData gd = gds.get(0);
-		
-		
-		return gd.getRowMetadata().size();
+		return gds.get(0);
+	}
+	
+	
+	protected static int getNumberOfColumns(Sheet s)
+	{
+		return getGridData(s).getColumnMetadata().size();
+	}
+	
+	
+	protected static int getNumberOfRows(Sheet s)
+	{
+		return getGridData(s).getRowMetadata().size();
 	}
 	
 	
@@ -626,13 +2600,50 @@ public class RichsheetsConnectionForGoogleSheets
 	}
 	
 	
+	/**
+	 * What {@link #decodeCell(CellData, GoogleSheetsInterner)} makes of a cell with just that text and no formatting at all (but faster)
+	 */
+	protected static RichshetsCellContents decodePlainCell(String text, GoogleSheetsInterner interner)
+	{
+		List<RichshetsCellContentsRun> runs = text.isEmpty() ? emptyList() : singletonList(interner.run(text, false, false, false, false, RichshetsCellRunScriptLevel.Normal, null));
+		return interner.cell(runs, null, null, RichshetsTextWrappingStrategy.Overflow);
+	}
+	
 	protected static RichshetsCellContents decodeCell(CellData gsCell)
 	{
-		String v = gsCell.getFormattedValue();
+		return decodeCell(gsCell, GoogleSheetsInterner.getProcessWide());
+	}
+	
+	/**
+	 * @param interner so the same colors/runs/cells over and over (which is most of them!) are all the same objects instead of millions of copies
+	 */
+	protected static RichshetsCellContents decodeCell(CellData gsCell, GoogleSheetsInterner interner)
+	{
+		//Google Sheets leaves out anything that's empty/default (so blank cells come back as just {}), so everything here might be null!
+		
+		String v;
+		{
+			String fv = gsCell.getFormattedValue();
+			v = fv == null ? "" : fv;
+		}
 		
-		CellFormat f = gsCell.getEffectiveFormat();
+		CellFormat f;
+		{
+			CellFormat ef = gsCell.getEffectiveFormat();
+			f = ef == null ? new CellFormat() : ef;
+		}
 		
-		List<TextFormatRun> gsruns = gsCell.getTextFormatRuns();
+		List<TextFormatRun> gsruns;
+		{
+			List<TextFormatRun> tfr = gsCell.getTextFormatRuns();
+			
+			if (tfr != null)
+				gsruns = tfr;
+			else if (v.isEmpty())
+				gsruns = emptyList();
+			else
+				gsruns = singletonList(new TextFormatRun().setStartIndex(0).setFormat(f.getTextFormat() == null ? new TextFormat() : f.getTextFormat()));  //plain (non-rich) text is just one run in the cell's format
+		}
 		
 		int n = gsruns.size();
 		
@@ -640,8 +2651,8 @@ public class RichsheetsConnectionForGoogleSheets
 		{
 			TextFormatRun r = gsruns.get(i);
 			
-			TextFormat tf = r.getFormat();
-			int start = r.getStartIndex();
+			TextFormat tf = r.getFormat() == null ? new TextFormat() : r.getFormat();
+			int start = r.getStartIndex() == null ? 0 : r.getStartIndex();  //zero is left out like any other default!
 			
 			int end = i == n - 1 ? v.length() : gsruns.get(i+1).getStartIndex();
 			
@@ -655,7 +2666,7 @@ public class RichsheetsConnectionForGoogleSheets
 			
 			//Google Sheets doesn't support superscript or subscript
 			
-			return new RichshetsCellContentsRun(t, fin(bold), fin(underline), fin(italic), fin(strikethrough), RichshetsCellRunScriptLevel.Normal, decodeColor(fgcol));
+			return interner.run(t, fin(bold), fin(underline), fin(italic), fin(strikethrough), RichshetsCellRunScriptLevel.Normal, fgcol == null ? null : decodeColor(fgcol, interner));
 			
 		}, intervalIntegersList(0, n));
 		
@@ -685,9 +2696,11 @@ public class RichsheetsConnectionForGoogleSheets
 		{
 			String s = f.getWrapStrategy();
 			
-			if ("WRAP".equals(s))
+			if (s == null)  //the default
+				wrap = RichshetsTextWrappingStrategy.Overflow;
+			else if ("WRAP".equals(s) || "LEGACY_WRAP".equals(s))
 				wrap = RichshetsTextWrappingStrategy.Wrap;
-			else if ("OVERFLOW".equals(s))
+			else if ("OVERFLOW_CELL".equals(s) || "OVERFLOW".equals(s))  //the api says OVERFLOW_CELL
 				wrap = RichshetsTextWrappingStrategy.Overflow;
 			else if ("CLIP".equals(s))
 				wrap = RichshetsTextWrappingStrategy.Clip;
@@ -695,122 +2708,13 @@ public class RichsheetsConnectionForGoogleSheets
 				throw new ImPrettySureThisNeverActuallyHappensRuntimeException("Google Sheets Wrapping Strategy: "+repr(s));
 		}
 		
-		return new RichshetsCellContents(rsruns, justification, decodeColor(bgcol), wrap);
-	}
-	
-	
-	
-	
-	protected static CellData encodeCell(RichshetsCellContents datashetsCell, boolean bool)
-	{
-		List<TextFormatRun> gsruns;
-		{
-			gsruns = new ArrayList<>();
-			
-			int i = 0;
-			for (RichshetsCellContentsRun rsrun : datashetsCell.getContents())
-			{
-				TextFormat tf;
-				{
-					tf = new TextFormat();
-					
-					tf.setBold(rsrun.isBold());
-					tf.setItalic(rsrun.isItalic());
-					tf.setUnderline(rsrun.isUnderline());
-					tf.setStrikethrough(rsrun.isStrikethrough());
-					
-					if (rsrun.getScriptLevel() != RichshetsCellRunScriptLevel.Normal)
-						throw new RichsheetsUnencodableFormatException("Google Sheets cannot encode superscript or subscript rich text.");
-					
-					tf.setForegroundColor(encodeColor(rsrun.getTextColor()));
-				}
-				
-				
-				TextFormatRun gsrun = new TextFormatRun();
-				gsrun.setStartIndex(i);
-				gsrun.setFormat(tf);
-				gsruns.add(gsrun);
-				
-				i += rsrun.getContents().length();
-			}
-		}
-		
-		
-		
-		CellFormat f = new CellFormat();
-		f.setBackgroundColor(encodeColor(datashetsCell.getBackgroundColor()));
-		
-		
-		//Justification
-		{
-			RichshetsJustification j = datashetsCell.getJustification();
-			if (j == RichshetsJustification.Left)
-				f.setHorizontalAlignment("LEFT");
-			else if (j == RichshetsJustification.Center)
-				f.setHorizontalAlignment("CENTER");
-			else if (j == RichshetsJustification.Right)
-				f.setHorizontalAlignment("RIGHT");
-			else
-				throw new UnexpectedHardcodedEnumValueException(j);
-		}
-		
-		
-		//Wrap strategy
-		{
-			RichshetsTextWrappingStrategy w = datashetsCell.getWrappingStrategy();
-			if (w == RichshetsTextWrappingStrategy.Wrap)
-				f.setHorizontalAlignment("WRAP");
-			else if (w == RichshetsTextWrappingStrategy.Overflow)
-				f.setHorizontalAlignment("OVERFLOW");
-			else if (w == RichshetsTextWrappingStrategy.Clip)
-				f.setHorizontalAlignment("CLIP");
-			else
-				throw new UnexpectedHardcodedEnumValueException(w);
-		}
-		
-		
-		CellData sheetsCell = new CellData();
-		sheetsCell.setEffectiveFormat(f);
-		
-		String text = datashetsCell.justText();
-		
-		if (bool)
-		{
-			boolean value;
-			{
-				if (text.equalsIgnoreCase("true"))
-					value = true;
-				else if (text.equalsIgnoreCase("false"))
-					value = false;
-				else
-					throw new IllegalArgumentException("Not a boolean value!: '"+text+"'");
-			}
-			
-			ExtendedValue ev = new ExtendedValue();
-			ev.setBoolValue(value);
-			
-			sheetsCell.setUserEnteredValue(ev);
-			sheetsCell.setEffectiveValue(ev);
-			sheetsCell.setFormattedValue(value ? "TRUE" : "FALSE");
-		}
-		else
-		{
-			ExtendedValue ev = new ExtendedValue();
-			ev.setStringValue(text);
-			
-			sheetsCell.setUserEnteredValue(ev);
-			sheetsCell.setEffectiveValue(ev);
-			sheetsCell.setFormattedValue(text);
-		}
-		
-		return sheetsCell;
+		return interner.cell(rsruns, justification, bgcol == null ? null : decodeColor(bgcol, interner), wrap);
 	}
 	
 	
 	
 	
-	
-	protected static @Nullable RichshetsColor decodeColor(@Nonnull Color sheetsColor)
+	protected static @Nullable RichshetsColor decodeColor(@Nonnull Color sheetsColor, GoogleSheetsInterner interner)
 	{
 		Float r = sheetsColor.getRed();
 		Float g = sheetsColor.getGreen();
@@ -819,19 +2723,7 @@ public class RichsheetsConnectionForGoogleSheets
 		if (r == null && g == null && b == null)
 			return null;
 		else
-			return new RichshetsColor(cf2i(r == null ? 0 : r), cf2i(g == null ? 0 : g), cf2i(b == null ? 0 : b));
-	}
-	
-	protected static @Nonnull Color encodeColor(@Nullable RichshetsColor datashetsColor)
-	{
-		Color c = new Color();
-		if (datashetsColor != null)
-		{
-			c.setRed(ci2f(datashetsColor.getR()));
-			c.setGreen(ci2f(datashetsColor.getG()));
-			c.setBlue(ci2f(datashetsColor.getB()));
-		}
-		return c;
+			return interner.color(cf2i(r == null ? 0 : r), cf2i(g == null ? 0 : g), cf2i(b == null ? 0 : b));
 	}
 	
 	protected static int cf2i(float f)
@@ -860,12 +2752,6 @@ public class RichsheetsConnectionForGoogleSheets
 	
 	
 	
-	protected static RowData newRowData(List<CellData> l)
-	{
-		RowData r = new RowData();
-		r.setValues(l);
-		return r;
-	}
 	
 	
 	
@@ -879,6 +2765,18 @@ public class RichsheetsConnectionForGoogleSheets
 	
 	
 	
+	
+	/**
+	 * @return how many requests {@link GoogleSheetsRequestCompactor} has saved us from sending so far (no-ops dropped + ranges merged), across all the connections from this
+	 */
+	public long getNumberOfRequestsCompactedAway()
+	{
+		return requestsCompactedAway.get();
+	}
+	
+	
+	
+	
 	/**
 	 * Make sure to call this explicitly as it's not part of normal maintenance!
 	 */
@@ -889,60 +2787,267 @@ public class RichsheetsConnectionForGoogleSheets
 	}
 	
 	
-	public Date getLastModifiedTime(String spreadsheetId)
+	/**
+	 * This asks Drive for just the file's modifiedTime (it doesn't count against the Sheets quotas).
+	 * It needs the {@link #DriveMetadataReadonlyScope}, which older token caches won't have been granted; delete the token cache file to be asked for it again.
+	 * 
+	 * @return null if we aren't allowed to ask Drive (no scope, or the Drive API isn't enabled for the project), so callers just don't get timestamps like before
+	 */
+	public @Nullable Date getLastModifiedTime(String spreadsheetId) throws IOException
 	{
-		//TODO Google Drive api! :>
-		return null;
+		DriveFileModifiedTime file = getDriveModifiedTime(spreadsheetId);
+		return file == null ? null : file.getModifiedDate();
+	}
+	
+	/**
+	 * {@link #getLastModifiedTime(String)} with Drive's version number of the file too (in the same request), which goes up with every change.
+	 */
+	protected @Nullable DriveFileModifiedTime getDriveModifiedTime(String spreadsheetId) throws IOException
+	{
+		HttpRequestFactory requestFactory = driveRequestFactory;
+		
+		GoogleSheetsObserver observer = this.observer;
+		long start = startPhase();
+		
+		DriveFileModifiedTime file;
+		try
+		{
+			file = caller.call(() ->
+			{
+				GenericUrl url = new GenericUrl(DriveFilesUrl + spreadsheetId);
+				url.set("fields", "modifiedTime,version");
+				url.set("supportsAllDrives", true);
+				
+				HttpRequest request = requestFactory.buildGetRequest(url);
+				request.setParser(JsonFactory.createJsonObjectParser());
+				return request.execute().parseAs(DriveFileModifiedTime.class);
+			}, null, false);
+		}
+		catch (HttpResponseException exc)
+		{
+			if (exc.getStatusCode() == 403)
+			{
+				if (observer.isEnabled())
+					observer.warning(spreadsheetId, "Not allowed to get its modified time from Drive (is the Drive API enabled for this project?)", exc);
+				return null;
+			}
+			else
+			{
+				throw exc;
+			}
+		}
+		
+		finishPhase(spreadsheetId, -1, Phase.CheckModified, start);
+		
+		return file;
+	}
+	
+	public static class DriveFileModifiedTime
+		extends GenericJson
+	{
+		@Key
+		public String modifiedTime;
+		
+		@Key
+		@JsonString
+		public Long version;
+		
+		public @Nullable Date getModifiedDate()
+		{
+			return modifiedTime == null ? null : new Date(DateTime.parseRfc3339(modifiedTime).getValue());
+		}
 	}
 	
 	
 	
 	
 	/**
-	 * This is useful for figuring out if a table is huge before running {@link RichsheetsConnection#perform(Integer, RichsheetsOperation)} or similar on it (namely if you might want to do a HEAD style validation/maintenance if it's very large)
-	 * @return {width (number of columns), height (number of rows)} in the Google Sheet  (not the "Datashet" which cares about header rows vs. data rows and such, just the raw underlying Google Sheet X3   ..we can make another function for that if we want it :3 )
+	 * For reading sheets too big to hold in memory all at once: this reads the subsheet <code>windowSize</code> rows at a time, and only decodes each row as you get to it.
+	 * (The rows include any frozen/header rows, at the start, like normal.)
+	 * 
+	 * @param prefetch if true, the next window is downloaded in the background while you're going through the current one (so up to two windows are in memory at once)
+	 */
+	public GoogleSheetsRowWindowReader readRowWindows(String spreadsheetId, int subsheetIndex, int windowSize, boolean prefetch) throws IOException
+	{
+		return new GoogleSheetsRowWindowReader(this, spreadsheetId, subsheetIndex, windowSize, prefetch);
+	}
+	
+	/**
+	 * Same as {@link #readRowWindows(String, int, int, boolean)} but as a {@link Stream}; make sure to close it if you don't go all the way through it!  (eg, with try-with-resources)
+	 * IOExceptions while reading later windows are thrown as {@link UncheckedIOException}s.
 	 */
-	public int[] getDimensions(String spreadsheetId)
+	public Stream<RichsheetsRow> streamRows(String spreadsheetId, int subsheetIndex, int windowSize, boolean prefetch) throws IOException
 	{
-		//TODO get the size without actually downloading allllllllll the dataaaaaaaaa!  XD''
-		throw new NotYetImplementedException();
+		GoogleSheetsRowWindowReader reader = readRowWindows(spreadsheetId, subsheetIndex, windowSize, prefetch);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(reader::close);
 	}
 	
 	
 	
 	
+	/**
+	 * This is useful for figuring out if a table is huge before running {@link RichsheetsConnection#perform(Integer, RichsheetsOperation)} or similar on it (namely if you might want to do a HEAD style validation/maintenance if it's very large)
+	 * This is for the first subsheet; see {@link #getDimensions(String, int)}
+	 * @return {width (number of columns), height (number of rows)} in the Google Sheet  (not the "Datashet" which cares about header rows vs. data rows and such, just the raw underlying Google Sheet X3   ..we can make another function for that if we want it :3 )
+	 */
+	public int[] getDimensions(String spreadsheetId) throws IOException
+	{
+		return getDimensions(spreadsheetId, 0);
+	}
+	
+	/**
+	 * This only asks for the subsheets' properties (never any cells!), and the answer is cached for {@link #getDimensionsMaxAgeMillis()} so it's cheap to call a lot :3
+	 * (Our own writes through {@link #getConnectionFor(String, int)} invalidate the cache for their spreadsheet, but other people's edits can take that long to show up.)
+	 * @return {width (number of columns), height (number of rows)} in the Google Sheet
+	 */
+	public int[] getDimensions(String spreadsheetId, int subsheetIndex) throws IOException
+	{
+		GridProperties g = readPlanner.getSubsheetProperties(service, spreadsheetId, subsheetIndex, dimensionsMaxAgeMillis).getGridProperties();
+		
+		int columns = g == null || g.getColumnCount() == null ? 0 : g.getColumnCount();
+		int rows = g == null || g.getRowCount() == null ? 0 : g.getRowCount();
+		
+		return new int[]{columns, rows};
+	}
 	
+	public ForkJoinPool getForkJoinPool()
+	{
+		return forkJoinPool;
+	}
 	
+	/**
+	 * @param forkJoinPool where big subsheets are decoded and their column types inferred in parallel (the {@link ForkJoinPool#commonPool() common pool} by default)
+	 */
+	public void setForkJoinPool(ForkJoinPool forkJoinPool)
+	{
+		this.forkJoinPool = forkJoinPool;
+	}
 	
+	public int getParallelDecodeThresholdRows()
+	{
+		return parallelDecodeThresholdRows;
+	}
 	
+	/**
+	 * @param parallelDecodeThresholdRows subsheets with fewer rows than this are decoded on the calling thread (set it to {@link Integer#MAX_VALUE} to never decode in parallel)
+	 */
+	public void setParallelDecodeThresholdRows(int parallelDecodeThresholdRows)
+	{
+		this.parallelDecodeThresholdRows = parallelDecodeThresholdRows;
+	}
 	
+	public int getParallelDecodeChunkRows()
+	{
+		return parallelDecodeChunkRows;
+	}
 	
+	/**
+	 * @param parallelDecodeChunkRows how many rows each task decodes (at most)
+	 */
+	public void setParallelDecodeChunkRows(int parallelDecodeChunkRows)
+	{
+		this.parallelDecodeChunkRows = parallelDecodeChunkRows;
+	}
 	
 	
+	public GoogleSheetsObserver getObserver()
+	{
+		return observer;
+	}
 	
+	/**
+	 * Also sets it on the {@link #getCaller() caller} (which might be shared with other {@link RichsheetsConnectionForGoogleSheets}s!)
+	 * 
+	 * @param observer {@link GoogleSheetsObserver#None} to turn it off
+	 */
+	public void setObserver(@Nonnull GoogleSheetsObserver observer)
+	{
+		this.observer = observer;
+		caller.setObserver(observer);
+	}
 	
 	
 	/**
-	 * @param scopes Eg, {@link SheetsScopes#SPREADSHEETS_READONLY}, {@link SheetsScopes#SPREADSHEETS}
+	 * Where the network parts of async operations run: virtual threads if the JVM has them, or else daemon threads (see {@link GoogleSheetsExecutors#newBlockingIoExecutor()}), unless you set your own.
 	 */
-	protected static Credential getCredentials(File secretsFile, File tokenCacheFile, Collection<String> scopes) throws IOException, GeneralSecurityException
+	public Executor getAsyncExecutor()
 	{
-		final NetHttpTransport HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
-		
-		// Load client secrets.
-		String t = ReboundStaticallyCopiedUtilities.readAllText(secretsFile);
+		Executor e = asyncExecutor;
 		
-		GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JsonFactory, new StringReader(t));
+		if (e == null)
+		{
+			synchronized (this)
+			{
+				e = asyncExecutor;
+				
+				if (e == null)
+				{
+					ownAsyncExecutor = GoogleSheetsExecutors.newBlockingIoExecutor();
+					e = ownAsyncExecutor;
+					asyncExecutor = e;
+				}
+			}
+		}
 		
-		// Build flow and trigger user authorization request.
-		GoogleAuthorizationCodeFlow flow = new GoogleAuthorizationCodeFlow.Builder(HTTP_TRANSPORT, JsonFactory, clientSecrets, scopes).setDataStoreFactory(new FileDataStoreFactory(tokenCacheFile)).setAccessType("offline").build();
-		LocalServerReceiver receiver = new LocalServerReceiver.Builder().setPort(8888).build();
-		return new AuthorizationCodeInstalledApp(flow, receiver).authorize("user");
+		return e;
+	}
+	
+	/**
+	 * You're responsible for shutting this one down (close() only shuts down the default one)
+	 */
+	public void setAsyncExecutor(Executor asyncExecutor)
+	{
+		this.asyncExecutor = asyncExecutor;
+	}
+	
+	
+	
+	public GoogleSheetsSnapshotStore getSnapshotStore()
+	{
+		return snapshotStore;
+	}
+	
+	/**
+	 * @param snapshotStore where to keep decoded subsheets between runs, or null to not (the default).  Snapshots are only used when {@link #getLastModifiedTime(String)} works (so we know they're still current) and for whole-subsheet reads.
+	 */
+	public void setSnapshotStore(@Nullable GoogleSheetsSnapshotStore snapshotStore)
+	{
+		this.snapshotStore = snapshotStore;
+	}
+	
+	
+	public long getDimensionsMaxAgeMillis()
+	{
+		return dimensionsMaxAgeMillis;
 	}
 	
+	/**
+	 * @param dimensionsMaxAgeMillis zero to always ask Google
+	 */
+	public void setDimensionsMaxAgeMillis(long dimensionsMaxAgeMillis)
+	{
+		this.dimensionsMaxAgeMillis = dimensionsMaxAgeMillis;
+	}
+	
+	
+	
+	
+	
 	
 	protected static final JsonFactory JsonFactory = JacksonFactory.getDefaultInstance();
 	
+	/**
+	 * For {@link #getLastModifiedTime(String)}
+	 */
+	public static final String DriveMetadataReadonlyScope = "https://www.googleapis.com/auth/drive.metadata.readonly";
+	
+	/**
+	 * Everything we ask for
+	 */
+	public static final List<String> Scopes = unmodifiableList(asList(SheetsScopes.SPREADSHEETS, DriveMetadataReadonlyScope));
+	
+	protected static final String DriveFilesUrl = "https://www.googleapis.com/drive/v3/files/";
+	
 	protected static final int DefaultGoogleSheetsColumnWidth = 100;
 	protected static final int DefaultGoogleSheetsRowHeight = 21;
 }